@@ -0,0 +1,68 @@
+package com.example.WebsocketSpringBack;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * One broadcast to every connected session: encoding, fan-out and the drain
+ * of each outbound queue, run on the calling thread so the whole cost is
+ * measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({ "10", "1000", "10000" })
+    public int sessionCount;
+
+    private ChatMessageHandler handler;
+    private final List<StubWebSocketSession> sessions = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws Exception {
+        ChatProperties properties = new ChatProperties();
+        // Keep the USER_COUNT of every connection out of the setup
+        properties.getPresence().setWindow(Duration.ofHours(1));
+        handler = new ChatMessageHandler(properties, Runnable::run);
+        for (int i = 0; i < sessionCount; i++) {
+            StubWebSocketSession session = new StubWebSocketSession(String.format("session-%05d", i), null, blackhole);
+            handler.afterConnectionEstablished(session);
+            sessions.add(session);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        handler.shutdown();
+    }
+
+    @Benchmark
+    public void broadcastMessage() {
+        // A new message per operation, as for real broadcasts
+        handler.broadcastMessage(ChatMessage.createChatMessage("Alice", "Hello everyone, how is it going?"));
+    }
+}
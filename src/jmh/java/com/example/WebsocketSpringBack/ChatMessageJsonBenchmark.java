@@ -0,0 +1,99 @@
+package com.example.WebsocketSpringBack;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.InboundJsonDecoder;
+import com.example.WebsocketSpringBack.codec.JsonChatCodec;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON decoding of inbound payloads and encoding of the messages built by each
+ * {@link ChatMessage} factory
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageJsonBenchmark {
+
+    @Param({ "chat", "join", "leave", "error", "userCount", "ping", "pong", "welcome" })
+    public String factory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final InboundJsonDecoder inboundDecoder = new InboundJsonDecoder();
+    private final ChatCodecs codecs = ChatCodecs.defaults();
+    private final JsonChatCodec jsonCodec = new JsonChatCodec();
+    private byte[] inboundPayload;
+    private String inboundText;
+
+    @Setup
+    public void setUp() throws Exception {
+        inboundPayload = objectMapper.writeValueAsBytes(create());
+        inboundText = new String(inboundPayload, StandardCharsets.UTF_8);
+    }
+
+    private ChatMessage create() {
+        return switch (factory) {
+            case "chat" -> ChatMessage.createChatMessage("Alice", "Hello everyone, how is it going?");
+            case "join" -> ChatMessage.createJoinMessage("Alice");
+            case "leave" -> ChatMessage.createLeaveMessage("Alice");
+            case "error" -> ChatMessage.createErrorMessage("You are not a member of general");
+            case "userCount" -> ChatMessage.createUserCountMessage(1234);
+            case "ping" -> ChatMessage.createPingMessage();
+            case "pong" -> ChatMessage.createPongMessage();
+            case "welcome" -> ChatMessage.createWelcomeMessage("WebSocket Chat");
+            default -> throw new IllegalArgumentException(factory);
+        };
+    }
+
+    /**
+     * Binding the payload string to a {@code ChatMessage}, as text frames used to be decoded
+     */
+    @Benchmark
+    public ChatMessage decode() throws Exception {
+        return objectMapper.readValue(inboundText, ChatMessage.class);
+    }
+
+    /**
+     * Decoding as the handler does for text frames, streaming the payload string
+     */
+    @Benchmark
+    public ChatMessage decodeStreaming() throws Exception {
+        return inboundDecoder.decode(inboundText);
+    }
+
+    /**
+     * Building the message and encoding it straight to UTF-8 bytes
+     */
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return objectMapper.writeValueAsBytes(create());
+    }
+
+    /**
+     * Building the message and encoding its {@link OutboundMessage} with the
+     * streaming generator, as broadcasts are encoded
+     */
+    @Benchmark
+    public byte[] encodeOutbound() throws Exception {
+        return jsonCodec.encode(OutboundMessage.of(create(), System.currentTimeMillis(), codecs)).getBytes();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.WebsocketSpringBack;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.metrics.ChatMetrics;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.ratelimit.InboundRateLimiter;
+
+/**
+ * Rate limit checks of an inbound CHAT frame, with limits high enough that
+ * every frame is accepted: the cost paid by every well behaved client. The
+ * contended variant has four sessions of the same address taking tokens from
+ * its shared bucket.
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+        InboundRateLimiter limiter;
+
+        @Setup
+        public void setUp() {
+            ChatProperties.RateLimit settings = new ChatProperties.RateLimit();
+            ChatProperties.RateLimit.Limit unbounded = new ChatProperties.RateLimit.Limit(1e9, 1_000_000);
+            settings.setSession(unbounded);
+            settings.setAddress(unbounded);
+            settings.getTypes().put(ChatMessage.MessageType.CHAT, unbounded);
+            limiter = new InboundRateLimiter(settings, ChatMetrics.NOOP);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        InboundRateLimiter.Limits limits;
+
+        @Setup
+        public void setUp(Limiter limiter) {
+            limits = limiter.limiter.register("10.0.0.1");
+        }
+    }
+
+    @Benchmark
+    public InboundRateLimiter.Outcome checkChatFrame(Session session) {
+        session.limits.checkFrame();
+        return session.limits.checkMessage(ChatMessage.MessageType.CHAT);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public InboundRateLimiter.Outcome checkChatFrameSharedAddress(Session session) {
+        session.limits.checkFrame();
+        return session.limits.checkMessage(ChatMessage.MessageType.CHAT);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.WebsocketSpringBack;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sanitization of the names sent with JOIN messages
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitizeUsernameBenchmark {
+
+    @Param({ "Alice", "<script>alert('XSS')</script>User", "ThisUsernameIsMuchTooLongAndShouldBeTruncated" })
+    public String username;
+
+    @Benchmark
+    public String sanitizeUsername() {
+        return ChatMessageHandler.sanitizeUsername(username);
+    }
+}
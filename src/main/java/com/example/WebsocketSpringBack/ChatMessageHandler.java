@@ -1,36 +1,276 @@
 package com.example.WebsocketSpringBack;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import com.example.WebsocketSpringBack.broadcast.ShardedFanOut;
+import com.example.WebsocketSpringBack.cluster.BroadcastBus;
+import com.example.WebsocketSpringBack.cluster.ClusterRelay;
+import com.example.WebsocketSpringBack.cluster.LoopbackBroadcastBus;
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.InboundJsonDecoder;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.codec.WireFormat;
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.history.ChatHistory;
+import com.example.WebsocketSpringBack.history.MessageLog;
+import com.example.WebsocketSpringBack.metrics.ChatMetrics;
 import com.example.WebsocketSpringBack.model.ChatMessage;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.WebsocketSpringBack.presence.PresenceAggregator;
+import com.example.WebsocketSpringBack.presence.RosterTracker;
+import com.example.WebsocketSpringBack.ratelimit.InboundRateLimiter;
+import com.example.WebsocketSpringBack.room.RoomRegistry;
+import com.example.WebsocketSpringBack.session.HeartbeatWheel;
+import com.example.WebsocketSpringBack.session.MalformedBudget;
+import com.example.WebsocketSpringBack.session.PriorityClass;
+import com.example.WebsocketSpringBack.session.RawTextMode;
+import com.example.WebsocketSpringBack.session.SessionOutbound;
+import com.example.WebsocketSpringBack.session.SessionRegistry;
+import com.example.WebsocketSpringBack.session.SessionState;
+import com.example.WebsocketSpringBack.system.CoarseClock;
+import com.example.WebsocketSpringBack.system.SystemFrameCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
 
 @Component
-public class ChatMessageHandler extends TextWebSocketHandler {
+public class ChatMessageHandler extends AbstractWebSocketHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatMessageHandler.class);
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final InboundJsonDecoder jsonDecoder = new InboundJsonDecoder();
     
     @Value("${app.name}")
     private String appName;
     
-    // Store sessions with usernames
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
-    private final Map<String, String> sessionUsernames = new ConcurrentHashMap<>();
+    // Store sessions with their username, outbound queue and limits
+    private final SessionRegistry sessions = new SessionRegistry();
+    private final RoomRegistry rooms = new RoomRegistry();
+    private final Set<SessionOutbound> rosterSubscribers = ConcurrentHashMap.newKeySet();
+    // Held by a broadcast from its sequence number to its last enqueue, so every session gets the
+    // broadcasts in sequence order, and by a connecting session from its registration to its replay,
+    // so every sequenced message reaches it exactly once, either replayed or live
+    private final ReentrantLock sequencer = new ReentrantLock();
+    
+    private final ChatProperties properties;
+    private final Executor outboundExecutor;
+    private final PresenceAggregator presence;
+    private final ShardedFanOut shardedFanOut;
+    private final ChatCodecs codecs;
+    private final ChatHistory history;
+    private final MessageLog messageLog;
+    private final ClusterRelay cluster;
+    private final ChatMetrics metrics;
+    private final SystemFrameCache systemFrames;
+    private final InboundRateLimiter rateLimiter;
+    private final HeartbeatWheel heartbeat;
+    private final RosterTracker roster;
+    
+    @Autowired
+    public ChatMessageHandler(ChatProperties properties, BroadcastBus broadcastBus, MeterRegistry meterRegistry) {
+        this(properties, Executors.newVirtualThreadPerTaskExecutor(), broadcastBus, meterRegistry);
+    }
+    
+    ChatMessageHandler(ChatProperties properties, Executor outboundExecutor) {
+        this(properties, outboundExecutor, new LoopbackBroadcastBus());
+    }
+    
+    ChatMessageHandler(ChatProperties properties, Executor outboundExecutor, BroadcastBus broadcastBus) {
+        this(properties, outboundExecutor, broadcastBus, new SimpleMeterRegistry());
+    }
+    
+    /**
+     * @param properties       Handler tuning properties
+     * @param outboundExecutor Executor running the per-session drain tasks and fan-out shards
+     * @param broadcastBus     Transport to the other nodes, used when the cluster is enabled
+     * @param meterRegistry    Registry of the handler metrics
+     */
+    ChatMessageHandler(ChatProperties properties, Executor outboundExecutor, BroadcastBus broadcastBus,
+            MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.outboundExecutor = outboundExecutor;
+        this.metrics = new ChatMetrics(meterRegistry);
+        // Read through the handler, the session map must not be captured
+        metrics.bindActiveSessions(() -> sessions.size());
+        this.presence = new PresenceAggregator(properties.getPresence().getWindow(),
+                this::userCount, this::publishPresence, this::publishUserCount);
+        this.shardedFanOut = new ShardedFanOut(properties.getFanOut(), outboundExecutor);
+        this.codecs = new ChatCodecs(properties.getCompression());
+        metrics.bindCompression(codecs.getDeflateCodec());
+        this.systemFrames = new SystemFrameCache(
+                new CoarseClock(properties.getSystemFrames().getClockResolution()), codecs);
+        this.rateLimiter = new InboundRateLimiter(properties.getRateLimit(), metrics);
+        this.history = new ChatHistory(properties.getHistory());
+        this.messageLog = properties.getLog().isEnabled() ? openMessageLog() : null;
+        this.cluster = properties.getCluster().isEnabled()
+                ? new ClusterRelay(properties.getCluster(), broadcastBus, () -> sessions.size(), new ClusterReceiver())
+                : null;
+        this.heartbeat = properties.getHeartbeat().isEnabled()
+                ? new HeartbeatWheel(properties.getHeartbeat(), new HeartbeatListener())
+                : null;
+        if (properties.getRoster().isEnabled() && cluster != null) {
+            // The tracker only sees this node's sessions, while the user count covers the whole cluster
+            logger.warn("The roster is not relayed between nodes, it is disabled with the cluster enabled");
+        }
+        this.roster = properties.getRoster().isEnabled() && cluster == null
+                ? new RosterTracker(properties.getRoster().getWindow(), message -> fanOut(rosterSubscribers, message))
+                : null;
+        
+        // Calls back into the handler from other threads, started once every field is assigned
+        if (heartbeat != null) {
+            heartbeat.start();
+        }
+        if (cluster != null) {
+            cluster.start();
+        }
+    }
+    
+    /**
+     * @return Users connected to this node, plus those of the other nodes of the cluster
+     */
+    private int userCount() {
+        return sessions.size() + (cluster != null ? cluster.remoteUserCount() : 0);
+    }
+    
+    /**
+     * Local delivery of the broadcasts of other nodes, never relayed again
+     */
+    private class ClusterReceiver implements ClusterRelay.Receiver {
+        @Override
+        public void chat(ChatMessage message) {
+            // Every node sequences the message in its own history, keeping its original time
+            deliverChatMessage(OutboundMessage.of(message, codecs));
+        }
+        
+        @Override
+        public void room(String room, ChatMessage message) {
+            fanOut(rooms.members(room), OutboundMessage.of(message, codecs));
+        }
+        
+        @Override
+        public void notice(ChatMessage message) {
+            fanOut(sessions.outbounds(), OutboundMessage.of(message, codecs));
+        }
+        
+        @Override
+        public void direct(ChatMessage message) {
+            deliverDirectMessage(OutboundMessage.of(message, codecs));
+        }
+        
+        @Override
+        public void userCountChanged() {
+            presence.countChanged();
+        }
+    }
+    
+    /**
+     * Pings idle sessions and evicts those that stopped answering
+     */
+    private class HeartbeatListener implements HeartbeatWheel.Listener {
+        @Override
+        public void ping(String sessionId) {
+            SessionState state = sessions.get(sessionId);
+            if (state != null && state.getOutbound().enqueue(new PingMessage())) {
+                metrics.heartbeatPing();
+            }
+        }
+        
+        @Override
+        public void expired(String sessionId) {
+            // Gone right away, the close itself may block on a dead connection
+            SessionState state = sessions.unregister(sessionId);
+            if (state == null) {
+                return;
+            }
+            logger.info("Session {} stopped answering pings, closing it", sessionId);
+            metrics.heartbeatEviction();
+            disconnected(state);
+            outboundExecutor.execute(() -> closeQuietly(state.getSession(),
+                    CloseStatus.SESSION_NOT_RELIABLE.withReason("Heartbeat timeout")));
+        }
+    }
+    
+    /**
+     * Open the durable message log and restore the history from its tail
+     */
+    private MessageLog openMessageLog() {
+        try {
+            MessageLog log = MessageLog.open(properties.getLog());
+            int restored = 0;
+            for (ByteBuffer payload : log.tail(properties.getHistory().getMaxMessages())) {
+                try {
+                    ChatMessage message = codecs.get(WireFormat.JSON).decode(payload);
+                    long seq = message.getSeq() != null ? message.getSeq() : history.nextSeq();
+                    history.append(seq, OutboundMessage.of(message, codecs).withSeq(seq));
+                    restored++;
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable message log record: {}", e.getMessage());
+                }
+            }
+            logger.info("Restored {} messages of history from the message log", restored);
+            return log;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the message log", e);
+        }
+    }
+    
+    /**
+     * @return The codecs of every wire format, with their compression statistics
+     */
+    public ChatCodecs getCodecs() {
+        return codecs;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+        presence.shutdown();
+        if (roster != null) {
+            roster.shutdown();
+        }
+        if (heartbeat != null) {
+            heartbeat.shutdown();
+        }
+        if (messageLog != null) {
+            try {
+                messageLog.close();
+            } catch (IOException e) {
+                logger.error("Error closing the message log: {}", e.getMessage());
+            }
+        }
+        if (outboundExecutor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
@@ -38,91 +278,371 @@ public class ChatMessageHandler extends TextWebSocketHandler {
         logger.info("Remote address: {}", session.getRemoteAddress());
         logger.info("Session attributes: {}", session.getAttributes());
         
-        // Add session to the map with a default username (can be updated later)
-        sessions.put(session.getId(), session);
-        sessionUsernames.put(session.getId(), "User-" + session.getId().substring(0, 5));
+        // Register the session with a default username (can be updated later)
+        SessionState state = new SessionState(session, "User-" + session.getId().substring(0, 5),
+                new SessionOutbound(session, outboundExecutor, properties.getOutbound(), metrics,
+                        batchParameter(session)),
+                rateLimiter.register(remoteAddress(session)),
+                heartbeat != null ? heartbeat.register(session.getId()) : null);
+        // Only enqueued meanwhile, a broadcast waits for a few queue insertions at most
+        sequencer.lock();
+        try {
+            sessions.register(state);
+            
+            // Send welcome message to the new client
+            sendToSession(state, systemFrames.welcome(appName, cluster != null ? cluster.getNodeId() : null));
+            
+            // Replay the recent history, or only what a reconnecting client missed
+            Long lastSeq = lastSeqParameter(session);
+            if (lastSeq != null) {
+                resume(state, lastSeq, queryParameter(session, "node"));
+            } else {
+                replay(state, history.recent(properties.getHistory().getReplayCount()));
+            }
+        } finally {
+            sequencer.unlock();
+        }
         
-        // Send welcome message to the new client
-        ChatMessage welcomeMessage = ChatMessage.createWelcomeMessage(appName);
-        sendMessageToSession(session, welcomeMessage);
+        // The roster subscription starts with the full list, the new user follows in the next delta
+        if (roster != null) {
+            if (rosterParameter(session)) {
+                subscribeRoster(state);
+            }
+            roster.added(state.getUsername());
+        } else if (rosterParameter(session)) {
+            // Queued as chat, a control frame would overtake the welcome message and the replay
+            sendMessageToSession(state, ChatMessage.createErrorMessage(rosterUnavailable()), PriorityClass.CHAT);
+        }
         
-        // Notify all users about the count update
-        broadcastUserCount();
+        // Notify all users about the count update, coalesced with other presence changes
+        presence.connected();
+        if (cluster != null) {
+            cluster.localUserCountChanged();
+        }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         logger.debug("Connection closed. Session ID: {}. Status: {}", session.getId(), status.getReason());
         
-        // Get the username before removing session
-        String username = sessionUsernames.get(session.getId());
-        
-        // Remove session from maps
-        sessions.remove(session.getId());
-        sessionUsernames.remove(session.getId());
-        
-        // Notify other users that someone left
-        if (username != null) {
-            ChatMessage leaveMessage = ChatMessage.createLeaveMessage(username);
-            broadcastMessage(leaveMessage);
+        // Already gone if it was evicted for missing its heartbeats
+        SessionState state = sessions.unregister(session.getId());
+        if (state != null) {
+            disconnected(state);
+        }
+    }
+    
+    /**
+     * Clean up after a session that was just unregistered
+     * 
+     * @param state State of the session
+     */
+    private void disconnected(SessionState state) {
+        rateLimiter.release(state.getLimits());
+        rooms.leaveAll(state);
+        if (roster != null) {
+            rosterSubscribers.remove(state.getOutbound());
+            roster.removed(state.getUsername());
         }
         
-        // Update user count
-        broadcastUserCount();
+        // Notify other users that someone left and update the user count
+        presence.disconnected(state.getUsername());
+        if (cluster != null) {
+            cluster.localUserCountChanged();
+        }
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage textMessage) throws Exception {
         String payload = textMessage.getPayload();
         logger.debug("Message received from session {}: {}", session.getId(), payload);
+        // TextMessage would encode the payload again to report its length
+        metrics.received(ChatMetrics.utf8Length(payload));
+        SessionState state = sessions.get(session.getId());
+        if (state == null) {
+            logger.debug("Ignoring a frame of unregistered session {}", session.getId());
+            return;
+        }
+        state.touch();
+        
+        // Frames over the limits are rejected before any decoding work
+        InboundRateLimiter.Limits limits = state.getLimits();
+        if (!allowed(state, limits.checkFrame())) {
+            return;
+        }
+        
+        // Plain text is told apart up front instead of failing in the parser
+        if (!InboundJsonDecoder.looksLikeJson(payload)) {
+            if (properties.getInbound().getRawText() == RawTextMode.BROADCAST) {
+                // Broadcast as chat text, limited as such
+                if (allowed(state, limits.checkMessage(ChatMessage.MessageType.CHAT))) {
+                    broadcastRawText(state, payload);
+                }
+            } else {
+                handleMalformed(state, null, "not JSON");
+            }
+            return;
+        }
         
+        ChatMessage message;
         try {
-            ChatMessage message = objectMapper.readValue(payload, ChatMessage.class);
-            
-            // Check message type to handle different scenarios
-            switch (message.getType()) {
-                case PING:
-                    // Respond to ping with pong
-                    sendMessageToSession(session, ChatMessage.createPongMessage());
+            long started = System.nanoTime();
+            message = jsonDecoder.decode(payload);
+            metrics.decoded(System.nanoTime() - started);
+        } catch (IOException e) {
+            handleMalformed(state, payload, e.getMessage());
+            return;
+        }
+        if (message.getType() == null) {
+            // JSON without a type is not a chat message either
+            handleMalformed(state, payload, "no message type");
+            return;
+        }
+        metrics.inbound(message.getType());
+        if (!allowed(state, limits.checkMessage(message.getType()))) {
+            return;
+        }
+        handleChatMessage(state, message);
+    }
+    
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) throws Exception {
+        SessionState state = sessions.get(session.getId());
+        if (state != null) {
+            state.touch();
+        }
+    }
+    
+    /**
+     * Apply the rate limit action to a frame over the limits of its session
+     * 
+     * @param state   The sender session
+     * @param outcome The outcome of the rate limit check
+     * @return true if the frame is to be handled
+     */
+    private boolean allowed(SessionState state, InboundRateLimiter.Outcome outcome) {
+        if (outcome == InboundRateLimiter.Outcome.ALLOWED) {
+            return true;
+        }
+        if (outcome == InboundRateLimiter.Outcome.EXCEEDED) {
+            switch (rateLimiter.getAction()) {
+                case NOTIFY:
+                    sendMessageToSession(state,
+                            ChatMessage.createErrorMessage("Rate limit exceeded, messages are dropped"));
                     break;
-                
-                case JOIN:
-                    // Update the username if provided
-                    if (message.getName() != null && !message.getName().trim().isEmpty()) {
-                        String username = sanitizeUsername(message.getName());
-                        String oldUsername = sessionUsernames.get(session.getId());
-                        sessionUsernames.put(session.getId(), username);
-                        
-                        // Notify all users that someone updated their name
-                        ChatMessage joinMessage = ChatMessage.createJoinMessage(username);
-                        broadcastMessage(joinMessage);
-                    }
+                case DISCONNECT:
+                    logger.warn("Session {} exceeded its rate limit, closing it", state.getId());
+                    closeQuietly(state.getSession(), CloseStatus.POLICY_VIOLATION.withReason("Rate limit exceeded"));
                     break;
+                case DROP:
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+    
+    private static void closeQuietly(WebSocketSession session, CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            logger.debug("Error closing session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * @param session A session
+     * @return The remote host address of the session, null if unknown
+     */
+    private static String remoteAddress(WebSocketSession session) {
+        InetSocketAddress remote = session.getRemoteAddress();
+        if (remote == null) {
+            return null;
+        }
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+    
+    /**
+     * Broadcast a text frame that is not a chat message as plain chat text
+     * 
+     * @param state   The sender session
+     * @param payload The text of the frame
+     */
+    private void broadcastRawText(SessionState state, String payload) {
+        metrics.parseFallback();
+        broadcastChatMessage(ChatMessage.createChatMessage(state.getUsername(), payload));
+    }
+    
+    /**
+     * Handle a frame that could not be decoded, within the malformed budget of
+     * its session. Within the budget the text is broadcast as plain chat text
+     * in BROADCAST mode, and the sender gets an ERROR otherwise. Past the budget
+     * the sender is told once and the next malformed frames are dropped until
+     * the window ends. Only counted, a misbehaving client must not flood the logs.
+     * 
+     * @param state  The sender session
+     * @param text   The text of the frame, null if it is not to be broadcast
+     * @param reason Why the frame could not be decoded
+     */
+    private void handleMalformed(SessionState state, String text, String reason) {
+        metrics.malformed();
+        MalformedBudget budget = state.getMalformedBudget(properties.getInbound());
+        switch (budget.charge()) {
+            case ALLOWED:
+                logger.debug("Malformed message from session {}: {}", state.getId(), reason);
+                if (text != null && properties.getInbound().getRawText() == RawTextMode.BROADCAST) {
+                    // Broadcast as chat text, limited as such like plain text
+                    if (allowed(state, state.getLimits().checkMessage(ChatMessage.MessageType.CHAT))) {
+                        broadcastRawText(state, text);
+                    }
+                } else {
+                    sendMessageToSession(state, ChatMessage.createErrorMessage("Malformed message"));
+                }
+                break;
+            case EXHAUSTED:
+                logger.warn("Session {} exceeded its malformed message budget, dropping its malformed messages",
+                        state.getId());
+                metrics.throttled();
+                sendMessageToSession(state,
+                        ChatMessage.createErrorMessage("Too many malformed messages, they are ignored for now"));
+                break;
+            case THROTTLED:
+            default:
+                metrics.throttled();
+        }
+    }
+    
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage binaryMessage) throws Exception {
+        metrics.received(binaryMessage.getPayloadLength());
+        SessionState state = sessions.get(session.getId());
+        if (state == null) {
+            logger.debug("Ignoring a frame of unregistered session {}", session.getId());
+            return;
+        }
+        state.touch();
+        InboundRateLimiter.Limits limits = state.getLimits();
+        if (!allowed(state, limits.checkFrame())) {
+            return;
+        }
+        ChatMessage message;
+        try {
+            // Binary frames are decoded according to the format the client negotiated
+            WireFormat format = WireFormat.fromSubProtocol(session.getAcceptedProtocol());
+            long started = System.nanoTime();
+            message = codecs.get(format).decode(binaryMessage.getPayload());
+            metrics.decoded(System.nanoTime() - started);
+        } catch (IOException e) {
+            handleMalformed(state, null, e.getMessage());
+            return;
+        }
+        if (message.getType() == null) {
+            handleMalformed(state, null, "no message type");
+            return;
+        }
+        metrics.inbound(message.getType());
+        if (!allowed(state, limits.checkMessage(message.getType()))) {
+            return;
+        }
+        handleChatMessage(state, message);
+    }
+    
+    /**
+     * Handle a decoded message, whatever wire format it arrived in
+     * 
+     * @param state   The sender session
+     * @param message The decoded message
+     */
+    private void handleChatMessage(SessionState state, ChatMessage message) {
+        // Check message type to handle different scenarios
+        switch (message.getType()) {
+            case PING:
+                // Respond to ping with the cached pong
+                sendToSession(state, systemFrames.pong());
+                break;
+            
+            case JOIN:
+                // Update the username if provided
+                if (message.getName() != null && !message.getName().trim().isEmpty()) {
+                    String username = sanitizeUsername(message.getName());
+                    String previous = state.getUsername();
+                    if (sessions.rename(state, username) && roster != null) {
+                        roster.renamed(previous, username);
+                    }
                     
-                case CHAT:
-                    // Get the username for this session
-                    String username = sessionUsernames.get(session.getId());
-                    
+                    // Notify all users that someone updated their name
+                    presence.joined(username);
+                }
+                break;
+                
+            case CHAT:
+                // Get the username for this session
+                String username = state.getUsername();
+                
+                if (message.getRoom() == null) {
                     // Create a properly formatted chat message with the assigned username
                     ChatMessage chatMessage = ChatMessage.createChatMessage(
                         username, message.getMessage());
                     
                     // Broadcast to all clients
-                    broadcastMessage(chatMessage);
-                    break;
-                    
-                default:
-                    // For other message types, just log and ignore
-                    logger.debug("Received message of type {}: {}", message.getType(), message.getMessage());
-            }
+                    broadcastChatMessage(chatMessage);
+                } else if (rooms.isMember(message.getRoom(), state.getId())) {
+                    // Only members of the room receive room scoped messages
+                    ChatMessage chatMessage = ChatMessage.createChatMessage(
+                        username, message.getMessage(), message.getRoom());
+                    broadcastToRoom(message.getRoom(), chatMessage);
+                } else {
+                    sendMessageToSession(state,
+                        ChatMessage.createErrorMessage("You are not a member of " + message.getRoom()));
+                }
+                break;
             
-        } catch (Exception e) {
-            logger.error("Error processing message: {}", e.getMessage());
+            case DIRECT:
+                sendDirectMessage(state, message);
+                break;
             
-            // Try to parse as simple text if JSON parsing fails
-            String username = sessionUsernames.get(session.getId());
-            ChatMessage chatMessage = ChatMessage.createChatMessage(username, payload);
-            broadcastMessage(chatMessage);
+            case ROSTER:
+                // A new subscription, or a fresh snapshot after a missed delta
+                if (roster == null) {
+                    sendMessageToSession(state, ChatMessage.createErrorMessage(rosterUnavailable()));
+                } else {
+                    subscribeRoster(state);
+                }
+                break;
+            
+            case JOIN_ROOM:
+                String roomToJoin = sanitizeRoom(message.getRoom());
+                if (roomToJoin == null) {
+                    sendMessageToSession(state, ChatMessage.createErrorMessage("Invalid room name"));
+                } else if (rooms.join(roomToJoin, state)) {
+                    // Notify the room, including the new member
+                    broadcastToRoom(roomToJoin, ChatMessage.createRoomJoinMessage(
+                        state.getUsername(), roomToJoin));
+                }
+                break;
+            
+            case LEAVE_ROOM:
+                String roomToLeave = message.getRoom();
+                if (roomToLeave != null && rooms.leave(roomToLeave, state)) {
+                    ChatMessage roomLeaveMessage = ChatMessage.createRoomLeaveMessage(
+                        state.getUsername(), roomToLeave);
+                    // The leaving member gets the confirmation as well
+                    sendMessageToSession(state, roomLeaveMessage);
+                    broadcastToRoom(roomToLeave, roomLeaveMessage);
+                }
+                break;
+                
+            case RESUME:
+                if (message.getSeq() == null) {
+                    sendMessageToSession(state, ChatMessage.createErrorMessage("RESUME requires the last seen seq"));
+                } else {
+                    resume(state, message.getSeq(), message.getNode());
+                }
+                break;
+                
+            default:
+                // For other message types, just log and ignore
+                logger.debug("Received message of type {}: {}", message.getType(), message.getMessage());
         }
     }
     
@@ -138,58 +658,314 @@ public class ChatMessageHandler extends TextWebSocketHandler {
     }
     
     /**
-     * Send a message to a specific session
+     * Send a reconnecting client the messages broadcast after the last one it
+     * saw. When they are no longer all retained, the client is told with a
+     * RESYNC and gets the recent history to rebuild its view from.
+     * <p>
+     * Each node of a cluster numbers the broadcasts on its own, so a sequence
+     * number only means something to the node that issued it: a client coming
+     * from another node, or not saying which, is resynced as well.
      * 
-     * @param session The target session
-     * @param message The message to send
+     * @param state   The reconnecting session
+     * @param lastSeq Sequence number of the last message the client received
+     * @param node    Node the client received it from, as given in its welcome message
+     */
+    private void resume(SessionState state, long lastSeq, String node) {
+        boolean ours = cluster == null || cluster.getNodeId().equals(node);
+        List<OutboundMessage> missed = ours ? history.since(lastSeq) : null;
+        if (missed == null) {
+            logger.debug("Session {} cannot resume after {} of node {}, resyncing", state.getId(), lastSeq, node);
+            sendMessageToSession(state, ChatMessage.createResyncMessage(lastSeq));
+            missed = history.recent(properties.getHistory().getReplayCount());
+        }
+        replay(state, missed);
+    }
+    
+    /**
+     * Enqueue retained messages for a session, with the frames already encoded
+     * for their original broadcast
+     * 
+     * @param state    The target session
+     * @param messages The messages, oldest first
      */
-    private void sendMessageToSession(WebSocketSession session, ChatMessage message) {
+    private void replay(SessionState state, List<OutboundMessage> messages) {
+        SessionOutbound outbound = state.getOutbound();
+        for (OutboundMessage message : messages) {
+            outbound.enqueue(message);
+        }
+    }
+    
+    /**
+     * @param session The connecting session
+     * @return The {@code lastSeq} query parameter of the handshake, null if absent or invalid
+     */
+    private Long lastSeqParameter(WebSocketSession session) {
+        String value = queryParameter(session, "lastSeq");
+        if (value == null) {
+            return null;
+        }
         try {
-            if (session.isOpen()) {
-                String json = objectMapper.writeValueAsString(message);
-                session.sendMessage(new TextMessage(json));
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring invalid lastSeq {} from session {}", value, session.getId());
+            return null;
+        }
+    }
+    
+    /**
+     * @param session The connecting session
+     * @return true if the client asked for batched frames with the {@code batch} query parameter
+     */
+    private boolean batchParameter(WebSocketSession session) {
+        return Boolean.parseBoolean(queryParameter(session, "batch"));
+    }
+    
+    /**
+     * @param session The connecting session
+     * @return true if the client subscribed to the roster with the {@code roster} query parameter
+     */
+    private boolean rosterParameter(WebSocketSession session) {
+        return Boolean.parseBoolean(queryParameter(session, "roster"));
+    }
+    
+    /**
+     * @return Why roster subscriptions are refused
+     */
+    private String rosterUnavailable() {
+        return properties.getRoster().isEnabled()
+                ? "The roster is not available with the cluster enabled"
+                : "The roster is disabled";
+    }
+
+    /**
+     * Send a session the full roster and the deltas that follow it
+     * 
+     * @param state The subscribing session
+     */
+    private void subscribeRoster(SessionState state) {
+        roster.snapshot(snapshot -> {
+            rosterSubscribers.add(state.getOutbound());
+            // Checked after adding, a session unregistered meanwhile must not stay subscribed
+            if (sessions.get(state.getId()) != state) {
+                rosterSubscribers.remove(state.getOutbound());
+                return;
             }
-        } catch (IOException e) {
-            logger.error("Error sending message to session {}: {}", session.getId(), e.getMessage());
+            sendMessageToSession(state, snapshot);
+        });
+    }
+    
+    /**
+     * @param session The connecting session
+     * @param name    Name of a query parameter of the handshake
+     * @return Its first value, null if absent
+     */
+    private static String queryParameter(WebSocketSession session, String name) {
+        URI uri = session.getUri();
+        if (uri == null) {
+            return null;
         }
+        return UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst(name);
+    }
+    
+    /**
+     * Send a message to a specific session through its outbound queue
+     * 
+     * @param state   The target session
+     * @param message The message to send, just created
+     */
+    private void sendMessageToSession(SessionState state, ChatMessage message) {
+        sendToSession(state, OutboundMessage.of(message, System.currentTimeMillis(), codecs));
+    }
+    
+    /**
+     * Send a message to a specific session in the given class rather than the one of its type
+     * 
+     * @param state    The target session
+     * @param message  The message to send, just created
+     * @param priority How the message is queued
+     */
+    private void sendMessageToSession(SessionState state, ChatMessage message, PriorityClass priority) {
+        sendToSession(state, OutboundMessage.of(message, System.currentTimeMillis(), codecs), priority);
     }
     
     /**
-     * Broadcast a message to all connected sessions
+     * Send a message, possibly already encoded, to a specific session through its outbound queue
+     * 
+     * @param state   The target session
+     * @param message The message to send
+     */
+    private void sendToSession(SessionState state, OutboundMessage message) {
+        sendToSession(state, message, PriorityClass.of(message.getType()));
+    }
+    
+    /**
+     * @param priority How the message is queued
+     */
+    private void sendToSession(SessionState state, OutboundMessage message, PriorityClass priority) {
+        try {
+            state.getOutbound().enqueue(message, priority);
+        } catch (Exception e) {
+            logger.error("Error sending message to session {}: {}", state.getId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Broadcast a message to all connected sessions, package-private for the benchmarks
+     * 
+     * @param message The message to broadcast
+     */
+    void broadcastMessage(ChatMessage message) {
+        fanOut(sessions.outbounds(), message);
+    }
+    
+    /**
+     * Publish a JOIN or LEAVE notification to the sessions of every node
+     * 
+     * @param message The notification
+     */
+    private void publishPresence(ChatMessage message) {
+        if (cluster != null) {
+            cluster.publishNotice(message);
+        }
+        broadcastMessage(message);
+    }
+    
+    /**
+     * Publish the USER_COUNT notification to the sessions of this node only,
+     * every node computes it from the cluster wide count
+     * 
+     * @param count Number of users online
+     */
+    private void publishUserCount(int count) {
+        fanOut(sessions.outbounds(), systemFrames.userCount(count));
+    }
+    
+    /**
+     * Broadcast a chat message to all sessions of the cluster
+     * 
+     * @param message The message to broadcast, just created
+     */
+    private void broadcastChatMessage(ChatMessage message) {
+        if (cluster != null) {
+            cluster.publishChat(message);
+        }
+        // Stamped now rather than parsing back the timestamp text of a message this recent
+        deliverChatMessage(OutboundMessage.of(message, System.currentTimeMillis(), codecs));
+    }
+    
+    /**
+     * Broadcast a chat message to the sessions of this node and retain it in the
+     * history replayed to sessions connecting later, and in the message log if enabled
      * 
      * @param message The message to broadcast
      */
-    private void broadcastMessage(ChatMessage message) {
-        String json;
+    private void deliverChatMessage(OutboundMessage message) {
+        // Sequenced, retained and enqueued as one step, the sends themselves happen outside
+        sequencer.lock();
         try {
-            json = objectMapper.writeValueAsString(message);
-            
-            for (WebSocketSession session : sessions.values()) {
-                if (session.isOpen()) {
-                    session.sendMessage(new TextMessage(json));
-                }
+            // Stamped before encoding, every format carries the sequence number
+            long seq = history.nextSeq();
+            OutboundMessage sequenced = message.withSeq(seq);
+            history.append(seq, sequenced);
+            if (messageLog != null) {
+                // Only queued here, the log is written by its own flusher
+                messageLog.append(sequenced.get(WireFormat.JSON).getBytes());
             }
+            fanOut(sessions.outbounds(), sequenced);
         } catch (Exception e) {
             logger.error("Error broadcasting message: {}", e.getMessage());
+        } finally {
+            sequencer.unlock();
+        }
+    }
+    
+    /**
+     * Broadcast a message to the members of a room only, the cost depends on
+     * the size of the room rather than on the number of connected sessions
+     * 
+     * @param room    The target room
+     * @param message The message to broadcast
+     */
+    private void broadcastToRoom(String room, ChatMessage message) {
+        if (cluster != null) {
+            cluster.publishRoom(room, message);
+        }
+        fanOut(rooms.members(room), message);
+    }
+    
+    /**
+     * Send a private message to the sessions of its recipient, found through the
+     * username index rather than by scanning the sessions, with a copy for the
+     * sender. Neither sequenced nor retained in the history.
+     * 
+     * @param state   The sender session
+     * @param message The message as sent by the client
+     */
+    private void sendDirectMessage(SessionState state, ChatMessage message) {
+        String to = message.getTo();
+        if (to == null || to.isBlank()) {
+            sendMessageToSession(state, ChatMessage.createErrorMessage("DIRECT requires a recipient"));
+            return;
+        }
+        Set<SessionState> recipients = sessions.withUsername(to);
+        // Across a cluster the recipient may be connected to another node
+        if (recipients.isEmpty() && cluster == null) {
+            sendMessageToSession(state, ChatMessage.createErrorMessage(to + " is not online"));
+            return;
+        }
+        ChatMessage direct = ChatMessage.createDirectMessage(state.getUsername(), to, message.getMessage());
+        if (cluster != null) {
+            cluster.publishDirect(direct);
+        }
+        OutboundMessage outbound = OutboundMessage.of(direct, System.currentTimeMillis(), codecs);
+        deliverDirectMessage(outbound);
+        if (!recipients.contains(state)) {
+            sendToSession(state, outbound);
+        }
+    }
+    
+    /**
+     * Send a private message to the sessions of this node using its recipient name
+     * 
+     * @param message The message to send
+     */
+    private void deliverDirectMessage(OutboundMessage message) {
+        for (SessionState recipient : sessions.withUsername(message.getTo())) {
+            sendToSession(recipient, message);
         }
     }
     
     /**
-     * Broadcast current user count to all sessions
+     * Send a message to a set of sessions.
+     * The message is encoded once per wire format in use and the same frame is
+     * enqueued for every session of that format, in parallel shards for large
+     * audiences; each session drains its own queue so a slow client cannot hold
+     * up the others.
+     * 
+     * @param recipients Outbound queues of the target sessions
+     * @param message    The message to send, just created
      */
-    private void broadcastUserCount() {
-        int userCount = sessions.size();
-        ChatMessage countMessage = ChatMessage.createUserCountMessage(userCount);
-        broadcastMessage(countMessage);
+    private void fanOut(Collection<SessionOutbound> recipients, ChatMessage message) {
+        fanOut(recipients, OutboundMessage.of(message, System.currentTimeMillis(), codecs));
+    }
+    
+    private void fanOut(Collection<SessionOutbound> recipients, OutboundMessage message) {
+        try {
+            long started = System.nanoTime();
+            shardedFanOut.fanOut(recipients, message);
+            metrics.fannedOut(System.nanoTime() - started);
+        } catch (Exception e) {
+            logger.error("Error broadcasting message: {}", e.getMessage());
+        }
     }
     
     /**
-     * Sanitize username to prevent security issues
+     * Sanitize username to prevent security issues, package-private for the benchmarks
      * 
      * @param username The raw username
      * @return Sanitized username
      */
-    private String sanitizeUsername(String username) {
+    static String sanitizeUsername(String username) {
         // Remove any HTML tags, scripts, and potentially harmful content
         String sanitized = username.replaceAll("<[^>]*>", "") // Remove HTML tags
                              .replaceAll("(?i)script|alert|eval|function|\\(|\\)|'|\\\"|\\\\|XSS", "") // Remove JavaScript keywords and XSS
@@ -207,4 +983,21 @@ public class ChatMessageHandler extends TextWebSocketHandler {
         
         return sanitized;
     }
+    
+    /**
+     * Sanitize a room name, stripping HTML tags and limiting its length like user names
+     * 
+     * @param room The raw room name
+     * @return Sanitized room name, or null if nothing usable is left
+     */
+    private String sanitizeRoom(String room) {
+        if (room == null) {
+            return null;
+        }
+        String sanitized = room.replaceAll("<[^>]*>", "").trim();
+        if (sanitized.length() > 28) {
+            sanitized = sanitized.substring(0, 28);
+        }
+        return sanitized.isEmpty() ? null : sanitized;
+    }
 }
@@ -0,0 +1,82 @@
+package com.example.WebsocketSpringBack.broadcast;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.session.SessionOutbound;
+
+/**
+ * Hands a message to a set of outbound queues, splitting large audiences into
+ * shards enqueued concurrently.
+ * <p>
+ * Below the parallel threshold the recipients are walked in a plain loop. Above
+ * it the recipients are snapshotted and cut into shards; the calling thread
+ * takes the first shard and the executor the others. The call returns only
+ * once every shard is done, so messages broadcast one after the other by the same
+ * thread reach each recipient's queue in order.
+ */
+public class ShardedFanOut {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedFanOut.class);
+
+    private final int parallelThreshold;
+    private final int shardSize;
+    private final Executor executor;
+
+    public ShardedFanOut(ChatProperties.FanOut settings, Executor executor) {
+        this.parallelThreshold = settings.getParallelThreshold();
+        this.shardSize = Math.max(1, settings.getShardSize());
+        this.executor = executor;
+    }
+
+    /**
+     * Enqueue a message for every recipient
+     *
+     * @param recipients Outbound queues of the target sessions
+     * @param message    The message, encoded once per format for all recipients
+     */
+    public void fanOut(Collection<SessionOutbound> recipients, OutboundMessage message) {
+        if (recipients.size() < parallelThreshold) {
+            for (SessionOutbound outbound : recipients) {
+                outbound.enqueue(message);
+            }
+            return;
+        }
+
+        SessionOutbound[] snapshot = recipients.toArray(new SessionOutbound[0]);
+        int shards = (snapshot.length + shardSize - 1) / shardSize;
+        CountDownLatch done = new CountDownLatch(shards - 1);
+
+        for (int shard = 1; shard < shards; shard++) {
+            int from = shard * shardSize;
+            executor.execute(() -> {
+                try {
+                    enqueueRange(snapshot, from, message);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        enqueueRange(snapshot, 0, message);
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for fan-out shards to complete");
+        }
+    }
+
+    private void enqueueRange(SessionOutbound[] snapshot, int from, OutboundMessage message) {
+        int to = Math.min(from + shardSize, snapshot.length);
+        for (int i = from; i < to; i++) {
+            snapshot[i].enqueue(message);
+        }
+    }
+}
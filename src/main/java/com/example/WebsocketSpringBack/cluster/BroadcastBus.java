@@ -0,0 +1,35 @@
+package com.example.WebsocketSpringBack.cluster;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transport carrying broadcasts between the nodes of a cluster.
+ * <p>
+ * Implementations deliver every published batch to every subscriber, the
+ * publishing node included, and keep the order of the batches published by a
+ * given node. Echoes and redeliveries are filtered by the receiving
+ * {@link ClusterRelay}, so at-least-once transports such as a pub/sub channel
+ * can be plugged in as they are.
+ */
+public interface BroadcastBus {
+
+    /**
+     * Publish a batch of messages to every node
+     *
+     * @param batch Messages of one node, in publication order
+     */
+    void publish(List<BusMessage> batch);
+
+    /**
+     * Receive the batches published by every node
+     *
+     * @param listener Called with each batch, possibly on a transport thread
+     * @return The subscription, cancelled when the node shuts down
+     */
+    Subscription subscribe(Consumer<List<BusMessage>> listener);
+
+    interface Subscription {
+        void cancel();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.WebsocketSpringBack.cluster;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * A message exchanged between the nodes of the cluster
+ *
+ * @param nodeId    Node that published the message
+ * @param id        Per node publication number, increasing in publication order
+ * @param kind      How receiving nodes deliver the message
+ * @param room      Target room of {@link Kind#ROOM} messages, null otherwise
+ * @param message   The chat message, null for {@link Kind#USER_COUNT}
+ * @param userCount Sessions connected to the publishing node, for {@link Kind#USER_COUNT}
+ */
+public record BusMessage(String nodeId, long id, Kind kind, String room, ChatMessage message, int userCount) {
+
+    public enum Kind {
+        /**
+         * Chat message for every session, sequenced and retained in the history of each node
+         */
+        CHAT,
+
+        /**
+         * Message for the members of a room
+         */
+        ROOM,
+
+        /**
+         * Notification for every session, neither sequenced nor retained
+         */
+        NOTICE,
+
+        /**
+         * Private message for the sessions of its recipient, wherever they are connected
+         */
+        DIRECT,
+
+        /**
+         * Number of sessions connected to the publishing node
+         */
+        USER_COUNT
+    }
+}
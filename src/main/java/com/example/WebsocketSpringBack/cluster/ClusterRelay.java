@@ -0,0 +1,318 @@
+package com.example.WebsocketSpringBack.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * Connects a node to the {@link BroadcastBus}: publishes each local broadcast
+ * once for the whole cluster and hands the broadcasts of other nodes to the
+ * local fan-out.
+ * <p>
+ * Outgoing messages are collected for a short batch window and published as
+ * one batch, so a burst of broadcasts costs one publish per window rather than
+ * one per message. Publication numbers are assigned when a batch is cut, so
+ * they follow the order of the batches. Receiving nodes drop their own
+ * messages coming back from the bus and anything at or below the last number
+ * seen from the same node.
+ * <p>
+ * Every node also publishes its own session count, on change and then
+ * periodically; the counts of the other nodes are summed for USER_COUNT, and a
+ * node that has not been heard of for the node timeout no longer counts. The
+ * changes are coalesced: a batch carries at most one count, read when the
+ * batch is cut, and only if it differs from the last one published, so a
+ * reconnect storm costs no more than the batches it already fills.
+ * <p>
+ * The relay neither receives nor sends heartbeats before {@link #start}.
+ */
+public class ClusterRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRelay.class);
+
+    /**
+     * Local delivery of the messages published by other nodes
+     */
+    public interface Receiver {
+        void chat(ChatMessage message);
+
+        void room(String room, ChatMessage message);
+
+        void notice(ChatMessage message);
+
+        void direct(ChatMessage message);
+
+        /**
+         * The number of users connected to other nodes changed
+         */
+        void userCountChanged();
+    }
+
+    private record Pending(BusMessage.Kind kind, String room, ChatMessage message, int userCount) {
+    }
+
+    private record NodeCount(int count, long seenAt) {
+    }
+
+    private final String nodeId;
+    private final BroadcastBus bus;
+    private final IntSupplier localUserCount;
+    private final Receiver receiver;
+    private final long batchWindowMillis;
+    private final int maxBatchSize;
+    private final long nodeTimeoutMillis;
+    private final long heartbeatMillis;
+    private final ScheduledExecutorService scheduler;
+    // Set once by start
+    private volatile BroadcastBus.Subscription subscription;
+
+    private final Queue<Pending> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outgoingCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // A count change waiting in the outgoing queue, which reads the count when the batch is cut
+    private final AtomicBoolean countQueued = new AtomicBoolean();
+    // Guarded by the flush lock
+    private long nextId;
+    private int lastPublishedCount = -1;
+
+    private final Map<String, Long> lastIds = new ConcurrentHashMap<>();
+    private final Map<String, NodeCount> remoteCounts = new ConcurrentHashMap<>();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * @param settings       Node id, batching and heartbeat settings
+     * @param bus            Transport shared with the other nodes
+     * @param localUserCount Supplies the number of sessions connected to this node
+     * @param receiver       Delivers the messages of other nodes locally
+     */
+    public ClusterRelay(ChatProperties.Cluster settings, BroadcastBus bus, IntSupplier localUserCount,
+            Receiver receiver) {
+        // A restarted node starts numbering again, so each run gets its own id
+        String name = settings.getNodeName() == null || settings.getNodeName().isBlank()
+                ? "node" : settings.getNodeName();
+        this.nodeId = name + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.bus = bus;
+        this.localUserCount = localUserCount;
+        this.receiver = receiver;
+        this.batchWindowMillis = settings.getBatchWindow().toMillis();
+        this.maxBatchSize = Math.max(1, settings.getMaxBatchSize());
+        this.nodeTimeoutMillis = settings.getNodeTimeout().toMillis();
+
+        this.heartbeatMillis = settings.getHeartbeatInterval().toMillis();
+        this.scheduler = batchWindowMillis > 0 || heartbeatMillis > 0
+                ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "cluster-relay");
+                    thread.setDaemon(true);
+                    return thread;
+                }) : null;
+    }
+
+    /**
+     * Join the cluster: subscribe to the bus and start the heartbeats, once
+     * the relay and its receiver are fully constructed
+     */
+    public synchronized void start() {
+        if (subscription != null) {
+            return;
+        }
+        if (heartbeatMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+        subscription = bus.subscribe(this::receive);
+        logger.info("Node {} joined the cluster", nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @param message Chat message for every session of the cluster, copied
+     *                since the caller goes on stamping it; sent without its
+     *                sequence number, each node numbers its broadcasts itself
+     */
+    public void publishChat(ChatMessage message) {
+        enqueue(new Pending(BusMessage.Kind.CHAT, null, message.toBuilder().seq(null).build(), 0));
+    }
+
+    /**
+     * @param room    Target room
+     * @param message Message for the members of the room on every node
+     */
+    public void publishRoom(String room, ChatMessage message) {
+        enqueue(new Pending(BusMessage.Kind.ROOM, room, message, 0));
+    }
+
+    /**
+     * @param message Notification for every session of the cluster
+     */
+    public void publishNotice(ChatMessage message) {
+        enqueue(new Pending(BusMessage.Kind.NOTICE, null, message, 0));
+    }
+
+    /**
+     * @param message Private message for the sessions of its recipient on every node
+     */
+    public void publishDirect(ChatMessage message) {
+        enqueue(new Pending(BusMessage.Kind.DIRECT, null, message, 0));
+    }
+
+    /**
+     * The number of sessions on this node changed, published with the next
+     * batch unless a change is already waiting for it
+     */
+    public void localUserCountChanged() {
+        if (countQueued.compareAndSet(false, true)) {
+            // The count is read when the batch is cut
+            enqueue(new Pending(BusMessage.Kind.USER_COUNT, null, null, -1));
+        }
+    }
+
+    /**
+     * @return Sessions connected to the other live nodes
+     */
+    public int remoteUserCount() {
+        int total = 0;
+        for (NodeCount count : remoteCounts.values()) {
+            total += count.count();
+        }
+        return total;
+    }
+
+    /**
+     * @return Messages queued for the next batch, package-private for the tests
+     */
+    int getOutgoingCount() {
+        return outgoingCount.get();
+    }
+
+    /**
+     * @return Messages dropped as echoes of this node or redeliveries
+     */
+    public long getDuplicatesSuppressed() {
+        return duplicates.get();
+    }
+
+    private void enqueue(Pending pending) {
+        outgoing.offer(pending);
+        // Counted on every path, the flush takes one off for each message it polls
+        if (outgoingCount.incrementAndGet() >= maxBatchSize || batchWindowMillis == 0) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Publish everything queued as one batch
+     */
+    synchronized void flush() {
+        flushScheduled.set(false);
+        List<BusMessage> batch = new ArrayList<>();
+        Pending pending;
+        while ((pending = outgoing.poll()) != null) {
+            outgoingCount.decrementAndGet();
+            int userCount = pending.userCount();
+            if (pending.kind() == BusMessage.Kind.USER_COUNT) {
+                if (userCount < 0) {
+                    // Changes from here on queue another count
+                    countQueued.set(false);
+                    userCount = localUserCount.getAsInt();
+                    if (userCount == lastPublishedCount) {
+                        continue;
+                    }
+                }
+                lastPublishedCount = userCount;
+            }
+            batch.add(new BusMessage(nodeId, nextId++, pending.kind(), pending.room(), pending.message(),
+                    userCount));
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            bus.publish(batch);
+        } catch (Exception e) {
+            logger.error("Error publishing {} messages to the cluster: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private void receive(List<BusMessage> batch) {
+        boolean countChanged = false;
+        for (BusMessage message : batch) {
+            if (nodeId.equals(message.nodeId()) || !isNew(message)) {
+                duplicates.incrementAndGet();
+                continue;
+            }
+            switch (message.kind()) {
+                case CHAT -> receiver.chat(message.message());
+                case ROOM -> receiver.room(message.room(), message.message());
+                case NOTICE -> receiver.notice(message.message());
+                case DIRECT -> receiver.direct(message.message());
+                case USER_COUNT -> countChanged |= updateCount(message.nodeId(), message.userCount());
+            }
+        }
+        if (countChanged) {
+            receiver.userCountChanged();
+        }
+    }
+
+    private boolean isNew(BusMessage message) {
+        boolean[] isNew = new boolean[1];
+        lastIds.compute(message.nodeId(), (node, lastId) -> {
+            isNew[0] = lastId == null || message.id() > lastId;
+            return isNew[0] ? message.id() : lastId;
+        });
+        return isNew[0];
+    }
+
+    private boolean updateCount(String node, int count) {
+        NodeCount previous = count > 0
+                ? remoteCounts.put(node, new NodeCount(count, System.currentTimeMillis()))
+                : remoteCounts.remove(node);
+        return (previous != null ? previous.count() : 0) != count;
+    }
+
+    /**
+     * Republish the local count so other nodes know this one is alive, and
+     * forget nodes that have gone quiet
+     */
+    private void heartbeat() {
+        // Sent even if unchanged, it tells the other nodes this one is alive
+        enqueue(new Pending(BusMessage.Kind.USER_COUNT, null, null, localUserCount.getAsInt()));
+        long expiredBefore = System.currentTimeMillis() - nodeTimeoutMillis;
+        if (remoteCounts.values().removeIf(count -> count.seenAt() < expiredBefore)) {
+            receiver.userCountChanged();
+        }
+    }
+
+    /**
+     * Leave the cluster, other nodes stop counting this node's users
+     */
+    public void shutdown() {
+        outgoing.offer(new Pending(BusMessage.Kind.USER_COUNT, null, null, 0));
+        flush();
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.WebsocketSpringBack.cluster;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process bus handing every batch directly to the subscribers of the same
+ * JVM, on the publishing thread.
+ * <p>
+ * With a single node it only echoes the node's own batches, which the relay
+ * drops. Several handlers sharing one instance behave like nodes of a cluster,
+ * which is how multi-node behavior is tested without a broker.
+ */
+public class LoopbackBroadcastBus implements BroadcastBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoopbackBroadcastBus.class);
+
+    private final List<Consumer<List<BusMessage>>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(List<BusMessage> batch) {
+        for (Consumer<List<BusMessage>> listener : listeners) {
+            try {
+                listener.accept(batch);
+            } catch (Exception e) {
+                logger.error("Error delivering a batch of {} messages: {}", batch.size(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Subscription subscribe(Consumer<List<BusMessage>> listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.WebsocketSpringBack.codec;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+
+/**
+ * Compact binary format for clients that negotiate {@code chat.binary}.
+ * <p>
+ * Layout of a frame, all integers as unsigned LEB128 varints:
+ * <pre>
+ * type       MessageType ordinal (new types are only ever appended)
+ * fields     bit set of the fields that follow
+ * timestamp  epoch milliseconds, if bit 0 is set
+ * name       length + UTF-8 bytes, if bit 1 is set
+ * message    length + UTF-8 bytes, if bit 2 is set
+ * room       length + UTF-8 bytes, if bit 3 is set
+ * seq        sequence number, if bit 4 is set
+ * to         length + UTF-8 bytes, if bit 5 is set
+ * roster     if bit 6 is set:
+ *              version
+ *              members, count + 1 (0 when absent), then each as length + UTF-8 bytes
+ *              changes, count + 1 (0 when absent), then each as its Op ordinal,
+ *              the name and, for RENAME only, the previous name
+ * node       length + UTF-8 bytes, if bit 7 is set
+ * </pre>
+ * Unknown field bits are rejected, so the format can grow by assigning new bits.
+ * <p>
+ * Sessions that opted in to batching may also receive batch frames: the
+ * {@link #BATCH} tag in place of a type, the number of frames, then each frame
+ * as its length and bytes.
+ */
+public class BinaryChatCodec implements ChatCodec {
+
+    private static final int TIMESTAMP = 1;
+    private static final int NAME = 1 << 1;
+    private static final int MESSAGE = 1 << 2;
+    private static final int ROOM = 1 << 3;
+    private static final int SEQ = 1 << 4;
+    private static final int TO = 1 << 5;
+    private static final int ROSTER = 1 << 6;
+    private static final int NODE = 1 << 7;
+    private static final int KNOWN_FIELDS = TIMESTAMP | NAME | MESSAGE | ROOM | SEQ | TO | ROSTER | NODE;
+
+    /**
+     * Leading varint of a batch frame, far above any type ordinal
+     */
+    public static final int BATCH = 0x7F;
+
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+    private static final Roster.Op[] OPS = Roster.Op.values();
+
+    @Override
+    public EncodedFrame encode(OutboundMessage message) {
+        long epochMillis = message.getTimestamp();
+        byte[] name = utf8(message.getName());
+        byte[] text = utf8(message.getMessage());
+        byte[] room = utf8(message.getRoom());
+        Long seq = message.getSeq();
+        byte[] to = utf8(message.getTo());
+        Roster roster = message.getRoster();
+        byte[] node = utf8(message.getNode());
+
+        int fields = (epochMillis >= 0 ? TIMESTAMP : 0)
+                | (name != null ? NAME : 0)
+                | (text != null ? MESSAGE : 0)
+                | (room != null ? ROOM : 0)
+                | (seq != null ? SEQ : 0)
+                | (to != null ? TO : 0)
+                | (roster != null ? ROSTER : 0)
+                | (node != null ? NODE : 0);
+
+        int type = message.getType() != null ? message.getType().ordinal() : ChatMessage.MessageType.CHAT.ordinal();
+        int size = varintSize(type) + varintSize(fields) + (epochMillis >= 0 ? varintSize(epochMillis) : 0)
+                + fieldSize(name) + fieldSize(text) + fieldSize(room) + (seq != null ? varintSize(seq) : 0)
+                + fieldSize(to) + (roster != null ? rosterSize(roster) : 0) + fieldSize(node);
+
+        Writer writer = new Writer(size);
+        writer.varint(type);
+        writer.varint(fields);
+        if (epochMillis >= 0) {
+            writer.varint(epochMillis);
+        }
+        writer.bytes(name);
+        writer.bytes(text);
+        writer.bytes(room);
+        if (seq != null) {
+            writer.varint(seq);
+        }
+        writer.bytes(to);
+        if (roster != null) {
+            writeRoster(writer, roster);
+        }
+        writer.bytes(node);
+        return EncodedFrame.binary(writer.toByteArray());
+    }
+
+    /**
+     * Wrap encoded frames into one batch frame
+     *
+     * @param frames The payloads of the frames, in order, read without being consumed
+     * @return The batch frame
+     */
+    public static EncodedFrame batch(List<ByteBuffer> frames) {
+        int size = varintSize(BATCH) + varintSize(frames.size());
+        for (ByteBuffer frame : frames) {
+            size += varintSize(frame.remaining()) + frame.remaining();
+        }
+        Writer writer = new Writer(size);
+        writer.varint(BATCH);
+        writer.varint(frames.size());
+        for (ByteBuffer frame : frames) {
+            writer.varint(frame.remaining());
+            writer.bytes(frame.duplicate());
+        }
+        return EncodedFrame.binary(writer.toByteArray());
+    }
+
+    /**
+     * Split a frame into the frames it carries
+     *
+     * @param payload A batch frame or a single frame
+     * @return Views of the frames of a batch, or the frame itself
+     * @throws IOException if the batch is truncated
+     */
+    public static List<ByteBuffer> split(ByteBuffer payload) throws IOException {
+        ByteBuffer buffer = payload.duplicate();
+        try {
+            if (readVarint(buffer) != BATCH) {
+                return List.of(payload);
+            }
+            long count = readVarint(buffer);
+            List<ByteBuffer> frames = new ArrayList<>();
+            for (long i = 0; i < count; i++) {
+                long length = readVarint(buffer);
+                if (length > buffer.remaining()) {
+                    throw new IOException("Batched frame length " + length + " exceeds batch");
+                }
+                ByteBuffer frame = buffer.slice(buffer.position(), (int) length);
+                buffer.position(buffer.position() + (int) length);
+                frames.add(frame);
+            }
+            return frames;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated batch frame", e);
+        }
+    }
+
+    @Override
+    public ChatMessage decode(ByteBuffer payload) throws IOException {
+        try {
+            int typeIndex = (int) readVarint(payload);
+            if (typeIndex < 0 || typeIndex >= TYPES.length) {
+                throw new IOException("Unknown message type " + typeIndex);
+            }
+            int fields = (int) readVarint(payload);
+            if ((fields & ~KNOWN_FIELDS) != 0) {
+                throw new IOException("Unknown fields " + Integer.toBinaryString(fields));
+            }
+
+            ChatMessage message = new ChatMessage();
+            message.setType(TYPES[typeIndex]);
+            message.setTimestamp((fields & TIMESTAMP) != 0 ? Instant.ofEpochMilli(readVarint(payload)).toString() : null);
+            if ((fields & NAME) != 0) {
+                message.setName(readString(payload));
+            }
+            if ((fields & MESSAGE) != 0) {
+                message.setMessage(readString(payload));
+            }
+            if ((fields & ROOM) != 0) {
+                message.setRoom(readString(payload));
+            }
+            if ((fields & SEQ) != 0) {
+                message.setSeq(readVarint(payload));
+            }
+            if ((fields & TO) != 0) {
+                message.setTo(readString(payload));
+            }
+            if ((fields & ROSTER) != 0) {
+                message.setRoster(readRoster(payload));
+            }
+            if ((fields & NODE) != 0) {
+                message.setNode(readString(payload));
+            }
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated binary frame", e);
+        }
+    }
+
+    private static int rosterSize(Roster roster) {
+        int size = varintSize(roster.version());
+        size += varintSize(roster.members() != null ? roster.members().size() + 1 : 0);
+        if (roster.members() != null) {
+            for (String member : roster.members()) {
+                size += fieldSize(utf8(member));
+            }
+        }
+        size += varintSize(roster.changes() != null ? roster.changes().size() + 1 : 0);
+        if (roster.changes() != null) {
+            for (Roster.Change change : roster.changes()) {
+                size += varintSize(change.op().ordinal()) + fieldSize(utf8(change.name()));
+                if (change.op() == Roster.Op.RENAME) {
+                    size += fieldSize(utf8(change.previous()));
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void writeRoster(Writer writer, Roster roster) {
+        writer.varint(roster.version());
+        writer.varint(roster.members() != null ? roster.members().size() + 1 : 0);
+        if (roster.members() != null) {
+            for (String member : roster.members()) {
+                writer.bytes(utf8(member));
+            }
+        }
+        writer.varint(roster.changes() != null ? roster.changes().size() + 1 : 0);
+        if (roster.changes() != null) {
+            for (Roster.Change change : roster.changes()) {
+                writer.varint(change.op().ordinal());
+                writer.bytes(utf8(change.name()));
+                if (change.op() == Roster.Op.RENAME) {
+                    writer.bytes(utf8(change.previous()));
+                }
+            }
+        }
+    }
+
+    private static Roster readRoster(ByteBuffer buffer) throws IOException {
+        long version = readVarint(buffer);
+        List<String> members = null;
+        long memberCount = readCount(buffer);
+        if (memberCount >= 0) {
+            members = new ArrayList<>();
+            for (long i = 0; i < memberCount; i++) {
+                members.add(readString(buffer));
+            }
+        }
+        List<Roster.Change> changes = null;
+        long changeCount = readCount(buffer);
+        if (changeCount >= 0) {
+            changes = new ArrayList<>();
+            for (long i = 0; i < changeCount; i++) {
+                long op = readVarint(buffer);
+                if (op < 0 || op >= OPS.length) {
+                    throw new IOException("Unknown roster change " + op);
+                }
+                String name = readString(buffer);
+                String previous = OPS[(int) op] == Roster.Op.RENAME ? readString(buffer) : null;
+                changes.add(new Roster.Change(OPS[(int) op], name, previous));
+            }
+        }
+        return new Roster(version, members, changes);
+    }
+
+    /**
+     * @return The count of a list written as count + 1, -1 if the list is absent
+     */
+    private static long readCount(ByteBuffer buffer) throws IOException {
+        long count = readVarint(buffer) - 1;
+        // Every element takes at least one byte, a larger count cannot be honest
+        if (count > buffer.remaining()) {
+            throw new IOException("List length " + count + " exceeds frame");
+        }
+        return count;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int fieldSize(byte[] value) {
+        return value != null ? varintSize(value.length) + value.length : 0;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static long readVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        long length = readVarint(buffer);
+        if (length > buffer.remaining()) {
+            throw new IOException("Field length " + length + " exceeds frame");
+        }
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + (int) length);
+            return value;
+        }
+        byte[] bytes = new byte[(int) length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes into an array sized exactly for the frame
+     */
+    private static final class Writer {
+        private final byte[] buffer;
+        private int position;
+
+        Writer(int size) {
+            buffer = new byte[size];
+        }
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void bytes(byte[] value) {
+            if (value == null) {
+                return;
+            }
+            varint(value.length);
+            System.arraycopy(value, 0, buffer, position, value.length);
+            position += value.length;
+        }
+
+        void bytes(ByteBuffer value) {
+            int length = value.remaining();
+            value.get(buffer, position, length);
+            position += length;
+        }
+
+        byte[] toByteArray() {
+            return buffer;
+        }
+    }
+}
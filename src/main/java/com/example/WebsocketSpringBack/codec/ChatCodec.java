@@ -0,0 +1,26 @@
+package com.example.WebsocketSpringBack.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * Converts chat messages to and from one wire format
+ */
+public interface ChatCodec {
+
+    /**
+     * @param message The message to encode
+     * @return The encoded frame
+     * @throws IOException if the message cannot be encoded
+     */
+    EncodedFrame encode(OutboundMessage message) throws IOException;
+
+    /**
+     * @param payload The received payload
+     * @return The decoded message
+     * @throws IOException if the payload is malformed
+     */
+    ChatMessage decode(ByteBuffer payload) throws IOException;
+}
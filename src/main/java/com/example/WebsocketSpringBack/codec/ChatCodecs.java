@@ -0,0 +1,38 @@
+package com.example.WebsocketSpringBack.codec;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+
+/**
+ * The codec of every wire format, configured once per handler
+ */
+public class ChatCodecs {
+
+    private final ChatCodec[] codecs = new ChatCodec[WireFormat.values().length];
+    private final DeflateJsonCodec deflateCodec;
+
+    public ChatCodecs(ChatProperties.Compression compression) {
+        JsonChatCodec jsonCodec = new JsonChatCodec();
+        this.deflateCodec = new DeflateJsonCodec(jsonCodec, compression);
+        codecs[WireFormat.JSON.ordinal()] = jsonCodec;
+        codecs[WireFormat.BINARY.ordinal()] = new BinaryChatCodec();
+        codecs[WireFormat.JSON_DEFLATE.ordinal()] = deflateCodec;
+    }
+
+    /**
+     * @return Codecs with the default compression settings
+     */
+    public static ChatCodecs defaults() {
+        return new ChatCodecs(new ChatProperties.Compression());
+    }
+
+    public ChatCodec get(WireFormat format) {
+        return codecs[format.ordinal()];
+    }
+
+    /**
+     * @return The compressing codec, which keeps the compression statistics
+     */
+    public DeflateJsonCodec getDeflateCodec() {
+        return deflateCodec;
+    }
+}
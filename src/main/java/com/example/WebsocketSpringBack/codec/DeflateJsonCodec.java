@@ -0,0 +1,142 @@
+package com.example.WebsocketSpringBack.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * JSON with application level DEFLATE compression.
+ * <p>
+ * Container permessage-deflate compresses every frame once per session, with a
+ * compression context per connection, so a broadcast to N clients costs N
+ * compressions. This codec compresses once, when the frame is encoded, and the
+ * result is shared by every recipient of the format. Each payload is compressed
+ * independently with raw DEFLATE, like permessage-deflate without context
+ * takeover, and clients inflate binary frames with e.g. a
+ * {@code DecompressionStream("deflate-raw")}. Payloads below the minimum size,
+ * or that do not shrink, stay plain JSON text frames.
+ * <p>
+ * Deflaters are expensive to create and hold native memory, so they are pooled
+ * and shared across threads rather than created per message.
+ */
+public class DeflateJsonCodec implements ChatCodec {
+
+    private final JsonChatCodec jsonCodec;
+    private final int minSize;
+    private final int level;
+    private final int maxInflatedSize;
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    public DeflateJsonCodec(JsonChatCodec jsonCodec, ChatProperties.Compression compression) {
+        this.jsonCodec = jsonCodec;
+        this.minSize = (int) compression.getMinSize().toBytes();
+        this.level = compression.getLevel();
+        this.maxInflatedSize = (int) compression.getMaxInflatedSize().toBytes();
+    }
+
+    @Override
+    public EncodedFrame encode(OutboundMessage message) throws IOException {
+        EncodedFrame json = jsonCodec.encode(message);
+        if (json.size() < minSize) {
+            return json;
+        }
+
+        byte[] compressed = deflate(json.getBytes());
+        uncompressedBytes.addAndGet(json.size());
+        if (compressed == null) {
+            compressedBytes.addAndGet(json.size());
+            return json;
+        }
+        compressedBytes.addAndGet(compressed.length);
+        return EncodedFrame.binary(compressed);
+    }
+
+    @Override
+    public ChatMessage decode(ByteBuffer payload) throws IOException {
+        byte[] input = new byte[payload.remaining()];
+        payload.get(input);
+        return jsonCodec.decode(ByteBuffer.wrap(inflate(input)));
+    }
+
+    /**
+     * @return Compressed to uncompressed size of the payloads that went through
+     *         compression, 1.0 until the first one did
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.get();
+        return uncompressed == 0 ? 1.0 : (double) compressedBytes.get() / uncompressed;
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return The compressed bytes, or null if compression does not make the payload smaller
+     */
+    private byte[] deflate(byte[] input) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            // Anything not smaller than the input is not worth sending
+            byte[] output = new byte[input.length];
+            int length = deflater.deflate(output);
+            if (!deflater.finished() || length >= input.length) {
+                return null;
+            }
+            return Arrays.copyOf(output, length);
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    private byte[] inflate(byte[] input) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input);
+            // Never more than the limit up front, a large compressed frame must not allocate 4x its size
+            byte[] output = new byte[(int) Math.min(maxInflatedSize, Math.max(64L, input.length * 4L))];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    if (output.length >= maxInflatedSize) {
+                        throw new IOException("Inflated payload exceeds " + maxInflatedSize + " bytes");
+                    }
+                    output = Arrays.copyOf(output, Math.min(output.length * 2, maxInflatedSize));
+                }
+                int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed payload");
+                }
+                length += inflated;
+            }
+            return Arrays.copyOf(output, length);
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.WebsocketSpringBack.codec;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+/**
+ * A message already encoded to its wire bytes.
+ * <p>
+ * The frame is built once per broadcast and shared by every recipient. Text
+ * frames hand out the same {@link TextMessage} instance to everyone; Spring's
+ * {@code TextMessage} keeps the UTF-8 bytes it was created from, so payload
+ * length checks on the send path do not re-encode the payload either. Binary
+ * frames share the bytes but need a {@link BinaryMessage} per recipient, since
+ * the container consumes the position of the buffer it is given.
+ */
+public final class EncodedFrame {
+
+    private final byte[] bytes;
+    private final TextMessage textMessage;
+
+    private EncodedFrame(byte[] bytes, boolean text) {
+        this.bytes = bytes;
+        this.textMessage = text ? new TextMessage(bytes) : null;
+    }
+
+    /**
+     * Wrap UTF-8 encoded text. The array must not be modified afterwards.
+     *
+     * @param utf8 The encoded payload
+     * @return A new text frame
+     */
+    public static EncodedFrame text(byte[] utf8) {
+        return new EncodedFrame(utf8, true);
+    }
+
+    /**
+     * Wrap a binary payload. The array must not be modified afterwards.
+     *
+     * @param payload The encoded payload
+     * @return A new binary frame
+     */
+    public static EncodedFrame binary(byte[] payload) {
+        return new EncodedFrame(payload, false);
+    }
+
+    /**
+     * @return The encoded payload, shared and not to be modified
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Payload size in bytes
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    public boolean isBinary() {
+        return textMessage == null;
+    }
+
+    /**
+     * @return The message to hand to a session, the same instance for every recipient of a text frame
+     */
+    public WebSocketMessage<?> toMessage() {
+        return textMessage != null ? textMessage : new BinaryMessage(bytes);
+    }
+}
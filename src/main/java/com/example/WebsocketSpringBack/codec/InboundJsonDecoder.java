@@ -0,0 +1,173 @@
+package com.example.WebsocketSpringBack.codec;
+
+import java.io.IOException;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming decoder of the JSON text frames sent by clients.
+ * <p>
+ * The payload is read token by token with a {@link JsonParser} instead of being
+ * bound through an {@code ObjectMapper}. Only the fields the handler acts on are
+ * materialized: the client {@code timestamp} is skipped without its text ever
+ * being built, and the type is matched against the enum names in the parser's
+ * own buffer. As soon as the type turns out to be PING, decoding stops and the
+ * shared {@link #PING} instance is returned, so a heartbeat allocates no message
+ * at all.
+ * <p>
+ * Errors are reported like the {@code ObjectMapper} binding did: unknown
+ * fields, structured values and unknown types are malformed.
+ */
+public class InboundJsonDecoder {
+
+    /**
+     * The message returned for every PING, shared and not to be modified
+     */
+    public static final ChatMessage PING = new ChatMessage(null, null, null, ChatMessage.MessageType.PING, null, null, null, null, null);
+
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+    private static final char[][] TYPE_NAMES = new char[TYPES.length][];
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPE_NAMES[i] = TYPES[i].name().toCharArray();
+        }
+    }
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Cheap structural check telling JSON objects from plain text, so plain text
+     * is not sent through the parser only to fail
+     *
+     * @param payload The text of a frame
+     * @return true if the first non-blank character opens a JSON object
+     */
+    public static boolean looksLikeJson(CharSequence payload) {
+        for (int i = 0; i < payload.length(); i++) {
+            char c = payload.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param json The text of a frame
+     * @return The decoded message, {@link #PING} for a PING; the client
+     *         timestamp is never decoded
+     * @throws IOException if the payload is not a valid chat message
+     */
+    public ChatMessage decode(String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+
+            String name = null;
+            String message = null;
+            String room = null;
+            Long seq = null;
+            String to = null;
+            String node = null;
+            ChatMessage.MessageType type = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                // Field names are interned by the parser, compared without allocating
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    throw new JsonParseException(parser, "Unexpected structured value for " + field);
+                }
+                switch (field) {
+                    case "type":
+                        type = readType(parser, value);
+                        if (type == ChatMessage.MessageType.PING) {
+                            // Nothing else in a PING matters
+                            return PING;
+                        }
+                        break;
+                    case "name":
+                        name = parser.getValueAsString();
+                        break;
+                    case "message":
+                        message = parser.getValueAsString();
+                        break;
+                    case "room":
+                        room = parser.getValueAsString();
+                        break;
+                    case "to":
+                        to = parser.getValueAsString();
+                        break;
+                    case "node":
+                        node = parser.getValueAsString();
+                        break;
+                    case "seq":
+                        seq = readSeq(parser, value);
+                        break;
+                    case "timestamp":
+                        // Skipped, the server stamps its own messages
+                        break;
+                    default:
+                        throw new JsonParseException(parser, "Unknown field " + field);
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT) {
+                throw new JsonParseException(parser, "Unterminated JSON object");
+            }
+            return new ChatMessage(name, message, null, type, room, seq, to, null, node);
+        }
+    }
+
+    private static ChatMessage.MessageType readType(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(parser, "Message type must be a string");
+        }
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (int i = 0; i < TYPES.length; i++) {
+            if (matches(TYPE_NAMES[i], text, offset, length)) {
+                return TYPES[i];
+            }
+        }
+        throw new JsonParseException(parser, "Unknown message type " + parser.getText());
+    }
+
+    private static boolean matches(char[] name, char[] text, int offset, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != text[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Long readSeq(JsonParser parser, JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_STRING:
+                try {
+                    return Long.parseLong(parser.getText());
+                } catch (NumberFormatException e) {
+                    throw new JsonParseException(parser, "Invalid seq " + parser.getText());
+                }
+            default:
+                throw new JsonParseException(parser, "Invalid seq");
+        }
+    }
+}
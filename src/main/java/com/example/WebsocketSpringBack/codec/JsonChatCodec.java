@@ -0,0 +1,126 @@
+package com.example.WebsocketSpringBack.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * The JSON text format every client understands.
+ * <p>
+ * Outgoing messages are written field by field with a {@link JsonGenerator},
+ * in the shape Jackson gives a {@link ChatMessage}: name, message, timestamp
+ * and type always present, room, seq, to, roster and node only when set. Sessions that opted in
+ * to batching may also receive several of these objects in one JSON array.
+ */
+public class JsonChatCodec implements ChatCodec {
+
+    // Room for a typical chat message, a larger one grows the buffer
+    private static final int INITIAL_SIZE = 256;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public EncodedFrame encode(OutboundMessage message) throws IOException {
+        // Straight to UTF-8 bytes, without an intermediate String; the generator itself
+        // takes its buffers from the factory, through the public API only
+        JsonFactory factory = objectMapper.getFactory();
+        ByteArrayBuilder buffer = new ByteArrayBuilder(INITIAL_SIZE);
+        try (JsonGenerator generator = factory.createGenerator(buffer, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringField("name", message.getName());
+            generator.writeStringField("message", message.getMessage());
+            generator.writeStringField("timestamp", Instant.ofEpochMilli(message.getTimestamp()).toString());
+            generator.writeStringField("type", message.getType() != null ? message.getType().name() : null);
+            if (message.getRoom() != null) {
+                generator.writeStringField("room", message.getRoom());
+            }
+            if (message.getSeq() != null) {
+                generator.writeNumberField("seq", message.getSeq());
+            }
+            if (message.getTo() != null) {
+                generator.writeStringField("to", message.getTo());
+            }
+            if (message.getRoster() != null) {
+                generator.writeFieldName("roster");
+                writeRoster(generator, message.getRoster());
+            }
+            if (message.getNode() != null) {
+                generator.writeStringField("node", message.getNode());
+            }
+            generator.writeEndObject();
+        }
+        return EncodedFrame.text(buffer.toByteArray());
+    }
+
+    private static void writeRoster(JsonGenerator generator, Roster roster) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("version", roster.version());
+        if (roster.members() != null) {
+            generator.writeArrayFieldStart("members");
+            for (String member : roster.members()) {
+                generator.writeString(member);
+            }
+            generator.writeEndArray();
+        }
+        if (roster.changes() != null) {
+            generator.writeArrayFieldStart("changes");
+            for (Roster.Change change : roster.changes()) {
+                generator.writeStartObject();
+                generator.writeStringField("op", change.op().name());
+                generator.writeStringField("name", change.name());
+                if (change.previous() != null) {
+                    generator.writeStringField("previous", change.previous());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Wrap encoded JSON objects into one JSON array frame
+     *
+     * @param frames The UTF-8 payloads of the frames, in order
+     * @return The batch frame
+     */
+    public static EncodedFrame batch(List<byte[]> frames) {
+        int size = 1 + frames.size();
+        for (byte[] frame : frames) {
+            size += frame.length;
+        }
+        byte[] array = new byte[size];
+        int position = 0;
+        array[position++] = '[';
+        for (int i = 0; i < frames.size(); i++) {
+            if (i > 0) {
+                array[position++] = ',';
+            }
+            byte[] frame = frames.get(i);
+            System.arraycopy(frame, 0, array, position, frame.length);
+            position += frame.length;
+        }
+        array[position] = ']';
+        return EncodedFrame.text(array);
+    }
+
+    @Override
+    public ChatMessage decode(ByteBuffer payload) throws IOException {
+        if (payload.hasArray()) {
+            return objectMapper.readValue(payload.array(), payload.arrayOffset() + payload.position(),
+                    payload.remaining(), ChatMessage.class);
+        }
+        // Direct and mapped buffers are parsed in place rather than copied first
+        return objectMapper.readValue(new ByteBufferBackedInputStream(payload), ChatMessage.class);
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.WebsocketSpringBack.codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+
+/**
+ * An outgoing message: immutable, and encoded at most once per wire format.
+ * <p>
+ * {@link ChatMessage} stays the mutable model of what clients send and of the
+ * factories; everything the server sends, broadcasts, replays from the history
+ * or writes to the message log goes through this snapshot instead. The time is
+ * kept as epoch milliseconds, formatted only by the formats that need text.
+ * <p>
+ * Each format is encoded on first demand and the frame is kept, so a message
+ * costs one encoding per format actually in use by its recipients, however many
+ * times it is sent, replayed or persisted.
+ * <p>
+ * A message kept for long, in the chat history, is first reduced with
+ * {@link #retained()} to its JSON frame plus the type, time and sequence
+ * number, so it costs close to its JSON wire size. The other formats and the
+ * fields are then decoded from that frame on demand and not kept, trading an
+ * encoding per replay to the clients of the other formats for the memory.
+ */
+public final class OutboundMessage {
+
+    private static final WireFormat[] FORMATS = WireFormat.values();
+
+    private final String name;
+    private final String message;
+    private final long timestamp;
+    private final ChatMessage.MessageType type;
+    private final String room;
+    private final Long seq;
+    private final String to;
+    private final Roster roster;
+    private final String node;
+    private final ChatCodecs codecs;
+    // Null in a retained message, which only keeps its JSON frame
+    private final AtomicReferenceArray<EncodedFrame> frames;
+    private final EncodedFrame retainedJson;
+
+    private OutboundMessage(String name, String message, long timestamp, ChatMessage.MessageType type,
+            String room, Long seq, String to, Roster roster, String node, ChatCodecs codecs) {
+        this.name = name;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.room = room;
+        this.seq = seq;
+        this.to = to;
+        this.roster = roster;
+        this.node = node;
+        this.codecs = codecs;
+        this.frames = new AtomicReferenceArray<>(FORMATS.length);
+        this.retainedJson = null;
+    }
+
+    private OutboundMessage(EncodedFrame json, long timestamp, ChatMessage.MessageType type, Long seq,
+            ChatCodecs codecs) {
+        this.name = null;
+        this.message = null;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.room = null;
+        this.seq = seq;
+        this.to = null;
+        this.roster = null;
+        this.node = null;
+        this.codecs = codecs;
+        this.frames = null;
+        this.retainedJson = json;
+    }
+
+    /**
+     * Snapshot a message for sending
+     *
+     * @param message The message, not referenced afterwards
+     * @param codecs  The codecs encoding it
+     * @return The outgoing message, stamped now if the message had no valid timestamp
+     */
+    public static OutboundMessage of(ChatMessage message, ChatCodecs codecs) {
+        return new OutboundMessage(message.getName(), message.getMessage(), toEpochMillis(message.getTimestamp()),
+                message.getType(), message.getRoom(), message.getSeq(), message.getTo(), message.getRoster(),
+                message.getNode(), codecs);
+    }
+
+    /**
+     * Snapshot a message for sending with a time of the caller's choosing
+     *
+     * @param message   The message, its own timestamp is ignored
+     * @param timestamp Epoch milliseconds
+     * @param codecs    The codecs encoding it
+     * @return The outgoing message
+     */
+    public static OutboundMessage of(ChatMessage message, long timestamp, ChatCodecs codecs) {
+        return new OutboundMessage(message.getName(), message.getMessage(), timestamp,
+                message.getType(), message.getRoom(), message.getSeq(), message.getTo(), message.getRoster(),
+                message.getNode(), codecs);
+    }
+
+    /**
+     * @param seq The sequence number of the broadcast
+     * @return A copy carrying the sequence number, not encoded yet
+     */
+    public OutboundMessage withSeq(long seq) {
+        return new OutboundMessage(name, message, timestamp, type, room, seq, to, roster, node, codecs);
+    }
+
+    /**
+     * @return A copy keeping only the JSON frame, encoded now if it was not yet,
+     *         and what routing a message needs: its type, time and sequence number
+     */
+    public OutboundMessage retained() {
+        if (retainedJson != null) {
+            return this;
+        }
+        return new OutboundMessage(get(WireFormat.JSON), timestamp, type, seq, codecs);
+    }
+
+    /**
+     * @return The full message decoded from the JSON frame of a retained message, not kept
+     */
+    private OutboundMessage expand() {
+        try {
+            ChatMessage decoded = codecs.get(WireFormat.JSON).decode(ByteBuffer.wrap(retainedJson.getBytes()));
+            return of(decoded, timestamp, codecs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long toEpochMillis(String timestamp) {
+        if (timestamp != null) {
+            try {
+                return Instant.parse(timestamp).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // Stamped now like a message without a timestamp
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    public String getName() {
+        return retainedJson != null ? expand().name : name;
+    }
+
+    public String getMessage() {
+        return retainedJson != null ? expand().message : message;
+    }
+
+    /**
+     * @return Epoch milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public ChatMessage.MessageType getType() {
+        return type;
+    }
+
+    public String getRoom() {
+        return retainedJson != null ? expand().room : room;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public String getTo() {
+        return retainedJson != null ? expand().to : to;
+    }
+
+    public Roster getRoster() {
+        return retainedJson != null ? expand().roster : roster;
+    }
+
+    public String getNode() {
+        return retainedJson != null ? expand().node : node;
+    }
+
+    /**
+     * @param format The wire format of the recipient
+     * @return The message encoded in that format
+     * @throws UncheckedIOException if the message cannot be encoded
+     */
+    public EncodedFrame get(WireFormat format) {
+        if (retainedJson != null) {
+            return format == WireFormat.JSON ? retainedJson : expand().get(format);
+        }
+        int index = format.ordinal();
+        EncodedFrame frame = frames.get(index);
+        if (frame == null) {
+            // Concurrent shards asking for the same format must not encode twice
+            synchronized (this) {
+                frame = frames.get(index);
+                if (frame == null) {
+                    frame = encode(format);
+                    frames.set(index, frame);
+                }
+            }
+        }
+        return frame;
+    }
+
+    private EncodedFrame encode(WireFormat format) {
+        try {
+            return codecs.get(format).encode(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.WebsocketSpringBack.codec;
+
+/**
+ * Wire formats a client can negotiate through the {@code Sec-WebSocket-Protocol}
+ * header. Clients that do not request a subprotocol get JSON.
+ */
+public enum WireFormat {
+    JSON("chat.json", false),
+    BINARY("chat.binary", false),
+    /**
+     * JSON text frames, with payloads above the size threshold sent as binary
+     * frames holding the raw DEFLATE compressed JSON
+     */
+    JSON_DEFLATE("chat.json.deflate", true);
+
+    private final String subProtocol;
+    private final boolean compressed;
+
+    WireFormat(String subProtocol, boolean compressed) {
+        this.subProtocol = subProtocol;
+        this.compressed = compressed;
+    }
+
+    public String getSubProtocol() {
+        return subProtocol;
+    }
+
+    /**
+     * @return true if the format compresses payloads itself, making permessage-deflate redundant
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return The subprotocol names of all formats
+     */
+    public static String[] subProtocols() {
+        return new String[] { BINARY.subProtocol, JSON_DEFLATE.subProtocol, JSON.subProtocol };
+    }
+
+    /**
+     * @param subProtocol The subprotocol accepted during the handshake, may be null
+     * @return The matching format, JSON if none was negotiated
+     */
+    public static WireFormat fromSubProtocol(String subProtocol) {
+        for (WireFormat format : values()) {
+            if (format.subProtocol.equals(subProtocol)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+}
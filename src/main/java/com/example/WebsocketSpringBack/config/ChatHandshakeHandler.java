@@ -0,0 +1,49 @@
+package com.example.WebsocketSpringBack.config;
+
+import java.util.List;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import com.example.WebsocketSpringBack.codec.WireFormat;
+
+/**
+ * Handshake handler negotiating the wire format subprotocols and deciding
+ * whether the container's permessage-deflate extension may be used.
+ * <p>
+ * permessage-deflate is dropped when disabled by configuration, and for clients
+ * that select a format compressing its payloads itself, where it would only
+ * compress the frames a second time.
+ */
+public class ChatHandshakeHandler extends DefaultHandshakeHandler {
+
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final boolean permessageDeflate;
+
+    public ChatHandshakeHandler(boolean permessageDeflate) {
+        this.permessageDeflate = permessageDeflate;
+        setSupportedProtocols(WireFormat.subProtocols());
+    }
+
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+            List<WebSocketExtension> requestedExtensions, List<WebSocketExtension> supportedExtensions) {
+        List<WebSocketExtension> extensions = super.filterRequestedExtensions(
+                request, requestedExtensions, supportedExtensions);
+
+        if (!permessageDeflate || selectFormat(request).isCompressed()) {
+            extensions = extensions.stream()
+                    .filter(extension -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()))
+                    .toList();
+        }
+        return extensions;
+    }
+
+    private WireFormat selectFormat(ServerHttpRequest request) {
+        List<String> requestedProtocols = new WebSocketHttpHeaders(request.getHeaders()).getSecWebSocketProtocol();
+        return WireFormat.fromSubProtocol(selectProtocol(requestedProtocols, null));
+    }
+}
@@ -0,0 +1,401 @@
+package com.example.WebsocketSpringBack.config;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.example.WebsocketSpringBack.history.FsyncPolicy;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.ratelimit.RateLimitAction;
+import com.example.WebsocketSpringBack.session.OverflowPolicy;
+import com.example.WebsocketSpringBack.session.RawTextMode;
+
+import lombok.Data;
+
+/**
+ * Tuning properties for the chat handler, bound from the {@code chat.*} keys
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat")
+public class ChatProperties {
+
+    private Outbound outbound = new Outbound();
+
+    private Presence presence = new Presence();
+
+    private FanOut fanOut = new FanOut();
+
+    private Compression compression = new Compression();
+
+    private History history = new History();
+
+    private Log log = new Log();
+
+    private Cluster cluster = new Cluster();
+
+    private Inbound inbound = new Inbound();
+
+    private SystemFrames systemFrames = new SystemFrames();
+
+    private RateLimit rateLimit = new RateLimit();
+
+    private Heartbeat heartbeat = new Heartbeat();
+
+    private Roster roster = new Roster();
+
+    /**
+     * Limits applied to the outbound queue of every session
+     */
+    @Data
+    public static class Outbound {
+        /**
+         * Maximum time a single send may take before the session is considered stalled
+         */
+        private Duration sendTimeLimit = Duration.ofSeconds(10);
+
+        /**
+         * Maximum amount of payload bytes buffered for a session
+         */
+        private DataSize bufferSizeLimit = DataSize.ofKilobytes(512);
+
+        /**
+         * What to do with chat frames when a session exceeds one of the limits
+         * above, control and presence frames are queued regardless
+         */
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+        /**
+         * Whether clients may opt in to batched frames by connecting with {@code ?batch=true}
+         */
+        private boolean batchEnabled = true;
+
+        /**
+         * Time a batching session waits for more messages before the first one of a batch is sent
+         */
+        private Duration batchWindow = Duration.ofMillis(5);
+
+        /**
+         * Largest batch frame, sent without waiting for the window to end once
+         * reached. Must fit the receive buffer of the clients.
+         */
+        private DataSize batchMaxSize = DataSize.ofKilobytes(4);
+
+        /**
+         * Control frames queued for a session before it is closed as not reading
+         * its replies. A ping or PONG already queued stands for the next ones.
+         */
+        private int controlLimit = 32;
+    }
+
+    /**
+     * Coalescing of presence notifications
+     */
+    @Data
+    public static class Presence {
+        /**
+         * Window over which USER_COUNT and JOIN/LEAVE notifications are folded
+         * into at most one of each, zero publishes every change immediately
+         */
+        private Duration window = Duration.ofMillis(250);
+    }
+
+    /**
+     * Splitting of large broadcasts into concurrently enqueued shards
+     */
+    @Data
+    public static class FanOut {
+        /**
+         * Recipient count from which a broadcast is sharded, smaller ones use a plain loop
+         */
+        private int parallelThreshold = 1000;
+
+        /**
+         * Number of recipients handled by each shard
+         */
+        private int shardSize = 256;
+    }
+
+    /**
+     * Compression of the {@code chat.json.deflate} wire format
+     */
+    @Data
+    public static class Compression {
+        /**
+         * Whether the container's permessage-deflate extension is allowed for
+         * the uncompressed formats, JSON and binary; never for {@code chat.json.deflate}
+         * whose frames are already compressed
+         */
+        private boolean permessageDeflate = true;
+
+        /**
+         * Payloads smaller than this are sent uncompressed
+         */
+        private DataSize minSize = DataSize.ofBytes(256);
+
+        /**
+         * Deflate level, from 1 (fastest) to 9 (smallest)
+         */
+        private int level = 6;
+
+        /**
+         * Upper bound for inbound payloads once inflated
+         */
+        private DataSize maxInflatedSize = DataSize.ofKilobytes(64);
+    }
+
+    /**
+     * Recent broadcast history replayed to newly connected sessions
+     */
+    @Data
+    public static class History {
+        /**
+         * Maximum number of messages retained
+         */
+        private int maxMessages = 100;
+
+        /**
+         * Maximum total wire size of the retained messages
+         */
+        private DataSize maxBytes = DataSize.ofMegabytes(1);
+
+        /**
+         * Number of recent messages sent to a session right after the welcome message (0 disables replay)
+         */
+        private int replayCount = 50;
+    }
+
+    /**
+     * Durable message log on disk, history then survives restarts
+     */
+    @Data
+    public static class Log {
+        /**
+         * Write broadcast messages to the log and restore the history from it on startup
+         */
+        private boolean enabled = false;
+
+        /**
+         * Directory holding the segment and index files
+         */
+        private String directory = "data/chat-log";
+
+        /**
+         * Size of each memory-mapped segment file
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * Record data between two entries of the sparse index
+         */
+        private DataSize indexInterval = DataSize.ofKilobytes(4);
+
+        /**
+         * Segments whose last record is older than this are deleted
+         */
+        private Duration maxAge = Duration.ofDays(7);
+
+        /**
+         * The oldest segments are deleted while the log is larger than this
+         */
+        private DataSize maxSize = DataSize.ofGigabytes(1);
+
+        /**
+         * Delay between two batches written by the background flusher
+         */
+        private Duration flushInterval = Duration.ofMillis(200);
+
+        /**
+         * Whether written batches are forced to disk
+         */
+        private FsyncPolicy fsync = FsyncPolicy.BATCH;
+
+        /**
+         * Maximum number of messages waiting for the flusher, later ones are not logged
+         */
+        private int maxPending = 10000;
+    }
+
+    /**
+     * Relaying of broadcasts between the nodes of a cluster
+     */
+    @Data
+    public static class Cluster {
+        /**
+         * Publish broadcasts to the other nodes through the broadcast bus and deliver theirs
+         */
+        private boolean enabled = false;
+
+        /**
+         * Name of this node in logs, a random suffix distinguishes its runs
+         */
+        private String nodeName = "";
+
+        /**
+         * Time outgoing messages are collected before being published as one batch (0 publishes each one)
+         */
+        private Duration batchWindow = Duration.ofMillis(5);
+
+        /**
+         * A batch is published as soon as it reaches this many messages
+         */
+        private int maxBatchSize = 256;
+
+        /**
+         * Interval at which the node republishes its session count (0 disables it)
+         */
+        private Duration heartbeatInterval = Duration.ofSeconds(5);
+
+        /**
+         * Nodes not heard of for this long no longer count in USER_COUNT
+         */
+        private Duration nodeTimeout = Duration.ofSeconds(15);
+    }
+
+    /**
+     * Handling of inbound frames that are not valid chat messages
+     */
+    @Data
+    public static class Inbound {
+        /**
+         * What to do with text frames that are not JSON
+         */
+        private RawTextMode rawText = RawTextMode.BROADCAST;
+
+        /**
+         * Malformed frames a session may send per window before the next ones are dropped
+         */
+        private int malformedLimit = 10;
+
+        /**
+         * Window of the malformed frame budget
+         */
+        private Duration malformedWindow = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Caching of the encoded system messages
+     */
+    @Data
+    public static class SystemFrames {
+        /**
+         * Resolution of the clock stamping system messages, cached frames are
+         * encoded again at most once per tick
+         */
+        private Duration clockResolution = Duration.ofSeconds(1);
+    }
+
+    /**
+     * Token bucket limits of inbound frames
+     */
+    @Data
+    public static class RateLimit {
+        /**
+         * Whether inbound frames are rate limited
+         */
+        private boolean enabled = true;
+
+        /**
+         * What to do with sessions over their limits
+         */
+        private RateLimitAction action = RateLimitAction.NOTIFY;
+
+        /**
+         * All the frames of a session, checked before decoding
+         */
+        private Limit session = new Limit(50, 100);
+
+        /**
+         * All the frames of the sessions connected from the same remote address,
+         * disabled by default: the address is the socket's, behind a load
+         * balancer or proxy every client would share the bucket of the proxy
+         */
+        private Limit address = new Limit(0, 400);
+
+        /**
+         * Messages of a session by type, types without an entry are only under the frame limits
+         */
+        private Map<ChatMessage.MessageType, Limit> types = defaultTypeLimits();
+
+        private static Map<ChatMessage.MessageType, Limit> defaultTypeLimits() {
+            Map<ChatMessage.MessageType, Limit> limits = new EnumMap<>(ChatMessage.MessageType.class);
+            limits.put(ChatMessage.MessageType.CHAT, new Limit(10, 20));
+            limits.put(ChatMessage.MessageType.DIRECT, new Limit(10, 20));
+            limits.put(ChatMessage.MessageType.JOIN, new Limit(1, 5));
+            limits.put(ChatMessage.MessageType.JOIN_ROOM, new Limit(2, 10));
+            limits.put(ChatMessage.MessageType.ROSTER, new Limit(1, 5));
+            return limits;
+        }
+
+        /**
+         * A sustained rate and the burst allowed on top of it
+         */
+        @Data
+        public static class Limit {
+            /**
+             * Frames per second, 0 disables the limit
+             */
+            private double rate;
+
+            /**
+             * Frames accepted at once after an idle period
+             */
+            private int burst;
+
+            public Limit() {
+            }
+
+            public Limit(double rate, int burst) {
+                this.rate = rate;
+                this.burst = burst;
+            }
+        }
+    }
+
+    /**
+     * Server-driven pings of idle sessions
+     */
+    @Data
+    public static class Heartbeat {
+        /**
+         * Whether idle sessions are pinged and evicted when they stop answering
+         */
+        private boolean enabled = true;
+
+        /**
+         * Silence after which a session is pinged, and the time it has to answer
+         */
+        private Duration interval = Duration.ofSeconds(30);
+
+        /**
+         * Unanswered pings in a row after which a session is closed
+         */
+        private int missedLimit = 2;
+
+        /**
+         * Period of the timing wheel, the precision of the checks
+         */
+        private Duration tick = Duration.ofSeconds(1);
+    }
+
+    /**
+     * The user list sent to the clients that subscribe to it
+     */
+    @Data
+    public static class Roster {
+        /**
+         * Whether clients may subscribe to the roster, with {@code ?roster=true} or a ROSTER message.
+         * Ignored when the cluster is enabled, the roster only knows the users of this node
+         */
+        private boolean enabled = true;
+
+        /**
+         * Window over which roster changes are folded into one delta, zero publishes every change immediately
+         */
+        private Duration window = Duration.ofMillis(250);
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.WebsocketSpringBack.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.WebsocketSpringBack.cluster.BroadcastBus;
+import com.example.WebsocketSpringBack.cluster.LoopbackBroadcastBus;
+
+@Configuration
+public class ClusterConfig {
+
+    /**
+     * In-process bus, replaced by declaring a {@link BroadcastBus} bean backed
+     * by a broker shared by the nodes
+     */
+    @Bean
+    @ConditionalOnMissingBean(BroadcastBus.class)
+    public BroadcastBus broadcastBus() {
+        return new LoopbackBroadcastBus();
+    }
+}
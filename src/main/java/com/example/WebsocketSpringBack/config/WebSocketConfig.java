@@ -7,9 +7,11 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistration;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
 import com.example.WebsocketSpringBack.ChatMessageHandler;
 
@@ -20,6 +22,9 @@ public class WebSocketConfig implements WebSocketConfigurer {
     @Autowired
     private ChatMessageHandler chatMessageHandler;
     
+    @Autowired
+    private ChatProperties chatProperties;
+    
     @Value("${websocket.endpoint:/chat}")
     private String endpoint;
     
@@ -28,8 +33,17 @@ public class WebSocketConfig implements WebSocketConfigurer {
     
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(chatMessageHandler, endpoint)
-                .setAllowedOrigins(corsAllowedOrigins.split(","));
+        WebSocketHandlerRegistration registration = registry.addHandler(chatMessageHandler, endpoint);
+        registration.setHandshakeHandler(createHandshakeHandler());
+        registration.setAllowedOrigins(corsAllowedOrigins.split(","));
+    }
+    
+    /**
+     * Handshake handler accepting the wire format subprotocols; clients that
+     * request none of them keep getting JSON on the same endpoint
+     */
+    DefaultHandshakeHandler createHandshakeHandler() {
+        return new ChatHandshakeHandler(chatProperties.getCompression().isPermessageDeflate());
     }
     
     @Value("${websocket.container.max-text-message-buffer-size:8192}")
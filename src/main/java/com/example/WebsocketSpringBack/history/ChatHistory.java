@@ -0,0 +1,146 @@
+package com.example.WebsocketSpringBack.history;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.codec.WireFormat;
+import com.example.WebsocketSpringBack.config.ChatProperties;
+
+/**
+ * Bounded, lock-free ring of the most recent broadcast messages, indexed by
+ * their sequence number.
+ * <p>
+ * Messages are kept as the {@link OutboundMessage#retained()} form of what
+ * was broadcast: the JSON frame of the broadcast and little else, so an entry
+ * costs close to its JSON wire size. Replaying to a JSON session reuses that
+ * frame as is; the other formats are encoded again from it on each replay.
+ * The ring is bounded by a message count and by the total JSON wire size of
+ * the retained messages; the oldest messages are evicted first.
+ * <p>
+ * Sequence numbers come from a single atomic counter, {@link #nextSeq()}, and
+ * each message goes to the slot of its number. Readers check the number
+ * recorded in each slot, so a slot being overwritten concurrently, or not
+ * published yet, is skipped rather than replayed out of order.
+ */
+public class ChatHistory {
+
+    private record Entry(long seq, OutboundMessage message, int size) {
+    }
+
+    private final int capacity;
+    private final long maxBytes;
+    private final AtomicReferenceArray<Entry> slots;
+
+    private final AtomicLong sequencer = new AtomicLong();
+    // One past the highest sequence number appended, and oldest one that may still be retained
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    public ChatHistory(ChatProperties.History settings) {
+        this.capacity = Math.max(1, settings.getMaxMessages());
+        this.maxBytes = settings.getMaxBytes().toBytes();
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @return A new sequence number, to stamp on a message before it is encoded
+     */
+    public long nextSeq() {
+        return sequencer.getAndIncrement();
+    }
+
+    /**
+     * Retain a broadcast message, evicting the oldest ones beyond the limits
+     *
+     * @param seq     Sequence number of the message, from {@link #nextSeq()} or restored
+     * @param message The message as it was broadcast, only its retained form is kept
+     */
+    public void append(long seq, OutboundMessage message) {
+        OutboundMessage retained = message.retained();
+        int size = retained.get(WireFormat.JSON).size();
+        // Restored messages move the sequencer past them
+        sequencer.accumulateAndGet(seq + 1, Math::max);
+        Entry evicted = slots.getAndSet(slot(seq), new Entry(seq, retained, size));
+        if (evicted != null) {
+            retainedBytes.addAndGet(-evicted.size());
+        }
+        retainedBytes.addAndGet(size);
+        head.accumulateAndGet(seq + 1, Math::max);
+        trim();
+    }
+
+    private void trim() {
+        long newest = head.get() - 1;
+        // Anything a full ring behind the newest message has been overwritten already
+        tail.accumulateAndGet(newest - capacity + 1, Math::max);
+        while (retainedBytes.get() > maxBytes) {
+            long oldest = tail.get();
+            if (oldest >= newest) {
+                // The most recent message is always kept, whatever its size
+                return;
+            }
+            Entry entry = slots.get(slot(oldest));
+            if (entry != null && entry.seq() == oldest && slots.compareAndSet(slot(oldest), entry, null)) {
+                retainedBytes.addAndGet(-entry.size());
+            }
+            tail.compareAndSet(oldest, oldest + 1);
+        }
+    }
+
+    /**
+     * @param limit Maximum number of messages to return
+     * @return The most recent messages, oldest first
+     */
+    public List<OutboundMessage> recent(int limit) {
+        long newest = head.get();
+        return range(Math.max(tail.get(), newest - Math.min(limit, capacity)), newest);
+    }
+
+    /**
+     * Messages a client missed since the last one it saw
+     *
+     * @param lastSeq Sequence number of the last message the client received
+     * @return The later messages, oldest first, or null if some of them are no
+     *         longer retained or the sequence number was never issued
+     */
+    public List<OutboundMessage> since(long lastSeq) {
+        long newest = head.get();
+        if (lastSeq >= newest || lastSeq + 1 < tail.get()) {
+            return null;
+        }
+        return range(Math.max(0, lastSeq + 1), newest);
+    }
+
+    private List<OutboundMessage> range(long from, long to) {
+        List<OutboundMessage> messages = new ArrayList<>((int) Math.max(0, to - from));
+        for (long seq = from; seq < to; seq++) {
+            Entry entry = slots.get(slot(seq));
+            if (entry != null && entry.seq() == seq) {
+                messages.add(entry.message());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return Number of messages currently retained
+     */
+    public int size() {
+        return recent(capacity).size();
+    }
+
+    /**
+     * @return JSON wire size of the retained messages in bytes
+     */
+    public long retainedBytes() {
+        return retainedBytes.get();
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.WebsocketSpringBack.history;
+
+/**
+ * When the message log forces written records to disk
+ */
+public enum FsyncPolicy {
+    /**
+     * Leave write back to the operating system, a crash of the machine may lose the latest records
+     */
+    NEVER,
+
+    /**
+     * Force every batch written by the background flusher
+     */
+    BATCH
+}
@@ -0,0 +1,255 @@
+package com.example.WebsocketSpringBack.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * One memory-mapped file of the message log, with its sparse offset index.
+ * <p>
+ * Records are laid out back to back as a 16 byte header, payload length, CRC32C
+ * of the payload and log position, followed by the payload. The first record
+ * and then one record every index interval bytes get an entry in the index
+ * file, mapping its position to its offset in the segment. Opening a segment
+ * reads that small index and scans only the records after the last entry that
+ * still points to a valid record, so recovery never reads a whole segment.
+ * <p>
+ * Not thread safe, {@link MessageLog} serializes all access.
+ */
+final class LogSegment implements Closeable {
+
+    static final int HEADER_SIZE = 16;
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    private final long basePosition;
+    private final Path logFile;
+    private final Path indexFile;
+    private final int indexInterval;
+    private final FileChannel logChannel;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer buffer;
+
+    private long[] indexPositions = new long[64];
+    private int[] indexOffsets = new int[64];
+    private int indexSize;
+
+    private int end;
+    private long nextPosition;
+
+    private LogSegment(Path directory, long basePosition, int capacity, int indexInterval) throws IOException {
+        this.basePosition = basePosition;
+        this.logFile = directory.resolve(fileName(basePosition, ".log"));
+        this.indexFile = directory.resolve(fileName(basePosition, ".idx"));
+        this.indexInterval = indexInterval;
+        this.logChannel = FileChannel.open(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, logChannel.size()));
+        this.nextPosition = basePosition;
+    }
+
+    /**
+     * @return A new empty segment whose first record gets the given position
+     */
+    static LogSegment create(Path directory, long basePosition, int capacity, int indexInterval) throws IOException {
+        return new LogSegment(directory, basePosition, capacity, indexInterval);
+    }
+
+    /**
+     * Open an existing segment, restoring its index and end of data
+     *
+     * @param capacity Mapped size, the file is only grown to it if smaller
+     */
+    static LogSegment open(Path directory, long basePosition, int capacity, int indexInterval) throws IOException {
+        LogSegment segment = new LogSegment(directory, basePosition, capacity, indexInterval);
+        segment.recover();
+        return segment;
+    }
+
+    /**
+     * @return The base position encoded in a segment file name, or -1 if it is not a segment file
+     */
+    static long parseBasePosition(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(".log")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String fileName(long basePosition, String extension) {
+        return String.format("%020d%s", basePosition, extension);
+    }
+
+    private void recover() throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate((int) (indexChannel.size() / INDEX_ENTRY_SIZE * INDEX_ENTRY_SIZE));
+        indexChannel.read(entries, 0);
+        entries.flip();
+
+        // Entries written ahead of records lost in a crash are dropped
+        while (entries.hasRemaining()) {
+            long position = entries.getLong();
+            int offset = entries.getInt();
+            if (readLength(offset, position) < 0) {
+                break;
+            }
+            addIndexEntry(position, offset);
+        }
+        indexChannel.truncate((long) indexSize * INDEX_ENTRY_SIZE);
+
+        int offset = indexSize > 0 ? indexOffsets[indexSize - 1] : 0;
+        long position = indexSize > 0 ? indexPositions[indexSize - 1] : basePosition;
+        int length;
+        while ((length = readLength(offset, position)) >= 0) {
+            offset += HEADER_SIZE + length;
+            position++;
+        }
+        end = offset;
+        nextPosition = position;
+    }
+
+    /**
+     * @return The payload length of a valid record at that offset and position, -1 otherwise
+     */
+    private int readLength(int offset, long expectedPosition) {
+        if (offset < 0 || offset + HEADER_SIZE > buffer.capacity()) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - HEADER_SIZE
+                || buffer.getLong(offset + 8) != expectedPosition) {
+            return -1;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + HEADER_SIZE, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4) ? length : -1;
+    }
+
+    /**
+     * Append a record after the last one
+     *
+     * @return false if the segment has no room left for it
+     */
+    boolean append(byte[] payload) throws IOException {
+        if (end + HEADER_SIZE + payload.length > buffer.capacity()) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        if (indexSize == 0 || end - indexOffsets[indexSize - 1] >= indexInterval) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).putLong(nextPosition).putInt(end).flip();
+            indexChannel.write(entry, (long) indexSize * INDEX_ENTRY_SIZE);
+            addIndexEntry(nextPosition, end);
+        }
+
+        buffer.put(end + HEADER_SIZE, payload);
+        buffer.putLong(end + 8, nextPosition);
+        buffer.putInt(end + 4, (int) crc.getValue());
+        // The length goes last, a record is not visible to recovery before it is complete
+        buffer.putInt(end, payload.length);
+        end += HEADER_SIZE + payload.length;
+        nextPosition++;
+        return true;
+    }
+
+    private void addIndexEntry(long position, int offset) {
+        if (indexSize == indexPositions.length) {
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+        }
+        indexPositions[indexSize] = position;
+        indexOffsets[indexSize] = offset;
+        indexSize++;
+    }
+
+    /**
+     * Collect the payloads of the records from a position on, as read-only
+     * views of the mapped file rather than copies
+     *
+     * @param fromPosition First position to collect
+     * @param payloads     Receives the payloads in position order
+     */
+    void read(long fromPosition, List<ByteBuffer> payloads) {
+        int entry = Arrays.binarySearch(indexPositions, 0, indexSize, fromPosition);
+        if (entry < 0) {
+            entry = Math.max(0, -entry - 2);
+        }
+        int offset = indexSize > 0 ? indexOffsets[entry] : 0;
+        long position = indexSize > 0 ? indexPositions[entry] : basePosition;
+        while (offset < end) {
+            int length = buffer.getInt(offset);
+            if (position >= fromPosition) {
+                payloads.add(buffer.slice(offset + HEADER_SIZE, length).asReadOnlyBuffer());
+            }
+            offset += HEADER_SIZE + length;
+            position++;
+        }
+    }
+
+    /**
+     * Flush written records, then the index, to disk
+     */
+    void force() throws IOException {
+        buffer.force();
+        indexChannel.force(false);
+    }
+
+    /**
+     * Mark the segment as complete, its modification time then dates its last record
+     */
+    void seal() throws IOException {
+        force();
+        Files.setLastModifiedTime(logFile, FileTime.from(Instant.now()));
+    }
+
+    Instant lastModified() throws IOException {
+        return Files.getLastModifiedTime(logFile).toInstant();
+    }
+
+    long basePosition() {
+        return basePosition;
+    }
+
+    long nextPosition() {
+        return nextPosition;
+    }
+
+    /**
+     * @return Bytes of record data in the segment
+     */
+    int size() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        logChannel.close();
+        indexChannel.close();
+    }
+
+    /**
+     * Close the segment and remove its files, the mapping itself is released
+     * once the buffer is garbage collected
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(indexFile);
+    }
+}
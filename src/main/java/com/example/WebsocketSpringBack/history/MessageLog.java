@@ -0,0 +1,231 @@
+package com.example.WebsocketSpringBack.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+
+/**
+ * Durable, append-only log of broadcast frames, kept in memory-mapped segment
+ * files so history survives restarts.
+ * <p>
+ * {@link #append(byte[])} only queues the already encoded payload; a background
+ * flusher writes the queued payloads in batches, rolls to a new segment when the
+ * current one is full, applies the fsync policy and the retention limits. The
+ * broadcast path therefore never waits for the disk.
+ * <p>
+ * Segments are named after the position of their first record. Each one keeps
+ * a sparse index, so opening the log and reading its recent tail touch only the
+ * index files and the last few kilobytes of data.
+ */
+public class MessageLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageLog.class);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final Duration maxAge;
+    private final long maxSize;
+    private final FsyncPolicy fsync;
+    private final int maxPending;
+
+    private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Guarded by this
+    private final Deque<LogSegment> segments = new ArrayDeque<>();
+
+    private final ScheduledExecutorService flusher;
+
+    private MessageLog(ChatProperties.Log settings) {
+        this.directory = Paths.get(settings.getDirectory());
+        this.segmentSize = (int) settings.getSegmentSize().toBytes();
+        this.indexInterval = (int) settings.getIndexInterval().toBytes();
+        this.maxAge = settings.getMaxAge();
+        this.maxSize = settings.getMaxSize().toBytes();
+        this.fsync = settings.getFsync();
+        this.maxPending = settings.getMaxPending();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-log-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Open the log, recovering the existing segments, and start its flusher
+     *
+     * @param settings Log location, segment and retention settings
+     * @return The opened log
+     * @throws IOException if the directory or a segment cannot be opened
+     */
+    public static MessageLog open(ChatProperties.Log settings) throws IOException {
+        MessageLog log = new MessageLog(settings);
+        log.load();
+        long interval = settings.getFlushInterval().toMillis();
+        log.flusher.scheduleWithFixedDelay(log::flush, interval, interval, TimeUnit.MILLISECONDS);
+        return log;
+    }
+
+    private synchronized void load() throws IOException {
+        Files.createDirectories(directory);
+        List<Long> basePositions;
+        try (Stream<Path> files = Files.list(directory)) {
+            basePositions = files.map(LogSegment::parseBasePosition)
+                    .filter(position -> position >= 0)
+                    .sorted()
+                    .toList();
+        }
+        for (int i = 0; i < basePositions.size(); i++) {
+            // Only the last segment gets new records, the others keep their size
+            int capacity = i == basePositions.size() - 1 ? segmentSize : 0;
+            segments.addLast(LogSegment.open(directory, basePositions.get(i), capacity, indexInterval));
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(LogSegment.create(directory, 0, segmentSize, indexInterval));
+        }
+        applyRetention();
+        logger.info("Message log opened in {}: {} segment(s), next position {}",
+                directory, segments.size(), segments.getLast().nextPosition());
+    }
+
+    /**
+     * Queue an encoded frame for writing, without waiting for the disk
+     *
+     * @param payload The frame bytes, not modified afterwards
+     * @return false if the payload was dropped because the flusher is too far behind
+     */
+    public boolean append(byte[] payload) {
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            if (dropped.getAndIncrement() == 0) {
+                logger.warn("Message log is falling behind, dropping records");
+            }
+            return false;
+        }
+        pending.offer(payload);
+        return true;
+    }
+
+    /**
+     * Write the queued payloads, then apply the fsync policy and retention
+     */
+    synchronized void flush() {
+        try {
+            boolean written = false;
+            byte[] payload;
+            while ((payload = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                written |= write(payload);
+            }
+            if (written && fsync == FsyncPolicy.BATCH) {
+                segments.getLast().force();
+            }
+        } catch (IOException e) {
+            logger.error("Error writing to the message log: {}", e.getMessage());
+        }
+    }
+
+    private boolean write(byte[] payload) throws IOException {
+        if (LogSegment.HEADER_SIZE + payload.length > segmentSize) {
+            logger.warn("Dropping a {} byte record larger than a log segment", payload.length);
+            return false;
+        }
+        LogSegment active = segments.getLast();
+        if (!active.append(payload)) {
+            active.seal();
+            active = LogSegment.create(directory, active.nextPosition(), segmentSize, indexInterval);
+            segments.addLast(active);
+            active.append(payload);
+            applyRetention();
+        }
+        return true;
+    }
+
+    /**
+     * Delete the oldest sealed segments while the log is too large or they are too old
+     */
+    private void applyRetention() throws IOException {
+        long totalSize = segments.stream().mapToLong(LogSegment::size).sum();
+        Instant oldestKept = Instant.now().minus(maxAge);
+        while (segments.size() > 1) {
+            LogSegment oldest = segments.getFirst();
+            if (totalSize <= maxSize && !oldest.lastModified().isBefore(oldestKept)) {
+                break;
+            }
+            segments.removeFirst();
+            totalSize -= oldest.size();
+            oldest.delete();
+            logger.debug("Deleted message log segment starting at {}", oldest.basePosition());
+        }
+    }
+
+    /**
+     * Read the most recent records already written, as read-only views of the
+     * mapped segments
+     *
+     * @param count Maximum number of records
+     * @return The payloads, oldest first
+     */
+    public synchronized List<ByteBuffer> tail(int count) {
+        long next = segments.getLast().nextPosition();
+        long from = Math.max(segments.getFirst().basePosition(), next - count);
+        List<ByteBuffer> payloads = new ArrayList<>((int) (next - from));
+        for (LogSegment segment : segments) {
+            if (segment.nextPosition() > from) {
+                segment.read(from, payloads);
+            }
+        }
+        return payloads;
+    }
+
+    /**
+     * @return Position the next written record will get
+     */
+    public synchronized long nextPosition() {
+        return segments.getLast().nextPosition();
+    }
+
+    /**
+     * @return Number of payloads dropped because the flusher was too far behind
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stop the flusher, write what is still queued and close the segments
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flusher.shutdownNow();
+        flush();
+        segments.getLast().force();
+        for (LogSegment segment : segments) {
+            segment.close();
+        }
+    }
+}
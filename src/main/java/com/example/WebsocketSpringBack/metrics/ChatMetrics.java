@@ -0,0 +1,284 @@
+package com.example.WebsocketSpringBack.metrics;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.example.WebsocketSpringBack.codec.DeflateJsonCodec;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.session.PriorityClass;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Meters of the chat handler.
+ * <p>
+ * Every meter is registered up front, with one counter per message type held
+ * in an {@link EnumMap}, so recording on the hot path is a lookup and an add:
+ * no tags are built and nothing is registered per message. Timers publish a
+ * percentile histogram for Prometheus to aggregate across nodes, with bucket
+ * ranges starting in the microseconds the hot path is measured in.
+ */
+public class ChatMetrics {
+
+    /**
+     * Metrics recorded nowhere, for components created outside of Spring
+     */
+    public static final ChatMetrics NOOP = new ChatMetrics(new CompositeMeterRegistry());
+
+    private final MeterRegistry registry;
+    private final Map<ChatMessage.MessageType, Counter> inboundFrames = new EnumMap<>(ChatMessage.MessageType.class);
+    private final Map<ChatMessage.MessageType, Counter> outboundFrames = new EnumMap<>(ChatMessage.MessageType.class);
+    private final Counter inboundBytes;
+    private final Counter outboundBytes;
+    private final Counter sendFailures;
+    private final Counter parseFallbacks;
+    private final Counter malformedFrames;
+    private final Counter throttledFrames;
+    private final Counter sessionRateLimited;
+    private final Counter addressRateLimited;
+    private final Map<ChatMessage.MessageType, Counter> typeRateLimited = new EnumMap<>(ChatMessage.MessageType.class);
+    private final Map<PriorityClass, LongAdder> outboundBacklog = new EnumMap<>(PriorityClass.class);
+    private final Map<PriorityClass, Counter> outboundDropped = new EnumMap<>(PriorityClass.class);
+    private final Counter heartbeatPings;
+    private final Counter heartbeatEvictions;
+    private final DistributionSummary batchSizes;
+    private final Timer decodeTime;
+    private final Timer fanOutTime;
+    private final Timer sendTime;
+
+    public ChatMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (ChatMessage.MessageType type : ChatMessage.MessageType.values()) {
+            inboundFrames.put(type, Counter.builder("chat.frames.inbound")
+                    .description("Frames received, by message type")
+                    .tag("type", type.name())
+                    .register(registry));
+            outboundFrames.put(type, Counter.builder("chat.frames.outbound")
+                    .description("Frames queued to sessions, by message type")
+                    .tag("type", type.name())
+                    .register(registry));
+            typeRateLimited.put(type, rateLimitHits("type", type.name()));
+        }
+        for (PriorityClass priority : PriorityClass.values()) {
+            // Summed over the sessions, a gauge per session would not scale
+            LongAdder backlog = new LongAdder();
+            outboundBacklog.put(priority, backlog);
+            Gauge.builder("chat.outbound.backlog", backlog, LongAdder::sum)
+                    .description("Frames queued to sessions and not sent yet, by priority class")
+                    .tag("class", priority.name())
+                    .register(registry);
+            outboundDropped.put(priority, Counter.builder("chat.outbound.dropped")
+                    .description("Frames dropped before they were sent, by priority class")
+                    .tag("class", priority.name())
+                    .register(registry));
+        }
+        this.sessionRateLimited = rateLimitHits("session", "ANY");
+        this.addressRateLimited = rateLimitHits("address", "ANY");
+        this.inboundBytes = Counter.builder("chat.payload.inbound")
+                .description("Payload bytes received")
+                .baseUnit("bytes")
+                .register(registry);
+        this.outboundBytes = Counter.builder("chat.payload.outbound")
+                .description("Payload bytes queued to sessions")
+                .baseUnit("bytes")
+                .register(registry);
+        this.sendFailures = Counter.builder("chat.send.failures")
+                .description("Sends to a session that failed")
+                .register(registry);
+        this.parseFallbacks = Counter.builder("chat.parse.fallbacks")
+                .description("Text frames that were not chat messages and were broadcast as plain text")
+                .register(registry);
+        this.malformedFrames = Counter.builder("chat.frames.malformed")
+                .description("Frames that could not be decoded, or were not JSON in REJECT mode")
+                .register(registry);
+        this.throttledFrames = Counter.builder("chat.frames.throttled")
+                .description("Malformed frames dropped because their session exceeded its budget")
+                .register(registry);
+        this.heartbeatPings = Counter.builder("chat.heartbeat.pings")
+                .description("Pings sent to sessions that were idle for a heartbeat interval")
+                .register(registry);
+        this.heartbeatEvictions = Counter.builder("chat.heartbeat.evictions")
+                .description("Sessions closed because they stopped answering pings")
+                .register(registry);
+        this.batchSizes = DistributionSummary.builder("chat.batch.size")
+                .description("Frames sent together in one batch frame")
+                .baseUnit("frames")
+                .register(registry);
+        this.decodeTime = Timer.builder("chat.decode")
+                .description("Time to decode an inbound frame")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(500))
+                .maximumExpectedValue(Duration.ofMillis(100))
+                .register(registry);
+        this.fanOutTime = Timer.builder("chat.fanout")
+                .description("Time to enqueue a broadcast for all its recipients")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(500))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(registry);
+        this.sendTime = Timer.builder("chat.send")
+                .description("Time to write one frame to a session")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(500))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+    }
+
+    private Counter rateLimitHits(String scope, String type) {
+        return Counter.builder("chat.ratelimit.hits")
+                .description("Inbound frames rejected by a rate limit, by limit scope and message type")
+                .tag("scope", scope)
+                .tag("type", type)
+                .register(registry);
+    }
+
+    /**
+     * Expose the number of connected sessions
+     *
+     * @param activeSessions Supplies the current number of sessions of this node
+     */
+    public void bindActiveSessions(Supplier<Number> activeSessions) {
+        Gauge.builder("chat.sessions.active", activeSessions)
+                .description("WebSocket sessions connected to this node")
+                .register(registry);
+    }
+
+    /**
+     * Expose the compression statistics of the chat.json.deflate format
+     *
+     * @param codec The compressing codec
+     */
+    public void bindCompression(DeflateJsonCodec codec) {
+        Gauge.builder("chat.compression.ratio", codec, DeflateJsonCodec::getCompressionRatio)
+                .description("Compressed to uncompressed size of the payloads that went through compression")
+                .register(registry);
+    }
+
+    /**
+     * @param bytes Payload size of a received frame, decoded or not
+     */
+    public void received(int bytes) {
+        inboundBytes.increment(bytes);
+    }
+
+    /**
+     * UTF-8 size of a text payload, computed without encoding it
+     *
+     * @param text The decoded text of a frame
+     * @return Its size in bytes on the wire
+     */
+    public static int utf8Length(CharSequence text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) {
+                // Surrogate pairs are 4 bytes for 2 chars, other chars 3 bytes
+                bytes += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @param type Type of the decoded message, null if it had none
+     */
+    public void inbound(ChatMessage.MessageType type) {
+        if (type != null) {
+            inboundFrames.get(type).increment();
+        }
+    }
+
+    /**
+     * @param type  Type of the queued message, null if it has none
+     * @param bytes Payload size of the frame
+     */
+    public void outbound(ChatMessage.MessageType type, int bytes) {
+        if (type != null) {
+            outboundFrames.get(type).increment();
+        }
+        outboundBytes.increment(bytes);
+    }
+
+    public void decoded(long nanos) {
+        decodeTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void fannedOut(long nanos) {
+        fanOutTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void sent(long nanos) {
+        sendTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param frames Number of frames sent in one batch frame
+     */
+    public void batched(int frames) {
+        batchSizes.record(frames);
+    }
+
+    public void sendFailed() {
+        sendFailures.increment();
+    }
+
+    public void parseFallback() {
+        parseFallbacks.increment();
+    }
+
+    public void malformed() {
+        malformedFrames.increment();
+    }
+
+    public void throttled() {
+        throttledFrames.increment();
+    }
+
+    public void rateLimitedSession() {
+        sessionRateLimited.increment();
+    }
+
+    public void rateLimitedAddress() {
+        addressRateLimited.increment();
+    }
+
+    public void rateLimitedType(ChatMessage.MessageType type) {
+        typeRateLimited.get(type).increment();
+    }
+
+    /**
+     * @param priority Class of the frames
+     * @param frames   Frames added to the backlog, negative once sent or dropped
+     */
+    public void backlog(PriorityClass priority, int frames) {
+        outboundBacklog.get(priority).add(frames);
+    }
+
+    /**
+     * @param priority Class of the frames
+     * @param frames   Frames dropped by the overflow policy, or replaced by a newer presence frame
+     */
+    public void outboundDropped(PriorityClass priority, int frames) {
+        outboundDropped.get(priority).increment(frames);
+    }
+
+    public void heartbeatPing() {
+        heartbeatPings.increment();
+    }
+
+    public void heartbeatEviction() {
+        heartbeatEvictions.increment();
+    }
+}
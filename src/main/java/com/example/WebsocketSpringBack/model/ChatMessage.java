@@ -1,6 +1,9 @@
 package com.example.WebsocketSpringBack.model;
 
 import java.time.Instant;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -11,7 +14,7 @@ import lombok.NoArgsConstructor;
  * Represents a chat message in the WebSocket communication
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class ChatMessage {
@@ -22,6 +25,26 @@ public class ChatMessage {
     private String timestamp = Instant.now().toString();
     
     private MessageType type;
+    
+    // Target room, omitted from the JSON of messages that are not room scoped
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String room;
+    
+    // Sequence number of replayable broadcasts, and the last one seen in a RESUME request
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long seq;
+    
+    // Recipient username of a DIRECT message
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String to;
+    
+    // User list of ROSTER and ROSTER_DELTA messages
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Roster roster;
+    
+    // Cluster node whose sequence numbers the client holds, in the welcome message and RESUME requests
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String node;
 
     /**
      * The type of message
@@ -33,7 +56,14 @@ public class ChatMessage {
         ERROR,
         USER_COUNT,
         PING,
-        PONG
+        PONG,
+        JOIN_ROOM,
+        LEAVE_ROOM,
+        RESUME,
+        RESYNC,
+        DIRECT,
+        ROSTER,
+        ROSTER_DELTA
     }
 
     // Static factory methods for creating different message types
@@ -53,6 +83,40 @@ public class ChatMessage {
                 .build();
     }
 
+    /**
+     * Create a chat message scoped to a room
+     *
+     * @param name    Sender name
+     * @param message Message content
+     * @param room    Target room
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createChatMessage(String name, String message, String room) {
+        return ChatMessage.builder()
+                .name(name)
+                .message(message)
+                .type(MessageType.CHAT)
+                .room(room)
+                .build();
+    }
+
+    /**
+     * Create a private message for the sessions of one user
+     *
+     * @param name    Sender name
+     * @param to      Recipient name
+     * @param message Message content
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createDirectMessage(String name, String to, String message) {
+        return ChatMessage.builder()
+                .name(name)
+                .message(message)
+                .type(MessageType.DIRECT)
+                .to(to)
+                .build();
+    }
+
     /**
      * Create a join notification message
      *
@@ -81,6 +145,66 @@ public class ChatMessage {
                 .build();
     }
 
+    /**
+     * Create a summary of several users joining within one presence window
+     *
+     * @param count Number of users who joined
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createJoinSummaryMessage(int count) {
+        return ChatMessage.builder()
+                .name("System")
+                .message(count + " user" + (count != 1 ? "s" : "") + " joined")
+                .type(MessageType.JOIN)
+                .build();
+    }
+
+    /**
+     * Create a summary of several users leaving within one presence window
+     *
+     * @param count Number of users who left
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createLeaveSummaryMessage(int count) {
+        return ChatMessage.builder()
+                .name("System")
+                .message(count + " user" + (count != 1 ? "s" : "") + " left")
+                .type(MessageType.LEAVE)
+                .build();
+    }
+
+    /**
+     * Create a notification for members of a room that someone joined it
+     *
+     * @param name User name who joined
+     * @param room The room joined
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createRoomJoinMessage(String name, String room) {
+        return ChatMessage.builder()
+                .name(name)
+                .message(name + " has joined " + room)
+                .type(MessageType.JOIN_ROOM)
+                .room(room)
+                .build();
+    }
+
+    /**
+     * Create a notification for members of a room that someone left it
+     *
+     * @param name User name who left
+     * @param room The room left
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createRoomLeaveMessage(String name, String room) {
+        return ChatMessage.builder()
+                .name(name)
+                .message(name + " has left " + room)
+                .type(MessageType.LEAVE_ROOM)
+                .room(room)
+                .build();
+    }
+
     /**
      * Create an error message
      *
@@ -110,6 +234,36 @@ public class ChatMessage {
                 .build();
     }
     
+    /**
+     * Create a message carrying the full user list
+     * 
+     * @param version Version of the roster
+     * @param members Names of every user online
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createRosterMessage(long version, List<String> members) {
+        return ChatMessage.builder()
+                .name("System")
+                .type(MessageType.ROSTER)
+                .roster(Roster.snapshot(version, members))
+                .build();
+    }
+    
+    /**
+     * Create a message carrying the changes to the user list since its previous version
+     * 
+     * @param version Version of the roster after the changes
+     * @param changes The changes
+     * @return A new ChatMessage instance
+     */
+    public static ChatMessage createRosterDeltaMessage(long version, List<Roster.Change> changes) {
+        return ChatMessage.builder()
+                .name("System")
+                .type(MessageType.ROSTER_DELTA)
+                .roster(Roster.delta(version, changes))
+                .build();
+    }
+    
     /**
      * Create a ping message for connection heartbeat
      * 
@@ -143,10 +297,38 @@ public class ChatMessage {
      * @return A new ChatMessage instance for welcome message
      */
     public static ChatMessage createWelcomeMessage(String appName) {
+        return createWelcomeMessage(appName, null);
+    }
+
+    /**
+     * Create a welcome message for new connections to a cluster node
+     * 
+     * @param appName The application name
+     * @param node    ID of the node, sequence numbers are only valid for resuming on it; null outside a cluster
+     * @return A new ChatMessage instance for welcome message
+     */
+    public static ChatMessage createWelcomeMessage(String appName, String node) {
         return ChatMessage.builder()
                 .name("System")
                 .message("Welcome to " + appName)
                 .type(MessageType.CHAT)
+                .node(node)
+                .build();
+    }
+
+    /**
+     * Create a message telling a client that the messages it missed are no
+     * longer retained and that it must reload its view
+     * 
+     * @param lastSeq The last sequence number the client had seen
+     * @return A new ChatMessage instance for resync
+     */
+    public static ChatMessage createResyncMessage(long lastSeq) {
+        return ChatMessage.builder()
+                .name("System")
+                .message("Messages after " + lastSeq + " are no longer available")
+                .type(MessageType.RESYNC)
+                .seq(lastSeq)
                 .build();
     }
 }
@@ -0,0 +1,66 @@
+package com.example.WebsocketSpringBack.model;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The user list carried by ROSTER and ROSTER_DELTA messages
+ *
+ * @param version Version of the roster, increased by one with every delta
+ * @param members Names of every user online, in ROSTER messages only
+ * @param changes Changes since the previous version, in ROSTER_DELTA messages only
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record Roster(long version, List<String> members, List<Change> changes) {
+
+    /**
+     * @param version Version of the roster
+     * @param members Names of every user online
+     * @return The full roster
+     */
+    public static Roster snapshot(long version, List<String> members) {
+        return new Roster(version, members, null);
+    }
+
+    /**
+     * @param version Version of the roster after the changes
+     * @param changes Changes since the previous version
+     * @return The delta
+     */
+    public static Roster delta(long version, List<Change> changes) {
+        return new Roster(version, null, changes);
+    }
+
+    /**
+     * One change to the roster
+     *
+     * @param op       What changed
+     * @param name     The name added or removed, or the new name
+     * @param previous The former name, for {@link Op#RENAME} only
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Change(Op op, String name, String previous) {
+
+        public static Change added(String name) {
+            return new Change(Op.ADD, name, null);
+        }
+
+        public static Change removed(String name) {
+            return new Change(Op.REMOVE, name, null);
+        }
+
+        public static Change renamed(String previous, String name) {
+            return new Change(Op.RENAME, name, previous);
+        }
+    }
+
+    /**
+     * The kind of a change, ordinals are part of the binary format
+     */
+    public enum Op {
+        ADD,
+        REMOVE,
+        RENAME
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.WebsocketSpringBack.presence;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * Folds presence changes into at most one notification of each kind per window.
+ * <p>
+ * The first change in a quiet period schedules a flush one window later; every
+ * change arriving until then is absorbed by that flush. A flush publishes a
+ * single JOIN and a single LEAVE (named when one user is involved, a summary
+ * such as "12 users joined" otherwise) followed by one USER_COUNT, so a
+ * reconnect storm of N clients costs a few broadcasts per window, O(N) frames
+ * instead of O(N²).
+ */
+public class PresenceAggregator {
+
+    private final long windowMillis;
+    private final IntSupplier userCount;
+    private final Consumer<ChatMessage> publisher;
+    private final IntConsumer countPublisher;
+    private final ScheduledExecutorService scheduler;
+
+    private final Queue<String> joins = new ConcurrentLinkedQueue<>();
+    private final Queue<String> leaves = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean countChanged = new AtomicBoolean();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * @param window    Coalescing window, zero publishes every change immediately
+     * @param userCount Supplies the current number of users when a flush runs
+     * @param publisher Broadcasts the resulting notifications
+     */
+    public PresenceAggregator(Duration window, IntSupplier userCount, Consumer<ChatMessage> publisher) {
+        this(window, userCount, publisher, count -> publisher.accept(ChatMessage.createUserCountMessage(count)));
+    }
+
+    /**
+     * @param window         Coalescing window, zero publishes every change immediately
+     * @param userCount      Supplies the current number of users when a flush runs
+     * @param publisher      Broadcasts the resulting JOIN and LEAVE notifications
+     * @param countPublisher Broadcasts the USER_COUNT notification of a count
+     */
+    public PresenceAggregator(Duration window, IntSupplier userCount, Consumer<ChatMessage> publisher,
+            IntConsumer countPublisher) {
+        this.windowMillis = window.toMillis();
+        this.userCount = userCount;
+        this.publisher = publisher;
+        this.countPublisher = countPublisher;
+        this.scheduler = windowMillis > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * A session connected, the user count changed
+     */
+    public void connected() {
+        countChanged.set(true);
+        schedule();
+    }
+
+    /**
+     * A session disconnected
+     *
+     * @param username Name of the user who left, null if it was never known
+     */
+    public void disconnected(String username) {
+        if (username != null) {
+            leaves.add(username);
+        }
+        countChanged.set(true);
+        schedule();
+    }
+
+    /**
+     * A user announced or changed their name
+     *
+     * @param username The new user name
+     */
+    public void joined(String username) {
+        joins.add(username);
+        schedule();
+    }
+
+    /**
+     * The number of users changed elsewhere, e.g. on another node of the cluster
+     */
+    public void countChanged() {
+        countChanged.set(true);
+        schedule();
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void schedule() {
+        if (scheduler == null) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Publish everything collected since the previous flush
+     */
+    void flush() {
+        // Changes arriving from here on schedule the next window
+        flushScheduled.set(false);
+
+        publishFolded(joins, ChatMessage::createJoinMessage, ChatMessage::createJoinSummaryMessage);
+        publishFolded(leaves, ChatMessage::createLeaveMessage, ChatMessage::createLeaveSummaryMessage);
+
+        if (countChanged.getAndSet(false)) {
+            countPublisher.accept(userCount.getAsInt());
+        }
+    }
+
+    private void publishFolded(Queue<String> names, Function<String, ChatMessage> single,
+            IntFunction<ChatMessage> summary) {
+        String first = names.poll();
+        if (first == null) {
+            return;
+        }
+        int count = 1;
+        while (names.poll() != null) {
+            count++;
+        }
+        publisher.accept(count == 1 ? single.apply(first) : summary.apply(count));
+    }
+}
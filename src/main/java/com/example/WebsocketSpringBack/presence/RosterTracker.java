@@ -0,0 +1,179 @@
+package com.example.WebsocketSpringBack.presence;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+
+/**
+ * The list of users online, published as versioned deltas.
+ * <p>
+ * A subscriber gets the whole roster once, then only the changes: every
+ * window that saw users come, go or change their name publishes a single
+ * ROSTER_DELTA carrying the net changes and the next version, so presence
+ * traffic grows with churn rather than with the number of users. A client
+ * that finds a version missing asks for a new snapshot.
+ * <p>
+ * The roster lists names rather than sessions: a name is added with its first
+ * session and removed with its last one. Session counts are plain sums, so
+ * changes reported in a different order than they happened still add up.
+ */
+public class RosterTracker {
+
+    private final long windowMillis;
+    private final Consumer<ChatMessage> publisher;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // All guarded by this
+    private final Map<String, Integer> sessions = new HashMap<>();
+    private final Set<String> published = new LinkedHashSet<>();
+    private final Set<String> touched = new LinkedHashSet<>();
+    // New name to former name, for the renames of the current window
+    private final Map<String, String> renames = new LinkedHashMap<>();
+    private long version;
+
+    /**
+     * @param window    Window over which changes are folded into one delta, zero publishes every change immediately
+     * @param publisher Sends the deltas to the subscribers, called in version order
+     */
+    public RosterTracker(Duration window, Consumer<ChatMessage> publisher) {
+        this.windowMillis = window.toMillis();
+        this.publisher = publisher;
+        this.scheduler = windowMillis > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "roster-tracker");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * A session connected under a name
+     *
+     * @param name Its username
+     */
+    public void added(String name) {
+        synchronized (this) {
+            count(name, 1);
+        }
+        schedule();
+    }
+
+    /**
+     * A session disconnected
+     *
+     * @param name Its last username
+     */
+    public void removed(String name) {
+        synchronized (this) {
+            count(name, -1);
+        }
+        schedule();
+    }
+
+    /**
+     * A session changed its name
+     *
+     * @param previous Its former username
+     * @param name     Its new username
+     */
+    public void renamed(String previous, String name) {
+        if (previous.equals(name)) {
+            return;
+        }
+        synchronized (this) {
+            count(previous, -1);
+            count(name, 1);
+            renames.put(name, previous);
+        }
+        schedule();
+    }
+
+    /**
+     * Send the published roster to a new subscriber. Deltas are published
+     * under the same lock, so a recipient subscribing from the callback gets
+     * every delta after this version and none before it.
+     *
+     * @param recipient Receives the ROSTER message
+     */
+    public synchronized void snapshot(Consumer<ChatMessage> recipient) {
+        recipient.accept(ChatMessage.createRosterMessage(version, List.copyOf(published)));
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void count(String name, int delta) {
+        sessions.merge(name, delta, (current, change) -> current + change == 0 ? null : current + change);
+        touched.add(name);
+    }
+
+    private void schedule() {
+        if (scheduler == null) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Publish the net changes since the previous flush as the next version
+     */
+    synchronized void flush() {
+        // Changes arriving from here on schedule the next window
+        flushScheduled.set(false);
+
+        Set<String> appeared = new LinkedHashSet<>();
+        Set<String> vanished = new LinkedHashSet<>();
+        for (String name : touched) {
+            boolean online = sessions.getOrDefault(name, 0) > 0;
+            if (online && !published.contains(name)) {
+                appeared.add(name);
+            } else if (!online && published.contains(name)) {
+                vanished.add(name);
+            }
+        }
+        touched.clear();
+
+        List<Roster.Change> changes = new ArrayList<>();
+        // A rename that took a name off and put another on is sent as one change
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            if (appeared.contains(rename.getKey()) && vanished.remove(rename.getValue())) {
+                appeared.remove(rename.getKey());
+                changes.add(Roster.Change.renamed(rename.getValue(), rename.getKey()));
+                published.remove(rename.getValue());
+                published.add(rename.getKey());
+            }
+        }
+        renames.clear();
+        for (String name : vanished) {
+            changes.add(Roster.Change.removed(name));
+            published.remove(name);
+        }
+        for (String name : appeared) {
+            changes.add(Roster.Change.added(name));
+            published.add(name);
+        }
+        if (changes.isEmpty()) {
+            // Changes that cancelled out within the window
+            return;
+        }
+        version++;
+        publisher.accept(ChatMessage.createRosterDeltaMessage(version, changes));
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.WebsocketSpringBack.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.metrics.ChatMetrics;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * Rate limits of inbound frames, per session, per remote address and per
+ * message type.
+ * <p>
+ * Every session gets its {@link Limits} when it connects: a bucket for all its
+ * frames, checked before anything is decoded, one per limited message type,
+ * checked once the type is known, and the bucket of its remote address, shared
+ * by every session connected from there. Checking a frame is one clock read
+ * and a few compare-and-sets on buckets resolved at connection time; nothing
+ * is looked up or allocated per frame.
+ */
+public class InboundRateLimiter {
+
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+
+    private final ChatProperties.RateLimit settings;
+    private final ChatMetrics metrics;
+    private final Map<String, AddressBucket> addresses = new ConcurrentHashMap<>();
+
+    public InboundRateLimiter(ChatProperties.RateLimit settings, ChatMetrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return What to do with sessions over their limits
+     */
+    public RateLimitAction getAction() {
+        return settings.getAction();
+    }
+
+    /**
+     * Create the limits of a new session
+     *
+     * @param address Remote address of the session, null if unknown
+     * @return The limits to check its frames against, released with {@link #release}
+     */
+    public Limits register(String address) {
+        if (!settings.isEnabled()) {
+            return new Limits(null, null, null, new TokenBucket[TYPES.length]);
+        }
+        TokenBucket[] types = new TokenBucket[TYPES.length];
+        for (Map.Entry<ChatMessage.MessageType, ChatProperties.RateLimit.Limit> entry : settings.getTypes().entrySet()) {
+            types[entry.getKey().ordinal()] = bucket(entry.getValue());
+        }
+        AddressBucket shared = null;
+        if (address != null && settings.getAddress().getRate() > 0) {
+            shared = addresses.compute(address, (key, bucket) -> {
+                if (bucket == null) {
+                    bucket = new AddressBucket(new TokenBucket(settings.getAddress()));
+                }
+                bucket.sessions++;
+                return bucket;
+            });
+        }
+        return new Limits(address, shared, bucket(settings.getSession()), types);
+    }
+
+    /**
+     * Release the limits of a closed session, dropping the bucket of its
+     * address with the last session connected from there
+     *
+     * @param limits The limits of the session
+     */
+    public void release(Limits limits) {
+        if (limits.addressBucket != null) {
+            addresses.computeIfPresent(limits.address, (key, bucket) -> --bucket.sessions == 0 ? null : bucket);
+        }
+    }
+
+    /**
+     * @return Number of remote addresses with a bucket
+     */
+    public int addressCount() {
+        return addresses.size();
+    }
+
+    private static TokenBucket bucket(ChatProperties.RateLimit.Limit limit) {
+        return limit != null && limit.getRate() > 0 ? new TokenBucket(limit) : null;
+    }
+
+    /**
+     * Bucket of a remote address with the number of sessions sharing it,
+     * updated only inside the map bin
+     */
+    private static final class AddressBucket {
+        final TokenBucket bucket;
+        int sessions;
+
+        AddressBucket(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * What happens to a frame
+     */
+    public enum Outcome {
+        /**
+         * Within the limits, handled as usual
+         */
+        ALLOWED,
+
+        /**
+         * The first frame over a limit since the last accepted message
+         */
+        EXCEEDED,
+
+        /**
+         * Over a limit again, before any message was accepted
+         */
+        THROTTLED
+    }
+
+    /**
+     * The buckets of one session
+     */
+    public final class Limits {
+        private final String address;
+        private final AddressBucket addressBucket;
+        private final TokenBucket frames;
+        private final TokenBucket[] types;
+        private final AtomicBoolean limited = new AtomicBoolean();
+        // Arrival of the frame being handled, the container hands a session its frames one at a time
+        private long frameNanos;
+
+        private Limits(String address, AddressBucket addressBucket, TokenBucket frames, TokenBucket[] types) {
+            this.address = address;
+            this.addressBucket = addressBucket;
+            this.frames = frames;
+            this.types = types;
+        }
+
+        /**
+         * Check a frame against the session and address limits, before it is
+         * decoded. An allowed frame still has its message checked.
+         *
+         * @return The outcome for this frame
+         */
+        public Outcome checkFrame() {
+            long now = System.nanoTime();
+            frameNanos = now;
+            if (frames != null && !frames.tryAcquire(now)) {
+                metrics.rateLimitedSession();
+                return rejected();
+            }
+            if (addressBucket != null && !addressBucket.bucket.tryAcquire(now)) {
+                metrics.rateLimitedAddress();
+                return rejected();
+            }
+            return Outcome.ALLOWED;
+        }
+
+        /**
+         * Check a decoded message against the limit of its type, ending a run of
+         * rejected frames if it is accepted. The message is taken to have
+         * arrived with the frame last passed to {@link #checkFrame()}.
+         *
+         * @param type Type of the message
+         * @return The outcome for this message
+         */
+        public Outcome checkMessage(ChatMessage.MessageType type) {
+            TokenBucket bucket = types[type.ordinal()];
+            if (bucket != null && !bucket.tryAcquire(frameNanos)) {
+                metrics.rateLimitedType(type);
+                return rejected();
+            }
+            return accepted();
+        }
+
+        private Outcome accepted() {
+            // Read first, well behaved sessions never write the flag
+            if (limited.get()) {
+                limited.set(false);
+            }
+            return Outcome.ALLOWED;
+        }
+
+        private Outcome rejected() {
+            return limited.compareAndSet(false, true) ? Outcome.EXCEEDED : Outcome.THROTTLED;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.WebsocketSpringBack.ratelimit;
+
+/**
+ * What happens to a session sending frames over its rate limits
+ */
+public enum RateLimitAction {
+    /**
+     * Drop the frames over the limit silently
+     */
+    DROP,
+
+    /**
+     * Drop the frames over the limit, telling the sender with an ERROR once per
+     * run of rejected frames
+     */
+    NOTIFY,
+
+    /**
+     * Close the session with a policy violation on its first frame over the limit
+     */
+    DISCONNECT
+}
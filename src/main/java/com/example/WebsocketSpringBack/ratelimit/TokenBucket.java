@@ -0,0 +1,59 @@
+package com.example.WebsocketSpringBack.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+
+/**
+ * Lock-free token bucket, as the generic cell rate algorithm.
+ * <p>
+ * Instead of a token count refilled over time, the bucket keeps a single
+ * {@link AtomicLong}: the theoretical arrival time of the next frame, pushed one
+ * emission interval further by every accepted frame. A frame is accepted while
+ * that time stays within {@code burst} intervals of now, so an idle bucket
+ * accepts a burst and then one frame per interval. Taking a token is one clock
+ * read and one compare-and-set, there is no refill task and nothing to lock.
+ */
+public final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param limit The sustained rate and the burst, the rate must be positive
+     */
+    public TokenBucket(ChatProperties.RateLimit.Limit limit) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / limit.getRate()));
+        this.toleranceNanos = intervalNanos * Math.max(1, limit.getBurst());
+        // Starts full
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take a token if one is available
+     *
+     * @return true if the frame is within the limit
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * @param now The current {@link System#nanoTime()}, read once for every bucket a frame is checked against
+     * @return true if the frame is within the limit
+     */
+    boolean tryAcquire(long now) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            // Compared by difference, nanoTime may wrap
+            long next = (arrival - now > 0 ? arrival : now) + intervalNanos;
+            if (next - now > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, next)) {
+                return true;
+            }
+        }
+    }
+}
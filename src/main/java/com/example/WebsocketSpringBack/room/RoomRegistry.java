@@ -0,0 +1,127 @@
+package com.example.WebsocketSpringBack.room;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.example.WebsocketSpringBack.session.SessionOutbound;
+import com.example.WebsocketSpringBack.session.SessionState;
+
+/**
+ * Concurrent index of room memberships.
+ * <p>
+ * Keeps both directions, room to member outbound queues for targeted fan-out
+ * here, and session to rooms in the {@link SessionState} for cleanup on
+ * disconnect. Joining or leaving a room touches a single map bin, and a room
+ * disappears with its last member.
+ * <p>
+ * A join and the cleanup of its session hold the lock of the session state,
+ * since an eviction runs on the heartbeat thread while the session may still
+ * be handling a JOIN_ROOM: the join either completes before the cleanup, which
+ * then removes it, or finds the session released and is refused.
+ */
+public class RoomRegistry {
+
+    private final Map<String, Map<String, SessionOutbound>> roomMembers = new ConcurrentHashMap<>();
+
+    /**
+     * Add a session to a room, creating the room if needed
+     *
+     * @param room    The room name
+     * @param session The joining session
+     * @return true if the session was not a member yet, false as well if it was unregistered meanwhile
+     */
+    public boolean join(String room, SessionState session) {
+        synchronized (session) {
+            if (session.isReleased()) {
+                return false;
+            }
+            boolean[] added = new boolean[1];
+            roomMembers.compute(room, (key, members) -> {
+                if (members == null) {
+                    members = new ConcurrentHashMap<>();
+                }
+                added[0] = members.put(session.getId(), session.getOutbound()) == null;
+                return members;
+            });
+            if (added[0]) {
+                session.getRooms().add(room);
+            }
+            return added[0];
+        }
+    }
+
+    /**
+     * Remove a session from a room, dropping the room once it is empty
+     *
+     * @param room    The room name
+     * @param session The leaving session
+     * @return true if the session was a member
+     */
+    public boolean leave(String room, SessionState session) {
+        boolean removed = removeMember(room, session.getId());
+        if (removed) {
+            session.getRooms().remove(room);
+        }
+        return removed;
+    }
+
+    /**
+     * Remove a session from every room it joined
+     *
+     * @param session The disconnected session
+     * @return The rooms the session was a member of
+     */
+    public Set<String> leaveAll(SessionState session) {
+        // Waits for a join in progress, later ones see the session released
+        synchronized (session) {
+            if (session.getRooms().isEmpty()) {
+                return Collections.emptySet();
+            }
+            Set<String> rooms = new HashSet<>(session.getRooms());
+            for (String room : rooms) {
+                removeMember(room, session.getId());
+                session.getRooms().remove(room);
+            }
+            return rooms;
+        }
+    }
+
+    private boolean removeMember(String room, String sessionId) {
+        boolean[] removed = new boolean[1];
+        roomMembers.computeIfPresent(room, (key, members) -> {
+            removed[0] = members.remove(sessionId) != null;
+            return members.isEmpty() ? null : members;
+        });
+        return removed[0];
+    }
+
+    /**
+     * @param room The room name
+     * @return Outbound queues of the current members, empty if the room does not exist
+     */
+    public Collection<SessionOutbound> members(String room) {
+        Map<String, SessionOutbound> members = roomMembers.get(room);
+        return members != null ? members.values() : Collections.emptyList();
+    }
+
+    /**
+     * @param room      The room name
+     * @param sessionId The session to check
+     * @return true if the session is a member of the room
+     */
+    public boolean isMember(String room, String sessionId) {
+        Map<String, SessionOutbound> members = roomMembers.get(room);
+        return members != null && members.containsKey(sessionId);
+    }
+
+    /**
+     * @return Number of rooms with at least one member
+     */
+    public int roomCount() {
+        return roomMembers.size();
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.WebsocketSpringBack.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+
+/**
+ * Server-driven liveness checks of the sessions on a hashed timing wheel.
+ * <p>
+ * The wheel has one slot per tick of the heartbeat interval, and every session
+ * sits in exactly one slot, so each tick only visits the sessions of its slot
+ * and each session is visited once per interval, however many there are. A
+ * session that received anything since its last visit is simply put back one
+ * revolution later. Inbound frames only raise a flag on the entry: no clock
+ * read, no rescheduling on the hot path.
+ * <p>
+ * An idle session is pinged. Once it has missed more than the allowed number
+ * of pings in a row it is reported as expired and leaves the wheel; a half-open
+ * connection is then dropped after roughly {@code (missedLimit + 1) * interval}
+ * of silence instead of being written to until the container times it out.
+ * <p>
+ * The wheel only turns once {@link #start} is called, the caller ticks it
+ * otherwise.
+ */
+public class HeartbeatWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatWheel.class);
+
+    /**
+     * Receives the outcome of the liveness checks, on the wheel thread
+     */
+    public interface Listener {
+        /**
+         * @param sessionId An idle session to ping
+         */
+        void ping(String sessionId);
+
+        /**
+         * @param sessionId A session that missed too many pings, no longer tracked
+         */
+        void expired(String sessionId);
+    }
+
+    private final int missedLimit;
+    private final Listener listener;
+    private final List<Queue<Entry>> slots;
+    private final long tickMillis;
+    // Guarded by this
+    private ScheduledExecutorService scheduler;
+
+    // Only advanced by the wheel thread, read when registering
+    private volatile long cursor;
+
+    /**
+     * @param settings Interval, tick and missed ping limit
+     * @param listener Receives the pings to send and the expired sessions
+     */
+    public HeartbeatWheel(ChatProperties.Heartbeat settings, Listener listener) {
+        this.missedLimit = settings.getMissedLimit();
+        this.listener = listener;
+        this.tickMillis = Math.max(1, settings.getTick().toMillis());
+        int size = (int) Math.max(1, (settings.getInterval().toMillis() + tickMillis - 1) / tickMillis);
+        List<Queue<Entry>> slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(new ConcurrentLinkedQueue<>());
+        }
+        this.slots = List.copyOf(slots);
+    }
+
+    /**
+     * Turn the wheel on its own thread, once the wheel is fully constructed
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "heartbeat-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start tracking a session, first checked one interval from now
+     *
+     * @param sessionId The new session
+     * @return Its entry, to touch on every inbound frame and cancel on close
+     */
+    public Entry register(String sessionId) {
+        Entry entry = new Entry(sessionId);
+        // The slot just visited comes around last
+        slots.get(slot(cursor + slots.size() - 1)).add(entry);
+        return entry;
+    }
+
+    /**
+     * Visit the sessions of the current slot and move on to the next one
+     */
+    void tick() {
+        long current = cursor;
+        int index = slot(current);
+        Queue<Entry> slot = slots.get(index);
+        // Entries put back into the same slot must wait for the next revolution
+        List<Entry> again = new ArrayList<>();
+        Entry entry;
+        while ((entry = slot.poll()) != null) {
+            if (entry.cancelled) {
+                continue;
+            }
+            try {
+                if (visit(entry)) {
+                    again.add(entry);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Heartbeat check of session {} failed: {}", entry.sessionId, e.getMessage());
+                again.add(entry);
+            }
+        }
+        slot.addAll(again);
+        cursor = current + 1;
+    }
+
+    /**
+     * @return true if the entry stays on the wheel
+     */
+    private boolean visit(Entry entry) {
+        if (entry.active) {
+            entry.active = false;
+            entry.missed = 0;
+            return true;
+        }
+        if (entry.missed >= missedLimit) {
+            entry.cancelled = true;
+            listener.expired(entry.sessionId);
+            return false;
+        }
+        entry.missed++;
+        listener.ping(entry.sessionId);
+        return true;
+    }
+
+    private int slot(long tick) {
+        return (int) (tick % slots.size());
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * A session on the wheel
+     */
+    public static final class Entry {
+        private final String sessionId;
+        private volatile boolean active;
+        private volatile boolean cancelled;
+        // Only used by the wheel thread
+        private int missed;
+
+        private Entry(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        /**
+         * Record that the session is alive, on any inbound frame or pong
+         */
+        public void touch() {
+            // Read first, a busy session does not write the flag on every frame
+            if (!active) {
+                active = true;
+            }
+        }
+
+        /**
+         * Stop tracking the session, the entry leaves the wheel on its next visit
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
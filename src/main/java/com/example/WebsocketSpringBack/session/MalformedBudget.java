@@ -0,0 +1,66 @@
+package com.example.WebsocketSpringBack.session;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+
+/**
+ * Number of malformed frames a session may send per window.
+ * <p>
+ * A fixed window counter: the first malformed frame after the window has
+ * elapsed starts a new one. Only sessions that send malformed input get a
+ * budget, well behaved ones never pay for it.
+ */
+public class MalformedBudget {
+
+    private final int limit;
+    private final long windowNanos;
+
+    private final AtomicLong windowStart;
+    private final AtomicInteger used = new AtomicInteger();
+
+    public MalformedBudget(ChatProperties.Inbound settings) {
+        this.limit = settings.getMalformedLimit();
+        this.windowNanos = settings.getMalformedWindow().toNanos();
+        this.windowStart = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Charge one malformed frame to the budget
+     *
+     * @return The outcome for this frame
+     */
+    public Outcome charge() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+            used.set(0);
+        }
+        int count = used.incrementAndGet();
+        if (count <= limit) {
+            return Outcome.ALLOWED;
+        }
+        return count == limit + 1 ? Outcome.EXHAUSTED : Outcome.THROTTLED;
+    }
+
+    /**
+     * What happens to a malformed frame
+     */
+    public enum Outcome {
+        /**
+         * Within the budget, handled as usual
+         */
+        ALLOWED,
+
+        /**
+         * The first frame over the budget, dropped and the sender told once
+         */
+        EXHAUSTED,
+
+        /**
+         * Over the budget, dropped silently until the window ends
+         */
+        THROTTLED
+    }
+}
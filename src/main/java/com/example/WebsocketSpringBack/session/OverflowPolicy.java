@@ -0,0 +1,21 @@
+package com.example.WebsocketSpringBack.session;
+
+/**
+ * Action taken when a session's outbound queue exceeds its limits
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the oldest queued messages to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the message being enqueued and keep the backlog as is
+     */
+    DROP_NEWEST,
+
+    /**
+     * Close the session, the client is expected to reconnect
+     */
+    CLOSE
+}
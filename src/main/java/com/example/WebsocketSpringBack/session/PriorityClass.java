@@ -0,0 +1,47 @@
+package com.example.WebsocketSpringBack.session;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * How an outbound frame is queued and sent relative to the others of its session
+ */
+public enum PriorityClass {
+    /**
+     * Replies a client waits for, PONG, ERROR and protocol pings: sent before
+     * anything else queued and exempt from the overflow policy, but bounded by
+     * the control limit
+     */
+    CONTROL,
+
+    /**
+     * State where only the newest value matters, USER_COUNT: at most one is
+     * queued, replaced by the next one, and sent before the chat backlog
+     */
+    PRESENCE,
+
+    /**
+     * Everything else, sent in order and dropped under pressure according to
+     * the {@link OverflowPolicy}. RESYNC is one of them, it must not overtake
+     * the welcome message nor the replay it announces
+     */
+    CHAT;
+
+    /**
+     * @param type Type of the message, may be null
+     * @return The class its frames are queued in
+     */
+    public static PriorityClass of(ChatMessage.MessageType type) {
+        if (type == null) {
+            return CHAT;
+        }
+        switch (type) {
+            case PONG:
+            case ERROR:
+                return CONTROL;
+            case USER_COUNT:
+                return PRESENCE;
+            default:
+                return CHAT;
+        }
+    }
+}
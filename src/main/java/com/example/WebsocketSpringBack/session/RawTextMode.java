@@ -0,0 +1,16 @@
+package com.example.WebsocketSpringBack.session;
+
+/**
+ * How text frames that are not JSON chat messages are handled
+ */
+public enum RawTextMode {
+    /**
+     * Broadcast the text as a chat message from the sender
+     */
+    BROADCAST,
+
+    /**
+     * Answer with an ERROR, only JSON chat messages are accepted
+     */
+    REJECT
+}
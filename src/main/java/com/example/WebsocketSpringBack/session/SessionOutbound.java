@@ -0,0 +1,526 @@
+package com.example.WebsocketSpringBack.session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.example.WebsocketSpringBack.codec.BinaryChatCodec;
+import com.example.WebsocketSpringBack.codec.EncodedFrame;
+import com.example.WebsocketSpringBack.codec.JsonChatCodec;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.codec.WireFormat;
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.metrics.ChatMetrics;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * Bounded outbound queue of a single session.
+ * <p>
+ * Messages are enqueued by any thread and sent by at most one drain task at a
+ * time, so a slow client only ever delays its own messages. When the queue
+ * grows past the buffer size limit, or the current send has been blocked for
+ * longer than the send time limit, the configured {@link OverflowPolicy} is
+ * applied.
+ * <p>
+ * Frames are queued by {@link PriorityClass}, so a congested session still
+ * gets its replies in time. Control frames have their own queue, drained
+ * first and exempt from the overflow policy; presence has a single slot, a new USER_COUNT
+ * replacing the one not sent yet; chat frames wait behind both, and only they
+ * are subject to the overflow policy.
+ * <p>
+ * The control queue is bounded all the same: a ping or PONG already queued
+ * absorbs the next ones, and a session whose control backlog still grows past
+ * the control limit, a client sending requests but never reading the replies,
+ * is closed.
+ * <p>
+ * Queued messages may be shared with other sessions, so their payload length
+ * is expected to be cheap to compute, as it is for {@code EncodedFrame}s.
+ * <p>
+ * A batching session trades a little latency for fewer writes: an idle drain
+ * task waits up to the batch window, or until the batch size is queued, then
+ * sends the queued text frames as one JSON array frame, or the binary frames of
+ * the binary format as one batch frame. Frames queued during a send go out in
+ * the next batch without waiting. A batch of one is sent as the plain frame,
+ * and the compressed frames of {@code chat.json.deflate} are never batched.
+ */
+public class SessionOutbound {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionOutbound.class);
+
+    // Upper bound of the bytes a batch adds per frame (a comma or a length varint) and for its header
+    private static final int BATCH_OVERHEAD = 6;
+
+    private final WebSocketSession session;
+    private final WireFormat format;
+    private final Executor executor;
+    private final long sendTimeLimit;
+    private final long bufferSizeLimit;
+    private final OverflowPolicy overflowPolicy;
+    private final ChatMetrics metrics;
+    private final boolean batching;
+    private final long batchWindowNanos;
+    private final int batchMaxSize;
+    private final int controlLimit;
+
+    private final Queue<WebSocketMessage<?>> control = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger controlSize = new AtomicInteger();
+    // The protocol ping and the PONG waiting in the control queue, null if none
+    private final AtomicReference<WebSocketMessage<?>> queuedPing = new AtomicReference<>();
+    private final AtomicReference<WebSocketMessage<?>> queuedPong = new AtomicReference<>();
+    private final AtomicReference<WebSocketMessage<?>> presence = new AtomicReference<>();
+    private final Queue<WebSocketMessage<?>> chat = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closing = new AtomicBoolean();
+
+    // Start of the send in progress, 0 when the drain task is idle
+    private volatile long sendStartTime;
+    // Drain task waiting for a batch to fill, null otherwise
+    private volatile Thread lingering;
+
+    public SessionOutbound(WebSocketSession session, Executor executor, ChatProperties.Outbound settings) {
+        this(session, executor, settings, ChatMetrics.NOOP);
+    }
+
+    public SessionOutbound(WebSocketSession session, Executor executor, ChatProperties.Outbound settings,
+            ChatMetrics metrics) {
+        this(session, executor, settings, metrics, false);
+    }
+
+    /**
+     * @param session  The session to send to
+     * @param executor Executor running the drain task
+     * @param settings Queue limits and batching settings
+     * @param metrics  Meters of the outbound traffic
+     * @param batching true if the client opted in to batched frames, honored only if batching is enabled
+     */
+    public SessionOutbound(WebSocketSession session, Executor executor, ChatProperties.Outbound settings,
+            ChatMetrics metrics, boolean batching) {
+        this.session = session;
+        this.format = WireFormat.fromSubProtocol(session.getAcceptedProtocol());
+        this.executor = executor;
+        this.sendTimeLimit = settings.getSendTimeLimit().toMillis();
+        this.bufferSizeLimit = settings.getBufferSizeLimit().toBytes();
+        this.overflowPolicy = settings.getOverflowPolicy();
+        this.metrics = metrics;
+        this.batching = batching && settings.isBatchEnabled();
+        this.batchWindowNanos = settings.getBatchWindow().toNanos();
+        this.batchMaxSize = (int) Math.min(Integer.MAX_VALUE, settings.getBatchMaxSize().toBytes());
+        this.controlLimit = settings.getControlLimit();
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return The wire format negotiated by the client
+     */
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return true if messages are sent in batches
+     */
+    public boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Number of payload bytes waiting to be sent
+     */
+    public int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    /**
+     * Queue a message in the wire format of this session
+     *
+     * @param message The message, encoded on first use of the format
+     * @return false if the message was rejected, or was a PONG while another one is queued
+     */
+    public boolean enqueue(OutboundMessage message) {
+        return enqueue(message, PriorityClass.of(message.getType()));
+    }
+
+    /**
+     * Queue a message in the wire format of this session in the given class
+     * rather than the one of its type
+     *
+     * @param message  The message, encoded on first use of the format
+     * @param priority How the message is queued
+     * @return false if the message was rejected, or was a PONG while another one is queued
+     */
+    public boolean enqueue(OutboundMessage message, PriorityClass priority) {
+        EncodedFrame frame = message.get(format);
+        AtomicReference<WebSocketMessage<?>> slot = message.getType() == ChatMessage.MessageType.PONG
+                && priority == PriorityClass.CONTROL ? queuedPong : null;
+        if (!enqueue(frame.toMessage(), priority, slot)) {
+            return false;
+        }
+        metrics.outbound(message.getType(), frame.size());
+        return true;
+    }
+
+    /**
+     * Queue a message for this session, protocol pings and pongs as control
+     * frames and anything else as chat
+     *
+     * @param message The message to send
+     * @return false if the message was rejected, or was a ping or pong while another one is queued
+     */
+    public boolean enqueue(WebSocketMessage<?> message) {
+        if (message instanceof PingMessage) {
+            return enqueue(message, PriorityClass.CONTROL, queuedPing);
+        }
+        if (message instanceof PongMessage) {
+            return enqueue(message, PriorityClass.CONTROL, queuedPong);
+        }
+        return enqueue(message, PriorityClass.CHAT, null);
+    }
+
+    /**
+     * Queue a message for this session and make sure a drain task is running
+     *
+     * @param message  The message to send
+     * @param priority How the message is queued
+     * @return false if the message was rejected by the overflow policy or the control limit
+     */
+    public boolean enqueue(WebSocketMessage<?> message, PriorityClass priority) {
+        return enqueue(message, priority, null);
+    }
+
+    /**
+     * @param slot Where a control frame standing for any other of its kind is kept, null if it is not one
+     */
+    private boolean enqueue(WebSocketMessage<?> message, PriorityClass priority,
+            AtomicReference<WebSocketMessage<?>> slot) {
+        if (closing.get() || !session.isOpen()) {
+            return false;
+        }
+
+        int size = message.getPayloadLength();
+        switch (priority) {
+            case CONTROL:
+                if (!enqueueControl(message, size, slot)) {
+                    return false;
+                }
+                break;
+            case PRESENCE:
+                WebSocketMessage<?> replaced = presence.getAndSet(message);
+                if (replaced != null) {
+                    bufferSize.addAndGet(size - replaced.getPayloadLength());
+                    metrics.outboundDropped(PriorityClass.PRESENCE, 1);
+                } else {
+                    bufferSize.addAndGet(size);
+                    metrics.backlog(PriorityClass.PRESENCE, 1);
+                }
+                break;
+            case CHAT:
+            default:
+                if (!enqueueChat(message, size)) {
+                    return false;
+                }
+                break;
+        }
+
+        if (batching && bufferSize.get() >= batchMaxSize) {
+            // A full batch is queued, no need to wait for the window to end
+            wakeLingering();
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Queue a control frame unless one of the same kind is waiting, closing
+     * the session once its control backlog exceeds the limit
+     *
+     * @return false if the frame was collapsed or the session closed
+     */
+    private boolean enqueueControl(WebSocketMessage<?> message, int size, AtomicReference<WebSocketMessage<?>> slot) {
+        if (slot != null && !slot.compareAndSet(null, message)) {
+            // The client gets the one already queued
+            metrics.outboundDropped(PriorityClass.CONTROL, 1);
+            return false;
+        }
+        if (controlSize.incrementAndGet() > controlLimit) {
+            controlSize.decrementAndGet();
+            if (slot != null) {
+                slot.compareAndSet(message, null);
+            }
+            closeSession(CloseStatus.POLICY_VIOLATION, "Control limit exceeded");
+            return false;
+        }
+        control.add(message);
+        bufferSize.addAndGet(size);
+        metrics.backlog(PriorityClass.CONTROL, 1);
+        // Not worth waiting for a batch
+        wakeLingering();
+        return true;
+    }
+
+    /**
+     * Queue a chat frame within the buffer limit, applying the overflow policy otherwise
+     *
+     * @return false if the frame was rejected
+     */
+    private boolean enqueueChat(WebSocketMessage<?> message, int size) {
+        boolean stalled = isStalled();
+        if (stalled || bufferSize.get() + size > bufferSizeLimit) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    logger.debug("Outbound limit exceeded for session {}, dropping new message", session.getId());
+                    metrics.outboundDropped(PriorityClass.CHAT, 1);
+                    return false;
+                case CLOSE:
+                    closeSession(CloseStatus.SESSION_NOT_RELIABLE, "Outbound limit exceeded");
+                    return false;
+                case DROP_OLDEST:
+                default:
+                    chat.add(message);
+                    bufferSize.addAndGet(size);
+                    metrics.backlog(PriorityClass.CHAT, 1);
+                    dropOldest(stalled);
+                    break;
+            }
+        } else {
+            chat.add(message);
+            bufferSize.addAndGet(size);
+            metrics.backlog(PriorityClass.CHAT, 1);
+        }
+        return true;
+    }
+
+    private void wakeLingering() {
+        Thread waiting = lingering;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    private boolean isStalled() {
+        long start = sendStartTime;
+        return start != 0 && System.currentTimeMillis() - start > sendTimeLimit;
+    }
+
+    /**
+     * Evict queued chat messages from the head until the backlog fits the buffer limit.
+     * A stalled session also loses at least one message so its backlog cannot grow.
+     */
+    private void dropOldest(boolean stalled) {
+        int dropped = 0;
+        while (bufferSize.get() > bufferSizeLimit || (stalled && dropped == 0)) {
+            WebSocketMessage<?> oldest = chat.poll();
+            if (oldest == null) {
+                break;
+            }
+            bufferSize.addAndGet(-oldest.getPayloadLength());
+            dropped++;
+        }
+        if (dropped > 0) {
+            metrics.backlog(PriorityClass.CHAT, -dropped);
+            metrics.outboundDropped(PriorityClass.CHAT, dropped);
+            logger.debug("Outbound limit exceeded for session {}, dropped {} oldest message(s)",
+                    session.getId(), dropped);
+        }
+    }
+
+    /**
+     * Drop the backlog of a session that is gone and refuse any new message
+     */
+    public void discard() {
+        closing.set(true);
+        clear();
+    }
+
+    private void clear() {
+        while (poll() != null) {
+            // Taken out of the buffer size and backlog by poll
+        }
+    }
+
+    private void closeSession(CloseStatus status, String reason) {
+        if (!closing.compareAndSet(false, true)) {
+            return;
+        }
+        logger.warn("{} for session {}, closing it", reason, session.getId());
+        clear();
+        // Closing writes a close frame, keep that off the caller's thread too
+        executor.execute(() -> {
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                logger.debug("Error closing session {}: {}", session.getId(), e.getMessage());
+            }
+        });
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            if (batching) {
+                drainBatches();
+            } else {
+                WebSocketMessage<?> next;
+                while ((next = poll()) != null) {
+                    send(next);
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // A message may have been enqueued after the last poll but before the flag was cleared
+        if (!control.isEmpty() || presence.get() != null || !chat.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Take the next message to send, control first, then presence, then chat
+     *
+     * @return The message, removed from the backlog, or null if nothing is queued
+     */
+    private WebSocketMessage<?> poll() {
+        PriorityClass priority = PriorityClass.CONTROL;
+        WebSocketMessage<?> next = control.poll();
+        if (next != null) {
+            controlSize.decrementAndGet();
+            // The next ping or pong is queued again
+            queuedPing.compareAndSet(next, null);
+            queuedPong.compareAndSet(next, null);
+        }
+        // Read first, the slot is only written when there is something to take
+        if (next == null && presence.get() != null) {
+            priority = PriorityClass.PRESENCE;
+            next = presence.getAndSet(null);
+        }
+        if (next == null) {
+            priority = PriorityClass.CHAT;
+            next = chat.poll();
+        }
+        if (next != null) {
+            bufferSize.addAndGet(-next.getPayloadLength());
+            metrics.backlog(priority, -1);
+        }
+        return next;
+    }
+
+    private void drainBatches() {
+        linger();
+        List<WebSocketMessage<?>> batch = new ArrayList<>();
+        WebSocketMessage<?> next = poll();
+        while (next != null) {
+            int size = next.getPayloadLength();
+            if (!batchable(next)) {
+                send(next);
+                next = poll();
+                continue;
+            }
+
+            // Collect the frames of the same kind queued behind it, as long as the batch fits the batch size
+            batch.add(next);
+            int batchSize = 2 * BATCH_OVERHEAD + size;
+            next = poll();
+            while (next != null && batchable(next) && next.getClass() == batch.get(0).getClass()
+                    && batchSize + BATCH_OVERHEAD + next.getPayloadLength() <= batchMaxSize) {
+                size = next.getPayloadLength();
+                batch.add(next);
+                batchSize += BATCH_OVERHEAD + size;
+                next = poll();
+            }
+            // The frame ending the batch, if any, starts the next one
+            send(batch.size() == 1 ? batch.get(0) : toBatch(batch));
+            if (batch.size() > 1) {
+                metrics.batched(batch.size());
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Wait for a batch to fill, up to the batch window or until a control frame is queued
+     */
+    private void linger() {
+        if (batchWindowNanos <= 0) {
+            return;
+        }
+        lingering = Thread.currentThread();
+        try {
+            long deadline = System.nanoTime() + batchWindowNanos;
+            long remaining;
+            // An interrupted thread would not park at all, it sends what it has instead
+            while (bufferSize.get() < batchMaxSize && !closing.get() && control.isEmpty()
+                    && !Thread.currentThread().isInterrupted()
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            lingering = null;
+        }
+    }
+
+    private boolean batchable(WebSocketMessage<?> message) {
+        return message instanceof TextMessage || (message instanceof BinaryMessage && format == WireFormat.BINARY);
+    }
+
+    private static WebSocketMessage<?> toBatch(List<WebSocketMessage<?>> batch) {
+        if (batch.get(0) instanceof TextMessage) {
+            List<byte[]> frames = new ArrayList<>(batch.size());
+            for (WebSocketMessage<?> message : batch) {
+                frames.add(((TextMessage) message).asBytes());
+            }
+            return JsonChatCodec.batch(frames).toMessage();
+        }
+        List<ByteBuffer> frames = new ArrayList<>(batch.size());
+        for (WebSocketMessage<?> message : batch) {
+            frames.add(((BinaryMessage) message).getPayload());
+        }
+        return BinaryChatCodec.batch(frames).toMessage();
+    }
+
+    private void send(WebSocketMessage<?> message) {
+        if (!session.isOpen()) {
+            return;
+        }
+        sendStartTime = System.currentTimeMillis();
+        long started = System.nanoTime();
+        try {
+            session.sendMessage(message);
+            metrics.sent(System.nanoTime() - started);
+        } catch (IOException e) {
+            metrics.sendFailed();
+            logger.error("Error sending message to session {}: {}", session.getId(), e.getMessage());
+        } catch (IllegalStateException e) {
+            // The client went away between the open check and the write
+            logger.debug("Session {} closed while sending: {}", session.getId(), e.getMessage());
+        } finally {
+            sendStartTime = 0;
+        }
+    }
+}
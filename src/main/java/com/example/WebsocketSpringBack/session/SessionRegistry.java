@@ -0,0 +1,166 @@
+package com.example.WebsocketSpringBack.session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The connected sessions of this node, by session ID.
+ * <p>
+ * Each session is one {@link SessionState} entry, added and removed with a
+ * single map operation. Broadcasts iterate a copy-on-write snapshot of the
+ * outbound queues instead of the map: a plain array, rebuilt on the first
+ * broadcast after the membership changed, so a burst of connections costs
+ * one rebuild rather than one per connection, and a steady broadcast load
+ * none at all.
+ * <p>
+ * A second index maps each username to the sessions using it, so a private
+ * message reaches its recipient with one lookup, however many sessions are
+ * connected. It follows registration, {@link #rename} and unregistration.
+ */
+public class SessionRegistry {
+
+    private final Map<String, SessionState> states = new ConcurrentHashMap<>();
+    // Several sessions may share a username, the same user in several tabs or a name taken twice
+    private final Map<String, Set<SessionState>> byUsername = new ConcurrentHashMap<>();
+    // Bumped after every membership change, a snapshot of an older version is stale
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, List.of());
+
+    /**
+     * @param state State of a newly connected session
+     * @return false if a session with the same ID is already registered
+     */
+    public boolean register(SessionState state) {
+        if (states.putIfAbsent(state.getId(), state) != null) {
+            return false;
+        }
+        version.incrementAndGet();
+        synchronized (state) {
+            index(state.getUsername(), state);
+        }
+        return true;
+    }
+
+    /**
+     * Change the username of a session and move it in the username index
+     *
+     * @param state    State of the session
+     * @param username Its new username
+     * @return false if the session was unregistered meanwhile, its username is then left as is
+     */
+    public boolean rename(SessionState state, String username) {
+        // Against a concurrent unregister, which removes the state from the map before taking the lock
+        synchronized (state) {
+            if (states.get(state.getId()) != state) {
+                return false;
+            }
+            String previous = state.getUsername();
+            state.setUsername(username);
+            unindex(previous, state);
+            index(username, state);
+            return true;
+        }
+    }
+
+    /**
+     * Remove a session, exactly once whichever of the close and the eviction comes first
+     *
+     * @param sessionId ID of the session
+     * @return Its state, null if it was not registered
+     */
+    public SessionState unregister(String sessionId) {
+        SessionState state = states.remove(sessionId);
+        if (state != null) {
+            version.incrementAndGet();
+            synchronized (state) {
+                unindex(state.getUsername(), state);
+            }
+            state.release();
+        }
+        return state;
+    }
+
+    /**
+     * @param sessionId ID of a session
+     * @return Its state, null if it is not registered
+     */
+    public SessionState get(String sessionId) {
+        return states.get(sessionId);
+    }
+
+    /**
+     * @param username A username
+     * @return The registered sessions using it, a live view, empty if none
+     */
+    public Set<SessionState> withUsername(String username) {
+        Set<SessionState> states = byUsername.get(username);
+        return states != null ? states : Set.of();
+    }
+
+    /**
+     * @return Number of registered sessions
+     */
+    public int size() {
+        return states.size();
+    }
+
+    /**
+     * @return States of the registered sessions, a live view
+     */
+    public Collection<SessionState> states() {
+        return states.values();
+    }
+
+    /**
+     * @return Outbound queues of the registered sessions, an immutable snapshot
+     */
+    public List<SessionOutbound> outbounds() {
+        Snapshot current = snapshot;
+        if (current.version == version.get()) {
+            return current.outbounds;
+        }
+        return rebuild();
+    }
+
+    private synchronized List<SessionOutbound> rebuild() {
+        // Read before the map, a change made during the copy leaves the snapshot stale
+        long expected = version.get();
+        Snapshot current = snapshot;
+        if (current.version == expected) {
+            return current.outbounds;
+        }
+        List<SessionOutbound> outbounds = new ArrayList<>(states.size());
+        for (SessionState state : states.values()) {
+            outbounds.add(state.getOutbound());
+        }
+        List<SessionOutbound> list = Collections.unmodifiableList(outbounds);
+        snapshot = new Snapshot(expected, list);
+        return list;
+    }
+
+    private void index(String username, SessionState state) {
+        // Added inside the bin lock, a set emptied concurrently must not swallow the session
+        byUsername.compute(username, (name, states) -> {
+            Set<SessionState> set = states != null ? states : ConcurrentHashMap.newKeySet();
+            set.add(state);
+            return set;
+        });
+    }
+
+    private void unindex(String username, SessionState state) {
+        // Dropped with its last session
+        byUsername.computeIfPresent(username, (name, states) -> {
+            states.remove(state);
+            return states.isEmpty() ? null : states;
+        });
+    }
+
+    private record Snapshot(long version, List<SessionOutbound> outbounds) {
+    }
+}
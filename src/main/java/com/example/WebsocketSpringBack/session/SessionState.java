@@ -0,0 +1,117 @@
+package com.example.WebsocketSpringBack.session;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.ratelimit.InboundRateLimiter;
+
+/**
+ * Everything the handler keeps about one connected session.
+ * <p>
+ * Created whole when the session connects and registered in a single
+ * {@link SessionRegistry} entry, so handling a frame is one lookup by session
+ * ID, and connecting or disconnecting can never leave a session half known.
+ * The username is the only field replaced after registration, through
+ * {@link SessionRegistry#rename} so its username index follows; the rooms are
+ * maintained by the {@code RoomRegistry}.
+ */
+public class SessionState {
+
+    private final WebSocketSession session;
+    private final SessionOutbound outbound;
+    private final InboundRateLimiter.Limits limits;
+    private final HeartbeatWheel.Entry heartbeat;
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private volatile String username;
+    private volatile boolean released;
+    // Only sessions that sent malformed input have a budget, created by the thread handling their frames
+    private MalformedBudget malformedBudget;
+
+    /**
+     * @param session   The connected session
+     * @param username  Its initial username
+     * @param outbound  Its outbound queue
+     * @param limits    Its inbound rate limits
+     * @param heartbeat Its entry on the heartbeat wheel, null if heartbeats are disabled
+     */
+    public SessionState(WebSocketSession session, String username, SessionOutbound outbound,
+            InboundRateLimiter.Limits limits, HeartbeatWheel.Entry heartbeat) {
+        this.session = session;
+        this.username = username;
+        this.outbound = outbound;
+        this.limits = limits;
+        this.heartbeat = heartbeat;
+    }
+
+    public String getId() {
+        return session.getId();
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public SessionOutbound getOutbound() {
+        return outbound;
+    }
+
+    public InboundRateLimiter.Limits getLimits() {
+        return limits;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * @return Names of the rooms the session joined, updated by the {@code RoomRegistry}
+     */
+    public Set<String> getRooms() {
+        return rooms;
+    }
+
+    /**
+     * @param settings Limit and window of the budget
+     * @return The malformed frame budget of the session, created on first use
+     */
+    public MalformedBudget getMalformedBudget(ChatProperties.Inbound settings) {
+        if (malformedBudget == null) {
+            malformedBudget = new MalformedBudget(settings);
+        }
+        return malformedBudget;
+    }
+
+    /**
+     * Record that the session is alive, on any inbound frame or pong
+     */
+    public void touch() {
+        if (heartbeat != null) {
+            heartbeat.touch();
+        }
+    }
+
+    /**
+     * @return true once the session was unregistered
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Release what the session holds outside of its state
+     */
+    void release() {
+        released = true;
+        outbound.discard();
+        if (heartbeat != null) {
+            heartbeat.cancel();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.WebsocketSpringBack.system;
+
+import java.time.Duration;
+
+/**
+ * Wall clock read at a coarse resolution.
+ * <p>
+ * Time is cut into ticks of the configured resolution, and timestamps are
+ * truncated to the start of their tick. Caches keyed by the tick hold what they
+ * stamped for as long as the tick lasts.
+ */
+public class CoarseClock {
+
+    private final long resolutionMillis;
+    private volatile Tick current = new Tick(Long.MIN_VALUE, 0);
+
+    /**
+     * A tick of the clock
+     *
+     * @param tick      Index of the tick since the epoch
+     * @param timestamp Start of the tick in epoch milliseconds
+     */
+    public record Tick(long tick, long timestamp) {
+    }
+
+    /**
+     * @param resolution Length of a tick, rounded up to at least one millisecond
+     */
+    public CoarseClock(Duration resolution) {
+        this.resolutionMillis = Math.max(1, resolution.toMillis());
+    }
+
+    /**
+     * @return The current tick
+     */
+    public Tick now() {
+        long tick = System.currentTimeMillis() / resolutionMillis;
+        Tick cached = current;
+        if (cached.tick() == tick) {
+            return cached;
+        }
+        // Racing readers build the same tick, whichever write lands is correct
+        Tick next = new Tick(tick, tick * resolutionMillis);
+        current = next;
+        return next;
+    }
+}
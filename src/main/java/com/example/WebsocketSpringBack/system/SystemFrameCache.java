@@ -0,0 +1,95 @@
+package com.example.WebsocketSpringBack.system;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+
+/**
+ * System messages that only depend on a small input, with their encoded frames.
+ * <p>
+ * The welcome message only changes with the application name and node, PONG never, and
+ * USER_COUNT with the count. Each is built and encoded once, and the same
+ * message is handed out again until its input or the tick of the
+ * {@link CoarseClock} stamping it changes. Heartbeats and presence updates
+ * then cost no building, formatting or encoding at all.
+ */
+public class SystemFrameCache {
+
+    private final CoarseClock clock;
+    private final ChatCodecs codecs;
+
+    private final Slot<Welcome> welcome = new Slot<>(key -> ChatMessage.createWelcomeMessage(key.appName(), key.node()));
+    private final Slot<Void> pong = new Slot<>(ignored -> ChatMessage.createPongMessage());
+    private final Slot<Integer> userCount = new Slot<>(ChatMessage::createUserCountMessage);
+
+    public SystemFrameCache(CoarseClock clock, ChatCodecs codecs) {
+        this.clock = clock;
+        this.codecs = codecs;
+    }
+
+    /**
+     * @param appName Name of the application
+     * @return The welcome message
+     */
+    public OutboundMessage welcome(String appName) {
+        return welcome(appName, null);
+    }
+
+    /**
+     * @param appName Name of the application
+     * @param node    ID of the cluster node, null outside a cluster
+     * @return The welcome message
+     */
+    public OutboundMessage welcome(String appName, String node) {
+        return welcome.get(new Welcome(appName, node));
+    }
+
+    /**
+     * @return A PONG
+     */
+    public OutboundMessage pong() {
+        return pong.get(null);
+    }
+
+    /**
+     * @param count Number of users online
+     * @return The USER_COUNT notification
+     */
+    public OutboundMessage userCount(int count) {
+        return userCount.get(count);
+    }
+
+    /**
+     * The last message built for one kind of system message
+     */
+    private final class Slot<T> {
+
+        private final Function<T, ChatMessage> factory;
+        private volatile Entry<T> entry;
+
+        Slot(Function<T, ChatMessage> factory) {
+            this.factory = factory;
+        }
+
+        OutboundMessage get(T input) {
+            CoarseClock.Tick now = clock.now();
+            Entry<T> cached = entry;
+            if (cached != null && cached.tick() == now.tick() && Objects.equals(cached.input(), input)) {
+                return cached.message();
+            }
+            // Concurrent misses may both build, the messages are equivalent
+            OutboundMessage message = OutboundMessage.of(factory.apply(input), now.timestamp(), codecs);
+            entry = new Entry<>(now.tick(), input, message);
+            return message;
+        }
+    }
+
+    private record Entry<T>(long tick, T input, OutboundMessage message) {
+    }
+
+    private record Welcome(String appName, String node) {
+    }
+}
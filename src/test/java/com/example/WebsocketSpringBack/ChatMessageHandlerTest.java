@@ -1,24 +1,40 @@
 package com.example.WebsocketSpringBack;
 
+import com.example.WebsocketSpringBack.cluster.LoopbackBroadcastBus;
+import com.example.WebsocketSpringBack.codec.BinaryChatCodec;
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.codec.WireFormat;
+import com.example.WebsocketSpringBack.config.ChatProperties;
 import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+import com.example.WebsocketSpringBack.ratelimit.RateLimitAction;
+import com.example.WebsocketSpringBack.session.RawTextMode;
+import com.example.WebsocketSpringBack.session.SessionRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import java.util.ArrayList;
 import java.util.List;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
-import java.util.Map;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -27,7 +43,6 @@ import static org.mockito.Mockito.*;
 @MockitoSettings(strictness = Strictness.LENIENT) // Usar modo leniente global
 class ChatMessageHandlerTest {
 
-    @InjectMocks
     private ChatMessageHandler chatMessageHandler;
 
     @Mock
@@ -45,14 +60,18 @@ class ChatMessageHandlerTest {
         when(session.getId()).thenReturn(sessionId);
         when(session.isOpen()).thenReturn(true);
         
+        // Drain outbound queues on the calling thread and publish presence changes
+        // without coalescing so sends can be verified synchronously
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        chatMessageHandler = new ChatMessageHandler(properties, Runnable::run);
+        
         // Set app name (normally injected via @Value)
         ReflectionTestUtils.setField(chatMessageHandler, "appName", "Test Chat App");
-        
-        // Initialize the collections that store sessions and usernames
-        Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
-        Map<String, String> sessionUsernames = new ConcurrentHashMap<>();
-        ReflectionTestUtils.setField(chatMessageHandler, "sessions", sessions);
-        ReflectionTestUtils.setField(chatMessageHandler, "sessionUsernames", sessionUsernames);
+    }
+    
+    private SessionRegistry sessions(ChatMessageHandler handler) {
+        return (SessionRegistry) ReflectionTestUtils.getField(handler, "sessions");
     }
 
     @Test
@@ -90,19 +109,14 @@ class ChatMessageHandlerTest {
         assertTrue(foundWelcome, "Welcome message should be sent");
         assertTrue(foundUserCount, "User count message should be sent");
         
-        // Verify the session is stored in the sessions map
-        @SuppressWarnings("unchecked")
-        Map<String, WebSocketSession> sessions = (Map<String, WebSocketSession>) ReflectionTestUtils.getField(
-                chatMessageHandler, "sessions");
+        // Verify the session is registered, in the broadcast snapshot as well
+        SessionRegistry sessions = sessions(chatMessageHandler);
         assertEquals(1, sessions.size());
-        assertEquals(session, sessions.get(sessionId));
+        assertEquals(session, sessions.get(sessionId).getSession());
+        assertEquals(1, sessions.outbounds().size());
         
         // Verify a default username was generated
-        @SuppressWarnings("unchecked")
-        Map<String, String> sessionUsernames = (Map<String, String>) ReflectionTestUtils.getField(
-                chatMessageHandler, "sessionUsernames");
-        assertTrue(sessionUsernames.containsKey(sessionId));
-        assertTrue(sessionUsernames.get(sessionId).startsWith("User-"));
+        assertTrue(sessions.get(sessionId).getUsername().startsWith("User-"));
     }
 
     @Test
@@ -130,13 +144,9 @@ class ChatMessageHandlerTest {
         chatMessageHandler.afterConnectionClosed(session, CloseStatus.NORMAL);
         
         // Assert - Check that the session was removed
-        Map<String, WebSocketSession> sessions = (Map<String, WebSocketSession>) ReflectionTestUtils.getField(
-                chatMessageHandler, "sessions");
-        Map<String, String> sessionUsernames = (Map<String, String>) ReflectionTestUtils.getField(
-                chatMessageHandler, "sessionUsernames");
-        
-        assertFalse(sessions.containsKey(sessionId));
-        assertFalse(sessionUsernames.containsKey(sessionId));
+        SessionRegistry sessions = sessions(chatMessageHandler);
+        assertNull(sessions.get(sessionId));
+        assertEquals(1, sessions.outbounds().size());
         
         // Verify a leave message was broadcast to other sessions
         verify(otherSession, atLeastOnce()).sendMessage(messageCaptor.capture());
@@ -186,6 +196,640 @@ class ChatMessageHandlerTest {
         assertEquals("Hello, world!", broadcastMessage.getMessage());
     }
 
+    @Test
+    void broadcast_shouldShareOneEncodedFrameAcrossRecipients() throws Exception {
+        // Arrange - Two connected sessions
+        WebSocketSession otherSession = mock(WebSocketSession.class);
+        when(otherSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(otherSession.isOpen()).thenReturn(true);
+        chatMessageHandler.afterConnectionEstablished(session);
+        chatMessageHandler.afterConnectionEstablished(otherSession);
+        clearInvocations(session, otherSession);
+        
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "Hëllo, wörld!");
+        
+        // Act
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        
+        // Assert - Both sessions receive the very same frame instance, encoded once
+        verify(session).sendMessage(messageCaptor.capture());
+        verify(otherSession).sendMessage(messageCaptor.capture());
+        List<TextMessage> frames = messageCaptor.getAllValues();
+        assertSame(frames.get(0), frames.get(1));
+        assertEquals("Hëllo, wörld!",
+                objectMapper.readValue(frames.get(0).getPayload(), ChatMessage.class).getMessage());
+    }
+
+    @Test
+    void broadcast_shouldEncodeOncePerWireFormat() throws Exception {
+        // Arrange - A JSON session and a session that negotiated the binary format
+        WebSocketSession binarySession = mock(WebSocketSession.class);
+        when(binarySession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(binarySession.isOpen()).thenReturn(true);
+        when(binarySession.getAcceptedProtocol()).thenReturn(WireFormat.BINARY.getSubProtocol());
+        chatMessageHandler.afterConnectionEstablished(session);
+        chatMessageHandler.afterConnectionEstablished(binarySession);
+        clearInvocations(session, binarySession);
+        
+        // Act - The binary client sends a chat message
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "Hello from binary");
+        byte[] encoded = new BinaryChatCodec().encode(OutboundMessage.of(chatMessage, ChatCodecs.defaults())).getBytes();
+        chatMessageHandler.handleBinaryMessage(binarySession, new BinaryMessage(encoded));
+        
+        // Assert - Each session gets the broadcast in its own format
+        verify(session).sendMessage(messageCaptor.capture());
+        ChatMessage jsonReceived = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals("Hello from binary", jsonReceived.getMessage());
+        
+        ArgumentCaptor<BinaryMessage> binaryCaptor = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(binarySession).sendMessage(binaryCaptor.capture());
+        ChatMessage binaryReceived = new BinaryChatCodec().decode(binaryCaptor.getValue().getPayload());
+        assertEquals(ChatMessage.MessageType.CHAT, binaryReceived.getType());
+        assertEquals("Hello from binary", binaryReceived.getMessage());
+        assertEquals(jsonReceived.getName(), binaryReceived.getName());
+    }
+    
+    @Test
+    void afterConnectionEstablished_shouldReplayHistoryAfterWelcome() throws Exception {
+        // Arrange - A chat message broadcast before the second session connects
+        chatMessageHandler.afterConnectionEstablished(session);
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "Earlier message");
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        verify(session, atLeastOnce()).sendMessage(messageCaptor.capture());
+        TextMessage broadcastFrame = messageCaptor.getValue();
+        
+        WebSocketSession lateSession = mock(WebSocketSession.class);
+        when(lateSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(lateSession.isOpen()).thenReturn(true);
+        
+        // Act
+        chatMessageHandler.afterConnectionEstablished(lateSession);
+        
+        // Assert - Welcome first, then the very frame that was broadcast, without re-encoding
+        ArgumentCaptor<TextMessage> lateCaptor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(lateSession, times(3)).sendMessage(lateCaptor.capture());
+        List<TextMessage> received = lateCaptor.getAllValues();
+        assertTrue(received.get(0).getPayload().contains("Welcome to Test Chat App"));
+        assertSame(broadcastFrame, received.get(1));
+        assertEquals(ChatMessage.MessageType.USER_COUNT,
+                objectMapper.readValue(received.get(2).getPayload(), ChatMessage.class).getType());
+    }
+    
+    @Test
+    void resume_shouldReplayOnlyMissedMessagesOrResync() throws Exception {
+        // Arrange - Three sequenced broadcasts
+        chatMessageHandler.afterConnectionEstablished(session);
+        for (int i = 0; i < 3; i++) {
+            ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message " + i);
+            chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        }
+        clearInvocations(session);
+        
+        // Act - The client last saw the first message
+        ChatMessage resume = new ChatMessage();
+        resume.setType(ChatMessage.MessageType.RESUME);
+        resume.setSeq(0L);
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(resume)));
+        
+        // Assert - Only the two later messages are sent again, with their sequence numbers
+        verify(session, times(2)).sendMessage(messageCaptor.capture());
+        ChatMessage first = objectMapper.readValue(messageCaptor.getAllValues().get(0).getPayload(), ChatMessage.class);
+        ChatMessage second = objectMapper.readValue(messageCaptor.getAllValues().get(1).getPayload(), ChatMessage.class);
+        assertEquals(1L, first.getSeq());
+        assertEquals("message 1", first.getMessage());
+        assertEquals(2L, second.getSeq());
+        
+        // Act - A sequence number this server never issued, e.g. from before a restart
+        clearInvocations(session);
+        resume.setSeq(99L);
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(resume)));
+        
+        // Assert - The client is told to resync, then gets the recent history
+        verify(session, times(4)).sendMessage(messageCaptor.capture());
+        ChatMessage resync = objectMapper.readValue(messageCaptor.getAllValues().get(2).getPayload(), ChatMessage.class);
+        assertEquals(ChatMessage.MessageType.RESYNC, resync.getType());
+    }
+    
+    @Test
+    void afterConnectionEstablished_shouldResumeFromLastSeqParameter() throws Exception {
+        // Arrange
+        chatMessageHandler.afterConnectionEstablished(session);
+        for (int i = 0; i < 3; i++) {
+            ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message " + i);
+            chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        }
+        WebSocketSession reconnecting = mock(WebSocketSession.class);
+        when(reconnecting.getId()).thenReturn(UUID.randomUUID().toString());
+        when(reconnecting.isOpen()).thenReturn(true);
+        when(reconnecting.getUri()).thenReturn(URI.create("ws://localhost/chat?lastSeq=1"));
+        
+        // Act
+        chatMessageHandler.afterConnectionEstablished(reconnecting);
+        
+        // Assert - Welcome, the one missed message, then the user count
+        ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(reconnecting, times(3)).sendMessage(captor.capture());
+        ChatMessage missed = objectMapper.readValue(captor.getAllValues().get(1).getPayload(), ChatMessage.class);
+        assertEquals(2L, missed.getSeq());
+        assertEquals("message 2", missed.getMessage());
+    }
+    
+    @Test
+    void afterConnectionEstablished_shouldQueueResyncAndErrorsBehindTheWelcome() throws Exception {
+        // Arrange - A cluster node whose drain tasks only run when told to, two messages in its history
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getCluster().setEnabled(true);
+        properties.getCluster().setHeartbeatInterval(Duration.ZERO);
+        List<Runnable> tasks = new ArrayList<>();
+        ChatMessageHandler handler = new ChatMessageHandler(properties, tasks::add, new LoopbackBroadcastBus());
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        handler.afterConnectionEstablished(session);
+        for (int i = 0; i < 2; i++) {
+            ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message " + i);
+            handler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        }
+        
+        // A client resuming without a node, so resynced, and asking for the roster the cluster refuses
+        WebSocketSession reconnecting = mock(WebSocketSession.class);
+        when(reconnecting.getId()).thenReturn(UUID.randomUUID().toString());
+        when(reconnecting.isOpen()).thenReturn(true);
+        when(reconnecting.getUri()).thenReturn(URI.create("ws://localhost/chat?lastSeq=1&roster=true"));
+        
+        // Act - Everything is queued before the first send
+        handler.afterConnectionEstablished(reconnecting);
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+        
+        // Assert - The welcome, the RESYNC, the replay, then the error, the user count aside
+        ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(reconnecting, atLeastOnce()).sendMessage(captor.capture());
+        List<String> received = new ArrayList<>();
+        for (TextMessage frame : captor.getAllValues()) {
+            ChatMessage message = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+            if (message.getType() != ChatMessage.MessageType.USER_COUNT) {
+                received.add(message.getType() + " " + message.getSeq());
+            }
+        }
+        assertEquals(List.of("CHAT null", "RESYNC 1", "CHAT 0", "CHAT 1", "ERROR null"), received);
+        
+        handler.shutdown();
+    }
+    
+    @Test
+    void afterConnectionEstablished_shouldDeliverBroadcastsDuringReplayExactlyOnce() throws Exception {
+        // Arrange - Two sequenced broadcasts in the history
+        chatMessageHandler.afterConnectionEstablished(session);
+        for (int i = 0; i < 2; i++) {
+            ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message " + i);
+            chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        }
+        
+        // A session connecting while another thread broadcasts, right after its registration
+        WebSocketSession connecting = mock(WebSocketSession.class);
+        when(connecting.getId()).thenReturn(UUID.randomUUID().toString());
+        when(connecting.isOpen()).thenReturn(true);
+        Thread[] broadcaster = new Thread[1];
+        doAnswer(invocation -> {
+            TextMessage frame = invocation.getArgument(0);
+            if (broadcaster[0] == null && frame.getPayload().contains("Welcome")) {
+                broadcaster[0] = new Thread(() -> {
+                    try {
+                        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message 2");
+                        chatMessageHandler.handleTextMessage(session,
+                                new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                broadcaster[0].start();
+                // Gives the broadcast time to land before the replay, unless it waits for it
+                broadcaster[0].join(200);
+            }
+            return null;
+        }).when(connecting).sendMessage(any());
+        
+        // Act
+        chatMessageHandler.afterConnectionEstablished(connecting);
+        broadcaster[0].join();
+        
+        // Assert - Every message once, in sequence order
+        ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(connecting, atLeastOnce()).sendMessage(captor.capture());
+        List<Long> seqs = new ArrayList<>();
+        for (TextMessage frame : captor.getAllValues()) {
+            ChatMessage received = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+            if (received.getSeq() != null) {
+                seqs.add(received.getSeq());
+            }
+        }
+        assertEquals(List.of(0L, 1L, 2L), seqs);
+    }
+    
+    @Test
+    void handleTextMessage_shouldEnqueueConcurrentBroadcastsInSequenceOrder() throws Exception {
+        // Arrange - Two sessions recording the sequence numbers they receive
+        WebSocketSession other = mock(WebSocketSession.class);
+        when(other.getId()).thenReturn(UUID.randomUUID().toString());
+        when(other.isOpen()).thenReturn(true);
+        List<Long> sessionSeqs = new ArrayList<>();
+        List<Long> otherSeqs = new ArrayList<>();
+        
+        // The first session sent message 0 starts a second broadcast before the fan-out moves on
+        Thread[] broadcaster = new Thread[1];
+        for (WebSocketSession recipient : List.of(session, other)) {
+            List<Long> seqs = recipient == session ? sessionSeqs : otherSeqs;
+            doAnswer(invocation -> {
+                TextMessage frame = invocation.getArgument(0);
+                ChatMessage received = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+                if (received.getSeq() == null) {
+                    return null;
+                }
+                seqs.add(received.getSeq());
+                if (broadcaster[0] == null) {
+                    broadcaster[0] = new Thread(() -> {
+                        try {
+                            ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message 1");
+                            chatMessageHandler.handleTextMessage(other,
+                                    new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    broadcaster[0].start();
+                    // Gives the broadcast time to overtake the first one, unless it waits for it
+                    broadcaster[0].join(200);
+                }
+                return null;
+            }).when(recipient).sendMessage(any());
+        }
+        chatMessageHandler.afterConnectionEstablished(session);
+        chatMessageHandler.afterConnectionEstablished(other);
+        
+        // Act
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message 0");
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        broadcaster[0].join();
+        
+        // Assert - Both sessions get both messages in sequence order
+        assertEquals(List.of(0L, 1L), sessionSeqs);
+        assertEquals(List.of(0L, 1L), otherSeqs);
+    }
+    
+    @Test
+    void afterConnectionEstablished_shouldBatchOnlyClientsThatAskForIt() throws Exception {
+        // Arrange
+        WebSocketSession batching = mock(WebSocketSession.class);
+        when(batching.getId()).thenReturn(UUID.randomUUID().toString());
+        when(batching.isOpen()).thenReturn(true);
+        when(batching.getUri()).thenReturn(URI.create("ws://localhost/chat?batch=true"));
+        
+        // Act
+        chatMessageHandler.afterConnectionEstablished(session);
+        chatMessageHandler.afterConnectionEstablished(batching);
+        
+        // Assert
+        SessionRegistry sessions = sessions(chatMessageHandler);
+        assertFalse(sessions.get(session.getId()).getOutbound().isBatching());
+        assertTrue(sessions.get(batching.getId()).getOutbound().isBatching());
+    }
+    
+    @Test
+    void roster_shouldSendSnapshotThenDeltasToSubscribersOnly() throws Exception {
+        // Arrange - Deltas published on every change, one subscriber and one plain session
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getRoster().setWindow(Duration.ZERO);
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run);
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        WebSocketSession subscriber = mock(WebSocketSession.class);
+        when(subscriber.getId()).thenReturn(UUID.randomUUID().toString());
+        when(subscriber.isOpen()).thenReturn(true);
+        when(subscriber.getUri()).thenReturn(URI.create("ws://localhost/chat?roster=true"));
+
+        // Act
+        handler.afterConnectionEstablished(session);
+        handler.afterConnectionEstablished(subscriber);
+        String plainName = sessions(handler).get(sessionId).getUsername();
+        String subscriberName = sessions(handler).get(subscriber.getId()).getUsername();
+        ChatMessage join = new ChatMessage();
+        join.setType(ChatMessage.MessageType.JOIN);
+        join.setName("Alice");
+        handler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(join)));
+        handler.handleTextMessage(session, new TextMessage("{\"type\":\"ROSTER\"}"));
+        handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+        // Assert - The subscriber gets the list once, then one change per version
+        List<Roster> received = rosters(subscriber);
+        assertEquals(List.of(
+                Roster.snapshot(1, List.of(plainName)),
+                Roster.delta(2, List.of(Roster.Change.added(subscriberName))),
+                Roster.delta(3, List.of(Roster.Change.renamed(plainName, "Alice"))),
+                Roster.delta(4, List.of(Roster.Change.removed("Alice")))), received);
+
+        // Assert - The plain session only got the snapshot it asked for
+        assertEquals(List.of(Roster.snapshot(3, List.of(subscriberName, "Alice"))), rosters(session));
+
+        handler.shutdown();
+    }
+
+    @Test
+    void roster_shouldBeRefusedWithClusterEnabled() throws Exception {
+        // Arrange - A cluster node, its roster would only list its own users
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getCluster().setEnabled(true);
+        properties.getCluster().setHeartbeatInterval(Duration.ZERO);
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run, new LoopbackBroadcastBus());
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        when(session.getUri()).thenReturn(URI.create("ws://localhost/chat?roster=true"));
+
+        // Act - Subscribing on connect, then with a ROSTER message
+        handler.afterConnectionEstablished(session);
+        handler.handleTextMessage(session, new TextMessage("{\"type\":\"ROSTER\"}"));
+
+        // Assert - Two errors and no roster
+        verify(session, atLeastOnce()).sendMessage(messageCaptor.capture());
+        List<String> errors = new ArrayList<>();
+        for (TextMessage frame : messageCaptor.getAllValues()) {
+            ChatMessage message = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+            assertNull(message.getRoster());
+            if (message.getType() == ChatMessage.MessageType.ERROR) {
+                errors.add(message.getMessage());
+            }
+        }
+        assertEquals(List.of("The roster is not available with the cluster enabled",
+                "The roster is not available with the cluster enabled"), errors);
+
+        handler.shutdown();
+    }
+
+    private List<Roster> rosters(WebSocketSession recipient) throws Exception {
+        ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(recipient, atLeastOnce()).sendMessage(captor.capture());
+        List<Roster> rosters = new ArrayList<>();
+        for (TextMessage frame : captor.getAllValues()) {
+            ChatMessage message = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+            if (message.getRoster() != null) {
+                rosters.add(message.getRoster());
+            }
+        }
+        return rosters;
+    }
+
+    @Test
+    void messageLog_shouldRestoreHistoryAfterRestart(@TempDir Path logDirectory) throws Exception {
+        // Arrange - A handler writing to the message log broadcasts a message, then stops
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getLog().setEnabled(true);
+        properties.getLog().setDirectory(logDirectory.toString());
+        ChatMessageHandler first = new ChatMessageHandler(properties, Runnable::run);
+        ReflectionTestUtils.setField(first, "appName", "Test Chat App");
+        first.afterConnectionEstablished(session);
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "Before restart");
+        first.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        first.shutdown();
+        
+        // Act - A new handler opens the same log and a client connects
+        ChatMessageHandler restarted = new ChatMessageHandler(properties, Runnable::run);
+        ReflectionTestUtils.setField(restarted, "appName", "Test Chat App");
+        WebSocketSession lateSession = mock(WebSocketSession.class);
+        when(lateSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(lateSession.isOpen()).thenReturn(true);
+        restarted.afterConnectionEstablished(lateSession);
+        restarted.shutdown();
+        
+        // Assert - The message broadcast before the restart is replayed after the welcome message
+        ArgumentCaptor<TextMessage> lateCaptor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(lateSession, times(3)).sendMessage(lateCaptor.capture());
+        ChatMessage replayed = objectMapper.readValue(lateCaptor.getAllValues().get(1).getPayload(), ChatMessage.class);
+        assertEquals("Before restart", replayed.getMessage());
+    }
+    
+    @Test
+    void cluster_shouldDeliverBroadcastsAndCountUsersAcrossNodes() throws Exception {
+        // Arrange - Two nodes sharing an in-process bus, one session on each
+        LoopbackBroadcastBus bus = new LoopbackBroadcastBus();
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getCluster().setEnabled(true);
+        properties.getCluster().setBatchWindow(Duration.ZERO);
+        properties.getCluster().setHeartbeatInterval(Duration.ZERO);
+        ChatMessageHandler nodeA = new ChatMessageHandler(properties, Runnable::run, bus);
+        ChatMessageHandler nodeB = new ChatMessageHandler(properties, Runnable::run, bus);
+        ReflectionTestUtils.setField(nodeA, "appName", "Test Chat App");
+        ReflectionTestUtils.setField(nodeB, "appName", "Test Chat App");
+        
+        WebSocketSession remoteSession = mock(WebSocketSession.class);
+        when(remoteSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(remoteSession.isOpen()).thenReturn(true);
+        nodeB.afterConnectionEstablished(remoteSession);
+        nodeA.afterConnectionEstablished(session);
+        clearInvocations(session, remoteSession);
+        
+        // Act - A chat message sent to node A
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "Across nodes");
+        nodeA.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        
+        // Assert - Delivered exactly once on node B, sequenced by node B
+        verify(remoteSession, times(1)).sendMessage(messageCaptor.capture());
+        ChatMessage received = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals("Across nodes", received.getMessage());
+        assertEquals(0L, received.getSeq());
+        verify(session, times(1)).sendMessage(any());
+        
+        // Act - A third session connects to node B
+        WebSocketSession lateSession = mock(WebSocketSession.class);
+        when(lateSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(lateSession.isOpen()).thenReturn(true);
+        clearInvocations(session);
+        nodeB.afterConnectionEstablished(lateSession);
+        
+        // Assert - Node A reports the users of both nodes
+        verify(session, atLeastOnce()).sendMessage(messageCaptor.capture());
+        ChatMessage count = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals(ChatMessage.MessageType.USER_COUNT, count.getType());
+        assertEquals("3 users online", count.getMessage());
+        
+        nodeA.shutdown();
+        nodeB.shutdown();
+    }
+    
+    @Test
+    void cluster_shouldScopeResumeToTheNodeThatIssuedTheSeq() throws Exception {
+        // Arrange - Node A broadcasts three messages before node B joins, then two more reach both
+        LoopbackBroadcastBus bus = new LoopbackBroadcastBus();
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getCluster().setEnabled(true);
+        properties.getCluster().setBatchWindow(Duration.ZERO);
+        properties.getCluster().setHeartbeatInterval(Duration.ZERO);
+        ChatMessageHandler nodeA = new ChatMessageHandler(properties, Runnable::run, bus);
+        ReflectionTestUtils.setField(nodeA, "appName", "Test Chat App");
+        nodeA.afterConnectionEstablished(session);
+        for (int i = 0; i < 3; i++) {
+            ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message " + i);
+            nodeA.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        }
+        ChatMessageHandler nodeB = new ChatMessageHandler(properties, Runnable::run, bus);
+        ReflectionTestUtils.setField(nodeB, "appName", "Test Chat App");
+        for (int i = 3; i < 5; i++) {
+            ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "message " + i);
+            nodeA.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        }
+        
+        // Assert - The welcome message names the node issuing the sequence numbers
+        verify(session, atLeastOnce()).sendMessage(messageCaptor.capture());
+        ChatMessage welcome = objectMapper.readValue(messageCaptor.getAllValues().get(0).getPayload(), ChatMessage.class);
+        String nodeId = welcome.getNode();
+        assertNotNull(nodeId);
+        
+        // Act & Assert - The client last saw message 0 of node A; node B numbered the same messages differently
+        List<ChatMessage> onB = reconnect(nodeB, "?lastSeq=0&node=" + nodeId);
+        assertEquals(ChatMessage.MessageType.RESYNC, onB.get(1).getType());
+        assertEquals(List.of("message 3", "message 4"), chatTexts(onB.subList(2, onB.size())));
+        
+        // Act & Assert - A seq without its node cannot be trusted in a cluster either
+        assertEquals(ChatMessage.MessageType.RESYNC, reconnect(nodeB, "?lastSeq=0").get(1).getType());
+        
+        // Act & Assert - Back on node A, the exact replay
+        List<ChatMessage> onA = reconnect(nodeA, "?lastSeq=0&node=" + nodeId);
+        assertEquals(List.of("message 1", "message 2", "message 3", "message 4"), chatTexts(onA.subList(1, onA.size())));
+        
+        // Act & Assert - The same with a RESUME request
+        clearInvocations(session);
+        ChatMessage resume = new ChatMessage();
+        resume.setType(ChatMessage.MessageType.RESUME);
+        resume.setSeq(3L);
+        resume.setNode(nodeId);
+        nodeA.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(resume)));
+        verify(session, times(1)).sendMessage(messageCaptor.capture());
+        assertEquals("message 4", objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class).getMessage());
+        
+        nodeA.shutdown();
+        nodeB.shutdown();
+    }
+    
+    private List<ChatMessage> reconnect(ChatMessageHandler handler, String query) throws Exception {
+        WebSocketSession reconnecting = mock(WebSocketSession.class);
+        when(reconnecting.getId()).thenReturn(UUID.randomUUID().toString());
+        when(reconnecting.isOpen()).thenReturn(true);
+        when(reconnecting.getUri()).thenReturn(URI.create("ws://localhost/chat" + query));
+        handler.afterConnectionEstablished(reconnecting);
+        
+        ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(reconnecting, atLeastOnce()).sendMessage(captor.capture());
+        List<ChatMessage> received = new ArrayList<>();
+        for (TextMessage frame : captor.getAllValues()) {
+            ChatMessage message = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+            if (message.getType() != ChatMessage.MessageType.USER_COUNT) {
+                received.add(message);
+            }
+        }
+        return received;
+    }
+    
+    private static List<String> chatTexts(List<ChatMessage> messages) {
+        List<String> texts = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            texts.add(message.getMessage());
+        }
+        return texts;
+    }
+    
+    @Test
+    void handleTextMessage_shouldScopeRoomMessagesToMembers() throws Exception {
+        // Arrange - Two connected sessions, only the first joins the room
+        WebSocketSession otherSession = mock(WebSocketSession.class);
+        when(otherSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(otherSession.isOpen()).thenReturn(true);
+        chatMessageHandler.afterConnectionEstablished(session);
+        chatMessageHandler.afterConnectionEstablished(otherSession);
+        
+        ChatMessage joinRoom = new ChatMessage();
+        joinRoom.setType(ChatMessage.MessageType.JOIN_ROOM);
+        joinRoom.setRoom("general");
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(joinRoom)));
+        clearInvocations(session, otherSession);
+        
+        // Act
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "Room only", "general");
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        
+        // Assert - Only the member receives it, tagged with the room
+        verify(session).sendMessage(messageCaptor.capture());
+        verify(otherSession, never()).sendMessage(any());
+        ChatMessage received = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals(ChatMessage.MessageType.CHAT, received.getType());
+        assertEquals("general", received.getRoom());
+        assertEquals("Room only", received.getMessage());
+    }
+    
+    @Test
+    void handleTextMessage_shouldRejectRoomMessagesFromNonMembers() throws Exception {
+        // Arrange
+        chatMessageHandler.afterConnectionEstablished(session);
+        clearInvocations(session);
+        
+        // Act
+        ChatMessage chatMessage = ChatMessage.createChatMessage("TestUser", "Hello?", "secret");
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(chatMessage)));
+        
+        // Assert - The sender gets an error and nothing is broadcast
+        verify(session, times(1)).sendMessage(messageCaptor.capture());
+        ChatMessage received = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals(ChatMessage.MessageType.ERROR, received.getType());
+    }
+
+    @Test
+    void handleTextMessage_shouldDeliverDirectMessagesToRecipientOnly() throws Exception {
+        // Arrange - The recipient renamed itself, a third session looks on
+        WebSocketSession recipientSession = mock(WebSocketSession.class);
+        when(recipientSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(recipientSession.isOpen()).thenReturn(true);
+        WebSocketSession bystanderSession = mock(WebSocketSession.class);
+        when(bystanderSession.getId()).thenReturn(UUID.randomUUID().toString());
+        when(bystanderSession.isOpen()).thenReturn(true);
+        chatMessageHandler.afterConnectionEstablished(session);
+        chatMessageHandler.afterConnectionEstablished(recipientSession);
+        chatMessageHandler.afterConnectionEstablished(bystanderSession);
+
+        ChatMessage join = new ChatMessage();
+        join.setType(ChatMessage.MessageType.JOIN);
+        join.setName("Bob");
+        chatMessageHandler.handleTextMessage(recipientSession, new TextMessage(objectMapper.writeValueAsString(join)));
+        clearInvocations(session, recipientSession, bystanderSession);
+
+        // Act
+        ChatMessage direct = ChatMessage.createDirectMessage("Ignored", "Bob", "Just between us");
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(direct)));
+
+        // Assert - The recipient and the sender get it, stamped with the sender's name and not sequenced
+        verify(recipientSession, times(1)).sendMessage(messageCaptor.capture());
+        ChatMessage received = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals(ChatMessage.MessageType.DIRECT, received.getType());
+        assertEquals("Bob", received.getTo());
+        assertEquals(sessions(chatMessageHandler).get(sessionId).getUsername(), received.getName());
+        assertEquals("Just between us", received.getMessage());
+        assertNull(received.getSeq());
+        verify(session, times(1)).sendMessage(any());
+        verify(bystanderSession, never()).sendMessage(any());
+
+        // Act - The recipient leaves
+        chatMessageHandler.afterConnectionClosed(recipientSession, CloseStatus.NORMAL);
+        clearInvocations(session, bystanderSession);
+        chatMessageHandler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(direct)));
+
+        // Assert - Only the sender hears back
+        verify(session, times(1)).sendMessage(messageCaptor.capture());
+        ChatMessage error = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals(ChatMessage.MessageType.ERROR, error.getType());
+        assertEquals("Bob is not online", error.getMessage());
+        verify(bystanderSession, never()).sendMessage(any());
+    }
+
     @Test
     void handleTextMessage_shouldHandleJoinMessages() throws Exception {
         // Arrange - First we need an established connection
@@ -204,9 +848,7 @@ class ChatMessageHandlerTest {
         chatMessageHandler.handleTextMessage(session, new TextMessage(messageJson));
         
         // Assert - The username should be updated and a join message broadcast
-        Map<String, String> sessionUsernames = (Map<String, String>) ReflectionTestUtils.getField(
-                chatMessageHandler, "sessionUsernames");
-        assertEquals("NewUsername", sessionUsernames.get(sessionId));
+        assertEquals("NewUsername", sessions(chatMessageHandler).get(sessionId).getUsername());
         
         verify(session, times(1)).sendMessage(messageCaptor.capture());
         
@@ -270,6 +912,154 @@ class ChatMessageHandlerTest {
         assertEquals("This is not JSON", broadcastMessage.getMessage());
     }
     
+    @Test
+    void handleTextMessage_shouldRateLimitMalformedMessages() throws Exception {
+        // Arrange - Raw text rejected, two malformed messages allowed per window
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getInbound().setRawText(RawTextMode.REJECT);
+        properties.getInbound().setMalformedLimit(2);
+        properties.getInbound().setMalformedWindow(Duration.ofMinutes(1));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run, new LoopbackBroadcastBus(), registry);
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        handler.afterConnectionEstablished(session);
+        clearInvocations(session);
+        
+        // Act
+        handler.handleTextMessage(session, new TextMessage("This is not JSON"));
+        handler.handleTextMessage(session, new TextMessage("{\"type\":"));
+        for (int i = 0; i < 5; i++) {
+            handler.handleTextMessage(session, new TextMessage("{not json either"));
+        }
+        
+        // Assert - Two errors, one notice that the budget ran out, then silence
+        verify(session, times(3)).sendMessage(messageCaptor.capture());
+        List<TextMessage> replies = messageCaptor.getAllValues();
+        for (TextMessage reply : replies) {
+            assertEquals(ChatMessage.MessageType.ERROR,
+                    objectMapper.readValue(reply.getPayload(), ChatMessage.class).getType());
+        }
+        assertTrue(replies.get(2).getPayload().contains("Too many malformed messages"));
+        assertEquals(7.0, registry.get("chat.frames.malformed").counter().count());
+        assertEquals(5.0, registry.get("chat.frames.throttled").counter().count());
+        assertEquals(0.0, registry.get("chat.parse.fallbacks").counter().count());
+        
+        handler.shutdown();
+    }
+    
+    @Test
+    void handleTextMessage_shouldRateLimitChatMessages() throws Exception {
+        // Arrange - Two chat messages allowed at once, then one per minute
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getRateLimit().getTypes().put(ChatMessage.MessageType.CHAT, new ChatProperties.RateLimit.Limit(1.0 / 60, 2));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run, new LoopbackBroadcastBus(), registry);
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        handler.afterConnectionEstablished(session);
+        clearInvocations(session);
+        String chat = objectMapper.writeValueAsString(ChatMessage.createChatMessage("TestUser", "Hello"));
+        
+        // Act
+        for (int i = 0; i < 5; i++) {
+            handler.handleTextMessage(session, new TextMessage(chat));
+        }
+        // PINGs are only under the frame limits
+        handler.handleTextMessage(session, new TextMessage("{\"type\":\"PING\"}"));
+        
+        // Assert - Two broadcasts, one notice for the run of rejected messages, and the PONG
+        verify(session, times(4)).sendMessage(messageCaptor.capture());
+        List<ChatMessage> replies = new ArrayList<>();
+        for (TextMessage reply : messageCaptor.getAllValues()) {
+            replies.add(objectMapper.readValue(reply.getPayload(), ChatMessage.class));
+        }
+        assertEquals(ChatMessage.MessageType.CHAT, replies.get(0).getType());
+        assertEquals(ChatMessage.MessageType.CHAT, replies.get(1).getType());
+        assertEquals(ChatMessage.MessageType.ERROR, replies.get(2).getType());
+        assertEquals(ChatMessage.MessageType.PONG, replies.get(3).getType());
+        assertEquals(3.0, registry.get("chat.ratelimit.hits").tags("scope", "type", "type", "CHAT").counter().count());
+        
+        handler.shutdown();
+    }
+    
+    @Test
+    void handleTextMessage_shouldRateLimitMalformedJsonBroadcastAsChat() throws Exception {
+        // Arrange - Raw text broadcast as chat, two chat messages allowed at once
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getInbound().setRawText(RawTextMode.BROADCAST);
+        properties.getRateLimit().getTypes().put(ChatMessage.MessageType.CHAT, new ChatProperties.RateLimit.Limit(1.0 / 60, 2));
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run);
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        handler.afterConnectionEstablished(session);
+        String chat = objectMapper.writeValueAsString(ChatMessage.createChatMessage("TestUser", "Hello"));
+        handler.handleTextMessage(session, new TextMessage(chat));
+        handler.handleTextMessage(session, new TextMessage(chat));
+        clearInvocations(session);
+        
+        // Act - Frames that look like JSON but do not decode, within the malformed budget
+        for (int i = 0; i < 3; i++) {
+            handler.handleTextMessage(session, new TextMessage("{\"type\": broken " + i));
+        }
+        
+        // Assert - The CHAT quota is spent, nothing is broadcast, only the rate limit notice
+        verify(session, times(1)).sendMessage(messageCaptor.capture());
+        ChatMessage reply = objectMapper.readValue(messageCaptor.getValue().getPayload(), ChatMessage.class);
+        assertEquals(ChatMessage.MessageType.ERROR, reply.getType());
+        
+        handler.shutdown();
+    }
+    
+    @Test
+    void handleTextMessage_shouldDisconnectSessionsOverTheFrameLimit() throws Exception {
+        // Arrange - Three frames of any kind allowed at once
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getRateLimit().setSession(new ChatProperties.RateLimit.Limit(1.0 / 60, 3));
+        properties.getRateLimit().setAction(RateLimitAction.DISCONNECT);
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run);
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        handler.afterConnectionEstablished(session);
+        
+        // Act
+        for (int i = 0; i < 4; i++) {
+            handler.handleTextMessage(session, new TextMessage("{\"type\":\"PING\"}"));
+        }
+        
+        // Assert
+        verify(session).close(CloseStatus.POLICY_VIOLATION.withReason("Rate limit exceeded"));
+        
+        handler.shutdown();
+    }
+    
+    @Test
+    void heartbeat_shouldPingIdleSessionsAndEvictThoseThatStopAnswering() throws Exception {
+        // Arrange - One unanswered ping allowed, on a fast wheel
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        properties.getHeartbeat().setInterval(Duration.ofMillis(50));
+        properties.getHeartbeat().setTick(Duration.ofMillis(10));
+        properties.getHeartbeat().setMissedLimit(1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run, new LoopbackBroadcastBus(),
+                registry);
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        
+        // Act
+        handler.afterConnectionEstablished(session);
+        
+        // Assert - Pinged, then closed and out of the fan-out once the ping went unanswered
+        verify(session, timeout(2000)).sendMessage(any(PingMessage.class));
+        verify(session, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE.withReason("Heartbeat timeout"));
+        assertNull(sessions(handler).get(sessionId));
+        assertTrue(sessions(handler).outbounds().isEmpty());
+        assertEquals(1.0, registry.get("chat.heartbeat.pings").counter().count());
+        assertEquals(1.0, registry.get("chat.heartbeat.evictions").counter().count());
+        
+        handler.shutdown();
+    }
+    
     @Test
     void handleTransportError_shouldCloseSession() throws Exception {
         // Arrange
@@ -315,4 +1105,33 @@ class ChatMessageHandlerTest {
         String sanitized3 = (String) sanitizeUsername.invoke(chatMessageHandler, emptyAfterSanitize);
         assertTrue(sanitized3.startsWith("User-"));
     }
+
+    @Test
+    void metrics_shouldCountFramesBytesAndFallbacks() throws Exception {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatProperties properties = new ChatProperties();
+        properties.getPresence().setWindow(Duration.ZERO);
+        ChatMessageHandler handler = new ChatMessageHandler(properties, Runnable::run, new LoopbackBroadcastBus(), registry);
+        ReflectionTestUtils.setField(handler, "appName", "Test Chat App");
+        handler.afterConnectionEstablished(session);
+        
+        // Act
+        String ping = objectMapper.writeValueAsString(ChatMessage.createPingMessage());
+        handler.handleTextMessage(session, new TextMessage(ping));
+        handler.handleTextMessage(session, new TextMessage("héllo"));
+        
+        // Assert
+        assertEquals(1.0, registry.get("chat.sessions.active").gauge().value());
+        assertEquals(1.0, registry.get("chat.frames.inbound").tag("type", "PING").counter().count());
+        assertEquals(1.0, registry.get("chat.frames.outbound").tag("type", "PONG").counter().count());
+        assertEquals(ping.length() + 6, registry.get("chat.payload.inbound").counter().count());
+        assertEquals(1.0, registry.get("chat.parse.fallbacks").counter().count());
+        assertEquals(1, registry.get("chat.decode").timer().count());
+        // The welcome, the user count, the pong and the fallback broadcast
+        assertEquals(4, registry.get("chat.send").timer().count());
+        assertEquals(0.0, registry.get("chat.send.failures").counter().count());
+        
+        handler.shutdown();
+    }
 }
@@ -1,5 +1,7 @@
 package com.example.WebsocketSpringBack;
 
+import com.example.WebsocketSpringBack.codec.BinaryChatCodec;
+import com.example.WebsocketSpringBack.codec.WireFormat;
 import com.example.WebsocketSpringBack.config.WebSocketConfig;
 import com.example.WebsocketSpringBack.model.ChatMessage;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -7,10 +9,12 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketHttpHeaders;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.net.URI;
@@ -110,4 +114,37 @@ class WebSocketIntegrationTest {
         WebSocketSession session = sessionFuture.get(1, TimeUnit.SECONDS);
         session.close();
     }
+
+    @Test
+    void testBinarySubProtocolNegotiation() throws Exception {
+        // A client requesting the binary subprotocol gets binary frames on the same endpoint
+        CountDownLatch welcomeLatch = new CountDownLatch(1);
+        AtomicReference<ChatMessage> welcomeRef = new AtomicReference<>();
+
+        StandardWebSocketClient client = new StandardWebSocketClient();
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setSecWebSocketProtocol(WireFormat.BINARY.getSubProtocol());
+
+        CompletableFuture<WebSocketSession> sessionFuture = client.execute(
+            new BinaryWebSocketHandler() {
+                @Override
+                protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+                    ChatMessage chatMessage = new BinaryChatCodec().decode(message.getPayload());
+                    if (chatMessage.getMessage().startsWith("Welcome")) {
+                        welcomeRef.set(chatMessage);
+                        welcomeLatch.countDown();
+                    }
+                }
+            },
+            headers,
+            URI.create(getWebSocketUrl())
+        );
+
+        WebSocketSession session = sessionFuture.get(5, TimeUnit.SECONDS);
+        assertEquals(WireFormat.BINARY.getSubProtocol(), session.getAcceptedProtocol());
+        assertTrue(welcomeLatch.await(5, TimeUnit.SECONDS), "Did not receive binary welcome message");
+        assertEquals("System", welcomeRef.get().getName());
+
+        session.close();
+    }
 }
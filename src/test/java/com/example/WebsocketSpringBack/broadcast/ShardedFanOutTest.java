@@ -0,0 +1,91 @@
+package com.example.WebsocketSpringBack.broadcast;
+
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.session.SessionOutbound;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ShardedFanOutTest {
+
+    private List<SessionOutbound> recipients(int count) {
+        List<SessionOutbound> recipients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            recipients.add(mock(SessionOutbound.class));
+        }
+        return recipients;
+    }
+
+    private ChatProperties.FanOut settings(int threshold, int shardSize) {
+        ChatProperties.FanOut settings = new ChatProperties.FanOut();
+        settings.setParallelThreshold(threshold);
+        settings.setShardSize(shardSize);
+        return settings;
+    }
+
+    @Test
+    void fanOut_belowThreshold_shouldStayOnCallingThread() {
+        AtomicInteger submitted = new AtomicInteger();
+        ShardedFanOut fanOut = new ShardedFanOut(settings(10, 2), task -> {
+            submitted.incrementAndGet();
+            task.run();
+        });
+        List<SessionOutbound> recipients = recipients(9);
+        OutboundMessage frame = OutboundMessage.of(ChatMessage.createChatMessage("Alice", "hello"), ChatCodecs.defaults());
+
+        fanOut.fanOut(recipients, frame);
+
+        assertEquals(0, submitted.get());
+        recipients.forEach(outbound -> verify(outbound).enqueue(frame));
+    }
+
+    @Test
+    void fanOut_aboveThreshold_shouldSplitIntoShards() {
+        AtomicInteger submitted = new AtomicInteger();
+        ShardedFanOut fanOut = new ShardedFanOut(settings(10, 4), task -> {
+            submitted.incrementAndGet();
+            task.run();
+        });
+        List<SessionOutbound> recipients = recipients(10);
+        OutboundMessage frame = OutboundMessage.of(ChatMessage.createChatMessage("Alice", "hello"), ChatCodecs.defaults());
+
+        fanOut.fanOut(recipients, frame);
+
+        // Three shards of at most four recipients, the caller runs the first one
+        assertEquals(2, submitted.get());
+        recipients.forEach(outbound -> verify(outbound).enqueue(frame));
+    }
+
+    @Test
+    void fanOut_shouldKeepOrderPerRecipient() {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            ShardedFanOut fanOut = new ShardedFanOut(settings(8, 8), executor);
+            List<SessionOutbound> recipients = recipients(200);
+            OutboundMessage first = OutboundMessage.of(ChatMessage.createChatMessage("Alice", "first"), ChatCodecs.defaults());
+            OutboundMessage second = OutboundMessage.of(ChatMessage.createChatMessage("Alice", "second"), ChatCodecs.defaults());
+
+            fanOut.fanOut(recipients, first);
+            fanOut.fanOut(recipients, second);
+
+            for (SessionOutbound outbound : recipients) {
+                InOrder inOrder = inOrder(outbound);
+                inOrder.verify(outbound).enqueue(first);
+                inOrder.verify(outbound).enqueue(second);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.WebsocketSpringBack.cluster;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterRelayTest {
+
+    private final LoopbackBroadcastBus bus = new LoopbackBroadcastBus();
+    private final List<ClusterRelay> relays = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        relays.forEach(ClusterRelay::shutdown);
+    }
+
+    /**
+     * Records what a node receives from the others
+     */
+    private static class RecordingReceiver implements ClusterRelay.Receiver {
+        final List<ChatMessage> chats = new CopyOnWriteArrayList<>();
+        final List<String> rooms = new CopyOnWriteArrayList<>();
+        final List<ChatMessage> notices = new CopyOnWriteArrayList<>();
+        final List<ChatMessage> directs = new CopyOnWriteArrayList<>();
+        final AtomicInteger countChanges = new AtomicInteger();
+
+        @Override
+        public void chat(ChatMessage message) {
+            chats.add(message);
+        }
+
+        @Override
+        public void room(String room, ChatMessage message) {
+            rooms.add(room);
+        }
+
+        @Override
+        public void notice(ChatMessage message) {
+            notices.add(message);
+        }
+
+        @Override
+        public void direct(ChatMessage message) {
+            directs.add(message);
+        }
+
+        @Override
+        public void userCountChanged() {
+            countChanges.incrementAndGet();
+        }
+    }
+
+    private ClusterRelay node(Duration batchWindow, int userCount, ClusterRelay.Receiver receiver) {
+        ChatProperties.Cluster settings = new ChatProperties.Cluster();
+        settings.setBatchWindow(batchWindow);
+        settings.setHeartbeatInterval(Duration.ZERO);
+        ClusterRelay relay = new ClusterRelay(settings, bus, () -> userCount, receiver);
+        relay.start();
+        relays.add(relay);
+        return relay;
+    }
+
+    @Test
+    void publish_shouldReachOtherNodesOnlyOnce() {
+        RecordingReceiver first = new RecordingReceiver();
+        RecordingReceiver second = new RecordingReceiver();
+        ClusterRelay publisher = node(Duration.ZERO, 0, first);
+        node(Duration.ZERO, 0, second);
+
+        publisher.publishChat(ChatMessage.createChatMessage("Alice", "Hello"));
+        publisher.publishRoom("general", ChatMessage.createChatMessage("Alice", "Hi room", "general"));
+        publisher.publishNotice(ChatMessage.createJoinMessage("Alice"));
+        publisher.publishDirect(ChatMessage.createDirectMessage("Alice", "Bob", "Psst"));
+
+        // The publishing node drops its own messages coming back from the bus
+        assertTrue(first.chats.isEmpty());
+        assertEquals(4, publisher.getDuplicatesSuppressed());
+        assertEquals(1, second.chats.size());
+        assertEquals("Hello", second.chats.get(0).getMessage());
+        assertEquals(List.of("general"), second.rooms);
+        assertEquals(1, second.notices.size());
+        assertEquals(1, second.directs.size());
+        assertEquals("Bob", second.directs.get(0).getTo());
+    }
+
+    @Test
+    void publish_shouldKeepOutgoingCountBalancedWithoutBatchWindow() {
+        ClusterRelay relay = node(Duration.ZERO, 0, new RecordingReceiver());
+
+        for (int i = 0; i < 10; i++) {
+            relay.publishChat(ChatMessage.createChatMessage("Alice", "message " + i));
+        }
+
+        assertEquals(0, relay.getOutgoingCount());
+    }
+
+    @Test
+    void receive_shouldSuppressRedeliveredMessages() {
+        RecordingReceiver receiver = new RecordingReceiver();
+        ClusterRelay relay = node(Duration.ZERO, 0, receiver);
+        List<BusMessage> batch = List.of(
+                new BusMessage("other", 0, BusMessage.Kind.CHAT, null, ChatMessage.createChatMessage("Bob", "one"), 0),
+                new BusMessage("other", 1, BusMessage.Kind.CHAT, null, ChatMessage.createChatMessage("Bob", "two"), 0));
+
+        bus.publish(batch);
+        bus.publish(batch);
+
+        assertEquals(2, receiver.chats.size());
+        assertEquals(2, relay.getDuplicatesSuppressed());
+    }
+
+    @Test
+    void publish_shouldBatchMessagesWithinWindow() throws Exception {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        bus.subscribe(batch -> batchSizes.add(batch.size()));
+        ClusterRelay relay = node(Duration.ofMillis(100), 0, new RecordingReceiver());
+
+        for (int i = 0; i < 50; i++) {
+            relay.publishChat(ChatMessage.createChatMessage("Alice", "message " + i));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (batchSizes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of(50), batchSizes);
+    }
+
+    @Test
+    void userCount_shouldBeCoalescedWithinABatch() throws Exception {
+        List<BusMessage> published = new CopyOnWriteArrayList<>();
+        bus.subscribe(published::addAll);
+        AtomicInteger sessions = new AtomicInteger();
+        ChatProperties.Cluster settings = new ChatProperties.Cluster();
+        settings.setBatchWindow(Duration.ofMillis(100));
+        settings.setHeartbeatInterval(Duration.ZERO);
+        ClusterRelay relay = new ClusterRelay(settings, bus, sessions::get, new RecordingReceiver());
+        relay.start();
+        relays.add(relay);
+
+        // A reconnect storm within one window publishes the final count once
+        for (int i = 0; i < 100; i++) {
+            sessions.incrementAndGet();
+            relay.localUserCountChanged();
+        }
+        awaitPublished(published, 1);
+        assertEquals(1, published.size());
+        assertEquals(100, published.get(0).userCount());
+
+        // Sessions that come and go within a window leave the count as published
+        published.clear();
+        sessions.incrementAndGet();
+        relay.localUserCountChanged();
+        sessions.decrementAndGet();
+        relay.localUserCountChanged();
+        relay.flush();
+        assertTrue(published.isEmpty());
+    }
+
+    private static void awaitPublished(List<BusMessage> published, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (published.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void userCount_shouldBeSummedAcrossNodes() {
+        RecordingReceiver receiver = new RecordingReceiver();
+        ClusterRelay local = node(Duration.ZERO, 1, receiver);
+        ClusterRelay remoteA = node(Duration.ZERO, 3, new RecordingReceiver());
+        ClusterRelay remoteB = node(Duration.ZERO, 5, new RecordingReceiver());
+
+        remoteA.localUserCountChanged();
+        remoteB.localUserCountChanged();
+        assertEquals(8, local.remoteUserCount());
+        assertEquals(2, receiver.countChanges.get());
+
+        // A node leaving the cluster no longer counts
+        remoteB.shutdown();
+        assertEquals(3, local.remoteUserCount());
+    }
+}
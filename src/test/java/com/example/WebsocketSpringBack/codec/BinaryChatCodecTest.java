@@ -0,0 +1,153 @@
+package com.example.WebsocketSpringBack.codec;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryChatCodecTest {
+
+    private final ChatCodecs codecs = ChatCodecs.defaults();
+    private final BinaryChatCodec codec = new BinaryChatCodec();
+
+    private OutboundMessage outbound(ChatMessage message) {
+        return OutboundMessage.of(message, codecs);
+    }
+
+    @Test
+    void encodeDecode_shouldRoundTripAllFields() throws Exception {
+        ChatMessage original = ChatMessage.createChatMessage("Jöhn", "Hello, wörld! 👋", "general");
+        original.setTimestamp("2025-03-28T10:15:30.123Z");
+        original.setSeq(1234567L);
+
+        EncodedFrame frame = codec.encode(outbound(original));
+        ChatMessage decoded = codec.decode(ByteBuffer.wrap(frame.getBytes()));
+
+        assertTrue(frame.isBinary());
+        assertEquals(original, decoded);
+    }
+
+    @Test
+    void encodeDecode_shouldRoundTripRecipient() throws Exception {
+        ChatMessage original = ChatMessage.createDirectMessage("Alice", "Bób", "Psst");
+        original.setTimestamp("2025-03-28T10:15:30.123Z");
+
+        ChatMessage decoded = codec.decode(ByteBuffer.wrap(codec.encode(outbound(original)).getBytes()));
+
+        assertEquals(original, decoded);
+    }
+
+    @Test
+    void encodeDecode_shouldRoundTripNode() throws Exception {
+        ChatMessage original = ChatMessage.createWelcomeMessage("Chat", "node-1a2b3c4d");
+        original.setTimestamp("2025-03-28T10:15:30.123Z");
+
+        ChatMessage decoded = codec.decode(ByteBuffer.wrap(codec.encode(outbound(original)).getBytes()));
+
+        assertEquals(original, decoded);
+    }
+
+    @Test
+    void encodeDecode_shouldRoundTripRoster() throws Exception {
+        ChatMessage snapshot = ChatMessage.createRosterMessage(300, List.of("Alice", "Bób", ""));
+        ChatMessage delta = ChatMessage.createRosterDeltaMessage(301, List.of(Roster.Change.added("Carol"),
+                Roster.Change.removed("Alice"), Roster.Change.renamed("Bób", "Bob")));
+        ChatMessage empty = ChatMessage.createRosterMessage(0, List.of());
+
+        for (ChatMessage original : new ChatMessage[] { snapshot, delta, empty }) {
+            original.setTimestamp("2025-03-28T10:15:30.123Z");
+            ChatMessage decoded = codec.decode(ByteBuffer.wrap(codec.encode(outbound(original)).getBytes()));
+            assertEquals(original, decoded);
+        }
+    }
+
+    @Test
+    void encodeDecode_shouldOmitMissingFields() throws Exception {
+        ChatMessage ping = new ChatMessage();
+        ping.setType(ChatMessage.MessageType.PING);
+
+        EncodedFrame frame = codec.encode(OutboundMessage.of(ping, 0, codecs));
+        ChatMessage decoded = codec.decode(ByteBuffer.wrap(frame.getBytes()));
+
+        // Only the type tag, the field set and the timestamp every outgoing message has
+        assertEquals(3, frame.size());
+        assertEquals(ChatMessage.MessageType.PING, decoded.getType());
+        assertNull(decoded.getName());
+        assertNull(decoded.getMessage());
+        assertNull(decoded.getRoom());
+        assertNull(decoded.getSeq());
+        assertEquals("1970-01-01T00:00:00Z", decoded.getTimestamp());
+    }
+
+    @Test
+    void encode_shouldBeSmallerThanJson() throws Exception {
+        ChatMessage message = ChatMessage.createChatMessage("Alice", "See you tomorrow at the standup");
+
+        int binarySize = codec.encode(outbound(message)).size();
+        int jsonSize = new JsonChatCodec().encode(outbound(message)).size();
+
+        assertTrue(binarySize * 2 < jsonSize,
+                "Binary frame of " + binarySize + " bytes should be well under the JSON " + jsonSize);
+    }
+
+    @Test
+    void decode_shouldRejectMalformedFrames() throws Exception {
+        byte[] bytes = codec.encode(outbound(ChatMessage.createChatMessage("Alice", "Hello"))).getBytes();
+
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 2);
+        assertThrows(IOException.class, () -> codec.decode(ByteBuffer.wrap(truncated)));
+
+        byte[] unknownType = { 0x7F, 0x00 };
+        assertThrows(IOException.class, () -> codec.decode(ByteBuffer.wrap(unknownType)));
+
+        byte[] unknownField = { 0x00, (byte) 0x80, 0x02 };
+        assertThrows(IOException.class, () -> codec.decode(ByteBuffer.wrap(unknownField)));
+    }
+
+    @Test
+    void outboundMessage_shouldEncodeEachFormatOnce() {
+        OutboundMessage frames = outbound(ChatMessage.createChatMessage("Alice", "Hello"));
+
+        EncodedFrame json = frames.get(WireFormat.JSON);
+        EncodedFrame binary = frames.get(WireFormat.BINARY);
+
+        assertSame(json, frames.get(WireFormat.JSON));
+        assertSame(binary, frames.get(WireFormat.BINARY));
+        assertFalse(json.isBinary());
+        assertTrue(binary.isBinary());
+        // Text frames share one message instance, binary frames need their own buffer position
+        assertSame(json.toMessage(), json.toMessage());
+        assertNotSame(binary.toMessage(), binary.toMessage());
+    }
+
+    @Test
+    void wireFormat_shouldDefaultToJson() {
+        assertEquals(WireFormat.JSON, WireFormat.fromSubProtocol(null));
+        assertEquals(WireFormat.JSON, WireFormat.fromSubProtocol(""));
+        assertEquals(WireFormat.BINARY, WireFormat.fromSubProtocol("chat.binary"));
+    }
+
+    @Test
+    void batch_shouldSplitBackIntoFrames() throws Exception {
+        EncodedFrame first = codec.encode(outbound(ChatMessage.createChatMessage("Alice", "one")));
+        EncodedFrame second = codec.encode(outbound(ChatMessage.createPongMessage()));
+
+        EncodedFrame batch = BinaryChatCodec.batch(
+                List.of(ByteBuffer.wrap(first.getBytes()), ByteBuffer.wrap(second.getBytes())));
+        List<ByteBuffer> frames = BinaryChatCodec.split(ByteBuffer.wrap(batch.getBytes()));
+
+        assertTrue(batch.isBinary());
+        assertEquals(2, frames.size());
+        assertEquals("one", codec.decode(frames.get(0)).getMessage());
+        assertEquals(ChatMessage.MessageType.PONG, codec.decode(frames.get(1)).getType());
+        // A single frame is not a batch, and a batch is not a message
+        assertEquals(1, BinaryChatCodec.split(ByteBuffer.wrap(first.getBytes())).size());
+        assertThrows(IOException.class, () -> codec.decode(ByteBuffer.wrap(batch.getBytes())));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.WebsocketSpringBack.codec;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeflateJsonCodecTest {
+
+    private final ChatCodecs codecs = ChatCodecs.defaults();
+    private final DeflateJsonCodec codec = codecs.getDeflateCodec();
+
+    private OutboundMessage outbound(ChatMessage message) {
+        return OutboundMessage.of(message, codecs);
+    }
+
+    @Test
+    void encode_shouldKeepSmallPayloadsAsJsonText() throws Exception {
+        EncodedFrame frame = codec.encode(outbound(ChatMessage.createChatMessage("Alice", "Hello")));
+
+        assertFalse(frame.isBinary());
+        assertTrue(new String(frame.getBytes(), StandardCharsets.UTF_8).contains("\"message\":\"Hello\""));
+        assertEquals(0, codec.getUncompressedBytes());
+        assertEquals(1.0, codec.getCompressionRatio());
+    }
+
+    @Test
+    void encodeDecode_shouldCompressLargePayloads() throws Exception {
+        ChatMessage original = ChatMessage.createChatMessage("Alice", "lorem ipsum ".repeat(100));
+        original.setTimestamp("2025-03-28T10:15:30.123Z");
+
+        EncodedFrame frame = codec.encode(outbound(original));
+        ChatMessage decoded = codec.decode(ByteBuffer.wrap(frame.getBytes()));
+
+        assertTrue(frame.isBinary());
+        assertTrue(frame.size() < codec.getUncompressedBytes());
+        assertEquals(frame.size(), codec.getCompressedBytes());
+        assertTrue(codec.getCompressionRatio() < 0.5);
+        assertEquals(original, decoded);
+    }
+
+    @Test
+    void outboundMessage_shouldCompressOncePerBroadcast() {
+        OutboundMessage frames = outbound(ChatMessage.createChatMessage("Alice", "lorem ipsum ".repeat(100)));
+
+        EncodedFrame first = frames.get(WireFormat.JSON_DEFLATE);
+        EncodedFrame second = frames.get(WireFormat.JSON_DEFLATE);
+
+        assertSame(first, second);
+        assertEquals(first.size(), codec.getCompressedBytes());
+    }
+
+    @Test
+    void decode_shouldRejectPayloadsInflatingBeyondLimit() throws Exception {
+        ChatProperties.Compression compression = new ChatProperties.Compression();
+        compression.setMaxInflatedSize(DataSize.ofBytes(512));
+        DeflateJsonCodec limited = new DeflateJsonCodec(new JsonChatCodec(), compression);
+        EncodedFrame frame = codec.encode(outbound(ChatMessage.createChatMessage("Alice", "a".repeat(4096))));
+
+        assertThrows(IOException.class, () -> limited.decode(ByteBuffer.wrap(frame.getBytes())));
+    }
+
+    @Test
+    void decode_shouldRejectMalformedPayloads() {
+        byte[] garbage = { (byte) 0xff, 0x00, 0x12, 0x34 };
+
+        assertThrows(IOException.class, () -> codec.decode(ByteBuffer.wrap(garbage)));
+    }
+}
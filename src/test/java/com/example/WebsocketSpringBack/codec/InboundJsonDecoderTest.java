@@ -0,0 +1,73 @@
+package com.example.WebsocketSpringBack.codec;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboundJsonDecoderTest {
+
+    private final InboundJsonDecoder decoder = new InboundJsonDecoder();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void decode_shouldReadFieldsInAnyOrderAndSkipTimestamp() throws Exception {
+        ChatMessage decoded = decoder.decode(
+                "{\"seq\":\"41\",\"message\":\"Hi\",\"timestamp\":\"2024-01-01T00:00:00Z\",\"room\":\"general\","
+                        + "\"name\":\"Alice\",\"type\":\"RESUME\"}");
+
+        assertEquals(ChatMessage.MessageType.RESUME, decoded.getType());
+        assertEquals("Alice", decoded.getName());
+        assertEquals("Hi", decoded.getMessage());
+        assertEquals("general", decoded.getRoom());
+        assertEquals(41L, decoded.getSeq());
+        assertNull(decoded.getTimestamp());
+    }
+
+    @Test
+    void decode_shouldMatchObjectMapperForEveryFactoryMessage() throws Exception {
+        ChatMessage[] messages = {
+                ChatMessage.createChatMessage("Alice", "Hello \"world\" é", "general"),
+                ChatMessage.createJoinMessage("Bob"),
+                ChatMessage.createErrorMessage("oops"),
+                ChatMessage.createUserCountMessage(3),
+                ChatMessage.createResyncMessage(7),
+                ChatMessage.createDirectMessage("Alice", "Bob", "Psst"),
+                ChatMessage.createWelcomeMessage("Chat", "node-1a2b3c4d")
+        };
+        for (ChatMessage message : messages) {
+            ChatMessage decoded = decoder.decode(objectMapper.writeValueAsString(message));
+            message.setTimestamp(null);
+            assertEquals(message, decoded);
+        }
+    }
+
+    @Test
+    void ping_shouldReturnSharedInstance() throws Exception {
+        String ping = objectMapper.writeValueAsString(ChatMessage.createPingMessage());
+
+        assertSame(InboundJsonDecoder.PING, decoder.decode(ping));
+        // Decoding stops at the type, whatever follows
+        assertSame(InboundJsonDecoder.PING, decoder.decode("{\"type\":\"PING\",\"name\":"));
+    }
+
+    @Test
+    void malformedPayloads_shouldBeRejected() {
+        assertThrows(IOException.class, () -> decoder.decode("{\"type\":\"SHOUT\"}"));
+        assertThrows(IOException.class, () -> decoder.decode("{\"type\":\"CHAT\",\"color\":\"red\"}"));
+        assertThrows(IOException.class, () -> decoder.decode("{\"type\":\"CHAT\",\"name\":{\"first\":\"A\"}}"));
+        assertThrows(IOException.class, () -> decoder.decode("{\"type\":\"CHAT\",\"message\":\"unterminated"));
+        assertThrows(IOException.class, () -> decoder.decode("[1, 2]"));
+    }
+
+    @Test
+    void looksLikeJson_shouldOnlyAcceptObjects() {
+        assertTrue(InboundJsonDecoder.looksLikeJson("  {\"type\":\"PING\"}"));
+        assertFalse(InboundJsonDecoder.looksLikeJson("hello {world}"));
+        assertFalse(InboundJsonDecoder.looksLikeJson("[1]"));
+        assertFalse(InboundJsonDecoder.looksLikeJson("   "));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.WebsocketSpringBack.codec;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonChatCodecTest {
+
+    private final ChatCodecs codecs = ChatCodecs.defaults();
+    private final JsonChatCodec codec = new JsonChatCodec();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String encode(ChatMessage message) throws IOException {
+        return new String(codec.encode(OutboundMessage.of(message, codecs)).getBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void encode_shouldMatchObjectMapperShape() throws Exception {
+        ChatMessage message = ChatMessage.createChatMessage("Alice", "Hello \"world\" é");
+        message.setTimestamp("2025-03-28T10:15:30.123Z");
+
+        assertEquals(objectMapper.writeValueAsString(message), encode(message));
+    }
+
+    @Test
+    void encode_shouldMatchObjectMapperShapeWithRoomAndSeq() throws Exception {
+        ChatMessage message = ChatMessage.createChatMessage("Alice", "Hi", "lobby");
+        message.setTimestamp("2025-03-28T10:15:30.123Z");
+        message.setSeq(42L);
+
+        assertEquals(objectMapper.writeValueAsString(message), encode(message));
+    }
+
+    @Test
+    void encode_shouldMatchObjectMapperShapeWithRecipient() throws Exception {
+        ChatMessage message = ChatMessage.createDirectMessage("Alice", "Bob", "Psst");
+        message.setTimestamp("2025-03-28T10:15:30.123Z");
+
+        assertEquals(objectMapper.writeValueAsString(message), encode(message));
+    }
+
+    @Test
+    void encode_shouldMatchObjectMapperShapeWithNode() throws Exception {
+        ChatMessage message = ChatMessage.createWelcomeMessage("Chat", "node-1a2b3c4d");
+        message.setTimestamp("2025-03-28T10:15:30.123Z");
+
+        assertEquals(objectMapper.writeValueAsString(message), encode(message));
+    }
+
+    @Test
+    void encode_shouldMatchObjectMapperShapeWithRoster() throws Exception {
+        ChatMessage snapshot = ChatMessage.createRosterMessage(7, List.of("Alice", "Bób"));
+        snapshot.setTimestamp("2025-03-28T10:15:30.123Z");
+        ChatMessage delta = ChatMessage.createRosterDeltaMessage(8,
+                List.of(Roster.Change.added("Carol"), Roster.Change.renamed("Bób", "Bob")));
+        delta.setTimestamp("2025-03-28T10:15:30.123Z");
+
+        assertEquals(objectMapper.writeValueAsString(snapshot), encode(snapshot));
+        assertEquals(objectMapper.writeValueAsString(delta), encode(delta));
+        assertEquals(delta, codec.decode(ByteBuffer.wrap(encode(delta).getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void encodeDecode_shouldRoundTrip() throws Exception {
+        ChatMessage original = ChatMessage.createChatMessage("Alice", "Hello");
+        original.setTimestamp("2025-03-28T10:15:30Z");
+
+        ChatMessage decoded = codec.decode(ByteBuffer.wrap(encode(original).getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(original, decoded);
+    }
+
+    @Test
+    void batch_shouldWrapFramesInJsonArray() throws Exception {
+        List<byte[]> frames = List.of(
+                codec.encode(OutboundMessage.of(ChatMessage.createChatMessage("Alice", "one"), codecs)).getBytes(),
+                codec.encode(OutboundMessage.of(ChatMessage.createPongMessage(), codecs)).getBytes());
+
+        EncodedFrame batch = JsonChatCodec.batch(frames);
+
+        assertFalse(batch.isBinary());
+        ChatMessage[] messages = objectMapper.readValue(batch.getBytes(), ChatMessage[].class);
+        assertEquals(2, messages.length);
+        assertEquals("one", messages[0].getMessage());
+        assertEquals(ChatMessage.MessageType.PONG, messages[1].getType());
+    }
+}
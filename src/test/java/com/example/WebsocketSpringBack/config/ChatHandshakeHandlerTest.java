@@ -0,0 +1,41 @@
+package com.example.WebsocketSpringBack.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.socket.WebSocketExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChatHandshakeHandlerTest {
+
+    private static final List<WebSocketExtension> DEFLATE =
+            List.of(new WebSocketExtension(ChatHandshakeHandler.PERMESSAGE_DEFLATE));
+
+    private List<WebSocketExtension> negotiate(boolean permessageDeflate, String subProtocol) {
+        MockHttpServletRequest servletRequest = new MockHttpServletRequest("GET", "/chat");
+        if (subProtocol != null) {
+            servletRequest.addHeader("Sec-WebSocket-Protocol", subProtocol);
+        }
+        return new ChatHandshakeHandler(permessageDeflate)
+                .filterRequestedExtensions(new ServletServerHttpRequest(servletRequest), DEFLATE, DEFLATE);
+    }
+
+    @Test
+    void filterRequestedExtensions_shouldKeepPermessageDeflateForPlainFormats() {
+        assertEquals(DEFLATE, negotiate(true, null));
+        assertEquals(DEFLATE, negotiate(true, "chat.binary"));
+    }
+
+    @Test
+    void filterRequestedExtensions_shouldDropPermessageDeflateForCompressedFormat() {
+        assertEquals(List.of(), negotiate(true, "chat.json.deflate"));
+    }
+
+    @Test
+    void filterRequestedExtensions_shouldDropPermessageDeflateWhenDisabled() {
+        assertEquals(List.of(), negotiate(false, "chat.json"));
+    }
+}
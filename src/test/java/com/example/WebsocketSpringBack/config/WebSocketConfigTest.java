@@ -5,12 +5,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistration;
 import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -26,6 +29,9 @@ class WebSocketConfigTest {
     @Mock
     private ChatMessageHandler chatMessageHandler;
 
+    @Spy
+    private ChatProperties chatProperties = new ChatProperties();
+
     @Mock
     private WebSocketHandlerRegistry registry;
     
@@ -53,6 +59,25 @@ class WebSocketConfigTest {
         
         // Verify that the allowed origins are set on the registration (not the registry)
         verify(registration).setAllowedOrigins(corsAllowedOrigins.split(","));
+        
+        // Verify that the wire format subprotocols are negotiated by the handshake handler
+        verify(registration).setHandshakeHandler(any(DefaultHandshakeHandler.class));
+    }
+    
+    @Test
+    void createHandshakeHandler_shouldSupportWireFormatSubProtocols() {
+        DefaultHandshakeHandler handshakeHandler = webSocketConfig.createHandshakeHandler();
+        
+        assertArrayEquals(new String[] { "chat.binary", "chat.json.deflate", "chat.json" }, handshakeHandler.getSupportedProtocols());
+    }
+    
+    @Test
+    void createHandshakeHandler_shouldTakePermessageDeflateFromChatProperties() {
+        chatProperties.getCompression().setPermessageDeflate(false);
+        
+        DefaultHandshakeHandler handshakeHandler = webSocketConfig.createHandshakeHandler();
+        
+        assertEquals(false, ReflectionTestUtils.getField(handshakeHandler, "permessageDeflate"));
     }
     
     @Test
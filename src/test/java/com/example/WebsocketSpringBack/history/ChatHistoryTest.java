@@ -0,0 +1,139 @@
+package com.example.WebsocketSpringBack.history;
+
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.EncodedFrame;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.codec.WireFormat;
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatHistoryTest {
+
+    private final ChatCodecs codecs = ChatCodecs.defaults();
+
+    private ChatHistory history(int maxMessages, DataSize maxBytes) {
+        ChatProperties.History settings = new ChatProperties.History();
+        settings.setMaxMessages(maxMessages);
+        settings.setMaxBytes(maxBytes);
+        return new ChatHistory(settings);
+    }
+
+    private OutboundMessage frames(String text) {
+        return OutboundMessage.of(ChatMessage.createChatMessage("Alice", text), codecs);
+    }
+
+    @Test
+    void recent_shouldReturnLatestMessagesOldestFirst() {
+        ChatHistory history = history(3, DataSize.ofMegabytes(1));
+        for (int i = 0; i < 5; i++) {
+            history.append(history.nextSeq(), frames("message " + i));
+        }
+
+        List<OutboundMessage> recent = history.recent(10);
+
+        assertEquals(3, recent.size());
+        assertEquals("message 2", recent.get(0).getMessage());
+        assertEquals("message 4", recent.get(2).getMessage());
+        assertEquals("message 4", history.recent(1).get(0).getMessage());
+    }
+
+    @Test
+    void append_shouldEvictOldestBeyondByteLimit() {
+        OutboundMessage first = frames("first");
+        int size = first.get(WireFormat.JSON).size();
+        ChatHistory history = history(100, DataSize.ofBytes(size * 2L + size / 2));
+
+        history.append(history.nextSeq(), first);
+        history.append(history.nextSeq(), frames("secnd"));
+        history.append(history.nextSeq(), frames("third"));
+
+        List<OutboundMessage> recent = history.recent(100);
+        assertEquals(2, recent.size());
+        assertEquals("secnd", recent.get(0).getMessage());
+        assertEquals(size * 2L, history.retainedBytes());
+    }
+
+    @Test
+    void append_shouldAlwaysKeepMostRecentMessage() {
+        ChatHistory history = history(10, DataSize.ofBytes(1));
+
+        history.append(history.nextSeq(), frames("too large"));
+        history.append(history.nextSeq(), frames("also too large"));
+
+        assertEquals(1, history.size());
+        assertEquals("also too large", history.recent(10).get(0).getMessage());
+    }
+
+    @Test
+    void recent_shouldReuseBroadcastFrames() {
+        ChatHistory history = history(10, DataSize.ofMegabytes(1));
+        OutboundMessage frames = frames("hello");
+        Object encoded = frames.get(WireFormat.JSON);
+
+        history.append(history.nextSeq(), frames);
+
+        assertSame(encoded, history.recent(1).get(0).get(WireFormat.JSON));
+    }
+
+    @Test
+    void append_shouldRetainOnlyTheJsonFrame() {
+        ChatHistory history = history(10, DataSize.ofMegabytes(1));
+        ChatMessage chatMessage = ChatMessage.createChatMessage("Alice", "hello", "general");
+        chatMessage.setTimestamp("2025-03-28T10:15:30.123Z");
+        OutboundMessage broadcast = OutboundMessage.of(chatMessage, codecs).withSeq(0);
+        EncodedFrame binary = broadcast.get(WireFormat.BINARY);
+
+        history.append(0, broadcast);
+        OutboundMessage retained = history.recent(1).get(0);
+
+        // The other formats are not kept, but encoded again to the same bytes
+        assertNotSame(broadcast, retained);
+        assertNotSame(binary, retained.get(WireFormat.BINARY));
+        assertArrayEquals(binary.getBytes(), retained.get(WireFormat.BINARY).getBytes());
+        assertEquals("general", retained.getRoom());
+        assertEquals(0L, retained.getSeq());
+        assertEquals(ChatMessage.MessageType.CHAT, retained.getType());
+    }
+
+    @Test
+    void since_shouldReturnOnlyMissedMessages() {
+        ChatHistory history = history(10, DataSize.ofMegabytes(1));
+        for (int i = 0; i < 5; i++) {
+            history.append(history.nextSeq(), frames("message " + i));
+        }
+
+        List<OutboundMessage> missed = history.since(2);
+
+        assertEquals(2, missed.size());
+        assertEquals("message 3", missed.get(0).getMessage());
+        assertTrue(history.since(4).isEmpty());
+    }
+
+    @Test
+    void since_shouldReportGapsNoLongerRetained() {
+        ChatHistory history = history(3, DataSize.ofMegabytes(1));
+        for (int i = 0; i < 10; i++) {
+            history.append(history.nextSeq(), frames("message " + i));
+        }
+
+        assertNull(history.since(5), "Messages 6 and later are no longer all retained");
+        assertEquals(3, history.since(6).size());
+        assertNull(history.since(10), "Sequence numbers never issued cannot be resumed from");
+    }
+
+    @Test
+    void append_shouldMoveSequencerPastRestoredMessages() {
+        ChatHistory history = history(10, DataSize.ofMegabytes(1));
+
+        history.append(41, frames("restored"));
+
+        assertEquals(42, history.nextSeq());
+        assertEquals(1, history.since(40).size());
+    }
+}
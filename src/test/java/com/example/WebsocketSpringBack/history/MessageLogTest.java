@@ -0,0 +1,153 @@
+package com.example.WebsocketSpringBack.history;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageLogTest {
+
+    @TempDir
+    Path directory;
+
+    private MessageLog log;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    private ChatProperties.Log settings() {
+        ChatProperties.Log settings = new ChatProperties.Log();
+        settings.setEnabled(true);
+        settings.setDirectory(directory.toString());
+        settings.setSegmentSize(DataSize.ofBytes(1024));
+        settings.setIndexInterval(DataSize.ofBytes(128));
+        // Flushed explicitly by the tests
+        settings.setFlushInterval(Duration.ofHours(1));
+        return settings;
+    }
+
+    private static byte[] payload(int i) {
+        return String.format("{\"message\":\"message %03d\"}", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    void append_shouldOnlyBeWrittenByFlusher() throws Exception {
+        log = MessageLog.open(settings());
+
+        assertTrue(log.append(payload(1)));
+        assertTrue(log.tail(10).isEmpty());
+
+        log.flush();
+
+        List<ByteBuffer> tail = log.tail(10);
+        assertEquals(1, tail.size());
+        assertTrue(tail.get(0).isReadOnly());
+        assertEquals(new String(payload(1), StandardCharsets.UTF_8), text(tail.get(0)));
+    }
+
+    @Test
+    void tail_shouldSpanRolledSegments() throws Exception {
+        log = MessageLog.open(settings());
+        for (int i = 0; i < 100; i++) {
+            log.append(payload(i));
+        }
+        log.flush();
+
+        List<ByteBuffer> tail = log.tail(60);
+
+        assertTrue(segmentCount() > 2);
+        assertEquals(60, tail.size());
+        assertEquals(new String(payload(40), StandardCharsets.UTF_8), text(tail.get(0)));
+        assertEquals(new String(payload(99), StandardCharsets.UTF_8), text(tail.get(59)));
+    }
+
+    @Test
+    void open_shouldRecoverRecordsAndIgnoreTornTail() throws Exception {
+        log = MessageLog.open(settings());
+        for (int i = 0; i < 30; i++) {
+            log.append(payload(i));
+        }
+        log.close();
+
+        // Simulate a record cut short by a crash right after the last complete one
+        try (Stream<Path> files = Files.list(directory)) {
+            Path last = files.filter(file -> file.toString().endsWith(".log")).sorted().reduce((a, b) -> b).get();
+            try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                int end = 0;
+                ByteBuffer header = ByteBuffer.allocate(4);
+                while (channel.read(header.clear(), end) == 4 && header.getInt(0) > 0) {
+                    end += LogSegment.HEADER_SIZE + header.getInt(0);
+                }
+                channel.write(ByteBuffer.allocate(8).putInt(40).putInt(12345).flip(), end);
+            }
+        }
+
+        log = MessageLog.open(settings());
+
+        assertEquals(30, log.nextPosition());
+        List<ByteBuffer> tail = log.tail(5);
+        assertEquals(new String(payload(29), StandardCharsets.UTF_8), text(tail.get(4)));
+
+        log.append(payload(30));
+        log.flush();
+        assertEquals(new String(payload(30), StandardCharsets.UTF_8), text(log.tail(1).get(0)));
+    }
+
+    @Test
+    void retention_shouldDeleteOldestSegmentsBeyondMaxSize() throws Exception {
+        ChatProperties.Log settings = settings();
+        settings.setMaxSize(DataSize.ofBytes(2048));
+        log = MessageLog.open(settings);
+
+        for (int i = 0; i < 200; i++) {
+            log.append(payload(i));
+        }
+        log.flush();
+
+        assertTrue(segmentCount() <= 3);
+        List<ByteBuffer> tail = log.tail(1000);
+        assertTrue(tail.size() < 200);
+        assertEquals(new String(payload(199), StandardCharsets.UTF_8), text(tail.get(tail.size() - 1)));
+    }
+
+    @Test
+    void append_shouldDropBeyondMaxPending() throws Exception {
+        ChatProperties.Log settings = settings();
+        settings.setMaxPending(2);
+        log = MessageLog.open(settings);
+
+        assertTrue(log.append(payload(1)));
+        assertTrue(log.append(payload(2)));
+        assertFalse(log.append(payload(3)));
+
+        assertEquals(1, log.getDropped());
+    }
+}
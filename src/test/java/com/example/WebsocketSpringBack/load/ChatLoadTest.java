@@ -0,0 +1,328 @@
+package com.example.WebsocketSpringBack.load;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end load test: starts the application on a random port, connects
+ * thousands of real WebSocket clients and drives a mix of CHAT, PING and JOIN
+ * messages.
+ * <p>
+ * Chat messages carry their send time, so every recipient records the
+ * send-to-receive latency, and the last recipient of each broadcast gives its
+ * time to last recipient. Results go to {@code target/load-test/report-<mode>.json}
+ * so runs can be diffed between releases. Excluded from the regular build, run
+ * with {@code mvn -P load-test test}, adding {@code -Dload.mode=soak} for the
+ * long run; every setting can be overridden with {@code -Dload.*} properties.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ChatLoadTest {
+
+    private static final String MARKER = "lt:";
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    @LocalServerPort
+    private int port;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Settings of a run, from the mode defaults and the load.* system properties
+     */
+    record LoadSettings(String mode, int clients, Duration duration, int messagesPerSecond,
+            int chatWeight, int pingWeight, int joinWeight, int connectConcurrency, boolean batch) {
+
+        static LoadSettings fromSystemProperties() {
+            String mode = System.getProperty("load.mode", "ci");
+            boolean soak = mode.equals("soak");
+            return new LoadSettings(mode,
+                    Integer.getInteger("load.clients", soak ? 5000 : 1000),
+                    Duration.parse(System.getProperty("load.duration", soak ? "PT30M" : "PT15S")),
+                    Integer.getInteger("load.messages-per-second", soak ? 50 : 20),
+                    Integer.getInteger("load.mix.chat", 70),
+                    Integer.getInteger("load.mix.ping", 20),
+                    Integer.getInteger("load.mix.join", 10),
+                    Integer.getInteger("load.connect-concurrency", 100),
+                    Boolean.getBoolean("load.batch"));
+        }
+    }
+
+    private final Histogram connectLatency = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+    private final Histogram chatLatency = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+    private final Histogram pingLatency = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+    private final Histogram timeToLastRecipient = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+
+    private final Map<String, Broadcast> broadcasts = new ConcurrentHashMap<>();
+    private final AtomicLong chatsSent = new AtomicLong();
+    private final AtomicLong pingsSent = new AtomicLong();
+    private final AtomicLong joinsSent = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private double connectSeconds;
+
+    /**
+     * Delivery progress of one chat broadcast
+     */
+    private static final class Broadcast {
+        final long sentAt;
+        final int expectedRecipients;
+        final AtomicInteger received = new AtomicInteger();
+
+        Broadcast(long sentAt, int expectedRecipients) {
+            this.sentAt = sentAt;
+            this.expectedRecipients = expectedRecipients;
+        }
+    }
+
+    /**
+     * One simulated user, recording what it receives
+     */
+    private final class LoadClient extends TextWebSocketHandler {
+        final int id;
+        final long connectStartedAt = System.nanoTime();
+        final CountDownLatch welcomed = new CountDownLatch(1);
+        final Queue<Long> pendingPings = new ConcurrentLinkedQueue<>();
+        volatile WebSocketSession session;
+
+        LoadClient(int id) {
+            this.id = id;
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+            long receivedAt = System.nanoTime();
+            framesReceived.incrementAndGet();
+            String payload = message.getPayload();
+
+            // Plain string scans, parsing every frame would load the clients more than the server.
+            // A batched frame holds several messages, each is looked for in turn.
+            int from = 0;
+            int marker;
+            while ((marker = payload.indexOf(MARKER, from)) >= 0) {
+                int end = payload.indexOf('"', marker);
+                String key = payload.substring(marker, end);
+                long sentAt = Long.parseLong(key.substring(key.lastIndexOf(':') + 1));
+                chatLatency.recordValue(micros(receivedAt - sentAt));
+                Broadcast broadcast = broadcasts.get(key);
+                if (broadcast != null && broadcast.received.incrementAndGet() == broadcast.expectedRecipients) {
+                    timeToLastRecipient.recordValue(micros(receivedAt - broadcast.sentAt));
+                    broadcasts.remove(key);
+                }
+                from = end;
+            }
+            from = 0;
+            while ((from = payload.indexOf("\"type\":\"PONG\"", from)) >= 0) {
+                Long sentAt = pendingPings.poll();
+                if (sentAt != null) {
+                    pingLatency.recordValue(micros(receivedAt - sentAt));
+                }
+                from++;
+            }
+            if (welcomed.getCount() > 0 && payload.contains("Welcome to")) {
+                connectLatency.recordValue(micros(receivedAt - connectStartedAt));
+                welcomed.countDown();
+            }
+            from = 0;
+            while ((from = payload.indexOf("\"type\":", from)) >= 0) {
+                messagesReceived.incrementAndGet();
+                from++;
+            }
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession session, Throwable exception) {
+            errors.incrementAndGet();
+        }
+
+        void send(ChatMessage message) {
+            try {
+                String json = objectMapper.writeValueAsString(message);
+                // Container sessions do not support concurrent sends
+                synchronized (this) {
+                    session.sendMessage(new TextMessage(json));
+                }
+            } catch (IOException | IllegalStateException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    private static long micros(long nanos) {
+        return Math.min(HIGHEST_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    @Test
+    void chatLoad() throws Exception {
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        List<LoadClient> clients = connect(settings);
+        try {
+            drive(settings, clients);
+        } finally {
+            for (LoadClient client : clients) {
+                if (client.session != null && client.session.isOpen()) {
+                    client.session.close();
+                }
+            }
+        }
+
+        assertEquals(settings.clients(), clients.size(), "Every client should connect");
+        assertTrue(chatLatency.getTotalCount() > 0, "Chat broadcasts should be received");
+        assertEquals(0, errors.get(), "Clients should not see transport or send errors");
+    }
+
+    private List<LoadClient> connect(LoadSettings settings) throws Exception {
+        StandardWebSocketClient webSocketClient = new StandardWebSocketClient();
+        URI uri = URI.create("ws://localhost:" + port + "/api/chat" + (settings.batch() ? "?batch=true" : ""));
+        Semaphore inFlight = new Semaphore(settings.connectConcurrency());
+        List<LoadClient> clients = new ArrayList<>();
+
+        long started = System.nanoTime();
+        for (int i = 0; i < settings.clients(); i++) {
+            inFlight.acquire();
+            LoadClient client = new LoadClient(i);
+            webSocketClient.execute(client, new WebSocketHttpHeaders(), uri).whenComplete((session, failure) -> {
+                if (failure != null) {
+                    errors.incrementAndGet();
+                    inFlight.release();
+                    return;
+                }
+                client.session = session;
+                try {
+                    client.welcomed.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.release();
+                }
+            });
+            clients.add(client);
+        }
+        for (LoadClient client : clients) {
+            assertTrue(client.welcomed.await(60, TimeUnit.SECONDS), "Client " + client.id + " was not welcomed");
+        }
+        connectSeconds = (System.nanoTime() - started) / 1e9;
+        return clients;
+    }
+
+    private void drive(LoadSettings settings, List<LoadClient> clients) throws Exception {
+        int totalWeight = settings.chatWeight() + settings.pingWeight() + settings.joinWeight();
+        ScheduledExecutorService driver = Executors.newScheduledThreadPool(2);
+        long periodMicros = TimeUnit.SECONDS.toMicros(1) / Math.max(1, settings.messagesPerSecond());
+        AtomicLong sequence = new AtomicLong();
+
+        driver.scheduleAtFixedRate(() -> {
+            LoadClient client = clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+            int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+            if (pick < settings.chatWeight()) {
+                long sentAt = System.nanoTime();
+                String key = MARKER + client.id + ":" + sequence.incrementAndGet() + ":" + sentAt;
+                broadcasts.put(key, new Broadcast(sentAt, clients.size()));
+                chatsSent.incrementAndGet();
+                client.send(ChatMessage.createChatMessage(null, key));
+            } else if (pick < settings.chatWeight() + settings.pingWeight()) {
+                client.pendingPings.add(System.nanoTime());
+                pingsSent.incrementAndGet();
+                client.send(ChatMessage.createPingMessage());
+            } else {
+                ChatMessage join = new ChatMessage();
+                join.setType(ChatMessage.MessageType.JOIN);
+                join.setName("load-" + client.id + "-" + joinsSent.incrementAndGet());
+                client.send(join);
+            }
+        }, 0, periodMicros, TimeUnit.MICROSECONDS);
+
+        Thread.sleep(settings.duration().toMillis());
+        driver.shutdownNow();
+        driver.awaitTermination(5, TimeUnit.SECONDS);
+        // Let the last broadcasts reach everyone
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!broadcasts.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        writeReport(settings);
+    }
+
+    private void writeReport(LoadSettings settings) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mode", settings.mode());
+        report.put("finishedAt", Instant.now().toString());
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("clients", settings.clients());
+        run.put("duration", settings.duration().toString());
+        run.put("messagesPerSecond", settings.messagesPerSecond());
+        run.put("mix", Map.of("chat", settings.chatWeight(), "ping", settings.pingWeight(), "join", settings.joinWeight()));
+        run.put("batch", settings.batch());
+        report.put("settings", run);
+        report.put("connections", Map.of(
+                "count", settings.clients(),
+                "seconds", connectSeconds,
+                "perSecond", settings.clients() / connectSeconds));
+        report.put("connectLatency", percentiles(connectLatency));
+        report.put("chatLatency", percentiles(chatLatency));
+        report.put("pingLatency", percentiles(pingLatency));
+        report.put("timeToLastRecipient", percentiles(timeToLastRecipient));
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("chatsSent", chatsSent.get());
+        counts.put("pingsSent", pingsSent.get());
+        counts.put("joinsSent", joinsSent.get());
+        counts.put("framesReceived", framesReceived.get());
+        counts.put("messagesReceived", messagesReceived.get());
+        counts.put("incompleteBroadcasts", broadcasts.size());
+        counts.put("errors", errors.get());
+        report.put("counts", counts);
+
+        Path directory = Paths.get("target", "load-test");
+        Files.createDirectories(directory);
+        Path file = directory.resolve("report-" + settings.mode() + ".json");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+        System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("count", histogram.getTotalCount());
+        values.put("p50Micros", histogram.getValueAtPercentile(50));
+        values.put("p99Micros", histogram.getValueAtPercentile(99));
+        values.put("p999Micros", histogram.getValueAtPercentile(99.9));
+        values.put("maxMicros", histogram.getMaxValue());
+        return values;
+    }
+}
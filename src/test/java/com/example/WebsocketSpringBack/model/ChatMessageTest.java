@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.Instant;
+import java.util.List;
 
 class ChatMessageTest {
 
@@ -51,6 +52,65 @@ class ChatMessageTest {
         assertEquals(ChatMessage.MessageType.LEAVE, message.getType());
     }
     
+    @Test
+    void testCreatePresenceSummaryMessages() {
+        ChatMessage joined = ChatMessage.createJoinSummaryMessage(12);
+        assertEquals("System", joined.getName());
+        assertEquals("12 users joined", joined.getMessage());
+        assertEquals(ChatMessage.MessageType.JOIN, joined.getType());
+        
+        ChatMessage left = ChatMessage.createLeaveSummaryMessage(1);
+        assertEquals("1 user left", left.getMessage());
+        assertEquals(ChatMessage.MessageType.LEAVE, left.getType());
+    }
+    
+    @Test
+    void testCreateRoomMessages() {
+        ChatMessage chat = ChatMessage.createChatMessage("TestUser", "Hi", "general");
+        assertEquals("general", chat.getRoom());
+        assertEquals(ChatMessage.MessageType.CHAT, chat.getType());
+        
+        ChatMessage joined = ChatMessage.createRoomJoinMessage("TestUser", "general");
+        assertEquals("TestUser has joined general", joined.getMessage());
+        assertEquals(ChatMessage.MessageType.JOIN_ROOM, joined.getType());
+        
+        ChatMessage left = ChatMessage.createRoomLeaveMessage("TestUser", "general");
+        assertEquals("TestUser has left general", left.getMessage());
+        assertEquals(ChatMessage.MessageType.LEAVE_ROOM, left.getType());
+        
+        // Messages without a room keep the original JSON shape
+        assertNull(ChatMessage.createChatMessage("TestUser", "Hi").getRoom());
+    }
+    
+    @Test
+    void testCreateDirectMessage() {
+        ChatMessage direct = ChatMessage.createDirectMessage("TestUser", "Friend", "Psst");
+        assertEquals("TestUser", direct.getName());
+        assertEquals("Friend", direct.getTo());
+        assertEquals("Psst", direct.getMessage());
+        assertEquals(ChatMessage.MessageType.DIRECT, direct.getType());
+        
+        // Other messages keep the original JSON shape
+        assertNull(ChatMessage.createChatMessage("TestUser", "Hi").getTo());
+    }
+    
+    @Test
+    void testCreateRosterMessages() {
+        ChatMessage roster = ChatMessage.createRosterMessage(3, List.of("Alice", "Bob"));
+        assertEquals(ChatMessage.MessageType.ROSTER, roster.getType());
+        assertEquals(3, roster.getRoster().version());
+        assertEquals(List.of("Alice", "Bob"), roster.getRoster().members());
+        assertNull(roster.getRoster().changes());
+        
+        ChatMessage delta = ChatMessage.createRosterDeltaMessage(4, List.of(Roster.Change.renamed("Bob", "Robert")));
+        assertEquals(ChatMessage.MessageType.ROSTER_DELTA, delta.getType());
+        assertNull(delta.getRoster().members());
+        assertEquals(Roster.Op.RENAME, delta.getRoster().changes().get(0).op());
+        assertEquals("Bob", delta.getRoster().changes().get(0).previous());
+        
+        assertNull(ChatMessage.createChatMessage("TestUser", "Hi").getRoster());
+    }
+    
     @Test
     void testCreateErrorMessage() {
         // Arrange
@@ -0,0 +1,97 @@
+package com.example.WebsocketSpringBack.presence;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresenceAggregatorTest {
+
+    private final List<ChatMessage> published = new CopyOnWriteArrayList<>();
+    private final AtomicInteger userCount = new AtomicInteger();
+    private PresenceAggregator aggregator;
+
+    @AfterEach
+    void tearDown() {
+        aggregator.shutdown();
+    }
+
+    private void awaitPublished(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (published.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void zeroWindow_shouldPublishEveryChangeImmediately() {
+        aggregator = new PresenceAggregator(Duration.ZERO, userCount::get, published::add);
+
+        userCount.set(1);
+        aggregator.connected();
+        aggregator.joined("Alice");
+
+        assertEquals(2, published.size());
+        assertEquals(ChatMessage.MessageType.USER_COUNT, published.get(0).getType());
+        assertEquals("1 user online", published.get(0).getMessage());
+        assertEquals("Alice has joined the chat", published.get(1).getMessage());
+    }
+
+    @Test
+    void burst_shouldBeFoldedIntoSummaryAndSingleCount() throws Exception {
+        aggregator = new PresenceAggregator(Duration.ofMillis(300), userCount::get, published::add);
+
+        // Twelve clients reconnect and announce their names within one window
+        for (int i = 0; i < 12; i++) {
+            userCount.incrementAndGet();
+            aggregator.connected();
+            aggregator.joined("User" + i);
+        }
+        assertTrue(published.isEmpty(), "Nothing should be published before the window ends");
+
+        awaitPublished(2);
+        Thread.sleep(100);
+
+        assertEquals(2, published.size());
+        assertEquals(ChatMessage.MessageType.JOIN, published.get(0).getType());
+        assertEquals("System", published.get(0).getName());
+        assertEquals("12 users joined", published.get(0).getMessage());
+        assertEquals(ChatMessage.MessageType.USER_COUNT, published.get(1).getType());
+        assertEquals("12 users online", published.get(1).getMessage());
+    }
+
+    @Test
+    void singleLeave_shouldKeepUserName() throws Exception {
+        aggregator = new PresenceAggregator(Duration.ofMillis(50), userCount::get, published::add);
+
+        aggregator.disconnected("Bob");
+
+        awaitPublished(2);
+        assertEquals(ChatMessage.MessageType.LEAVE, published.get(0).getType());
+        assertEquals("Bob has left the chat", published.get(0).getMessage());
+        assertEquals("0 users online", published.get(1).getMessage());
+    }
+
+    @Test
+    void changesAfterFlush_shouldStartNewWindow() throws Exception {
+        aggregator = new PresenceAggregator(Duration.ofMillis(50), userCount::get, published::add);
+
+        userCount.set(1);
+        aggregator.connected();
+        awaitPublished(1);
+
+        userCount.set(0);
+        aggregator.disconnected(null);
+        awaitPublished(2);
+
+        assertEquals(2, published.size());
+        assertEquals("1 user online", published.get(0).getMessage());
+        assertEquals("0 users online", published.get(1).getMessage());
+    }
+}
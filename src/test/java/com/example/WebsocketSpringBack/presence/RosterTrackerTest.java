@@ -0,0 +1,113 @@
+package com.example.WebsocketSpringBack.presence;
+
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import com.example.WebsocketSpringBack.model.Roster;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RosterTrackerTest {
+
+    private final List<ChatMessage> published = new CopyOnWriteArrayList<>();
+    private RosterTracker tracker;
+
+    @AfterEach
+    void tearDown() {
+        tracker.shutdown();
+    }
+
+    private Roster snapshot() {
+        List<ChatMessage> received = new ArrayList<>();
+        tracker.snapshot(received::add);
+        assertEquals(ChatMessage.MessageType.ROSTER, received.get(0).getType());
+        return received.get(0).getRoster();
+    }
+
+    private Roster lastDelta() {
+        ChatMessage delta = published.get(published.size() - 1);
+        assertEquals(ChatMessage.MessageType.ROSTER_DELTA, delta.getType());
+        return delta.getRoster();
+    }
+
+    @Test
+    void zeroWindow_shouldPublishOneVersionPerChange() {
+        tracker = new RosterTracker(Duration.ZERO, published::add);
+
+        tracker.added("Alice");
+        tracker.added("Bob");
+        tracker.renamed("Bob", "Robert");
+        tracker.removed("Alice");
+
+        assertEquals(4, published.size());
+        assertEquals(Roster.delta(1, List.of(Roster.Change.added("Alice"))), published.get(0).getRoster());
+        assertEquals(Roster.delta(3, List.of(Roster.Change.renamed("Bob", "Robert"))), published.get(2).getRoster());
+        assertEquals(Roster.delta(4, List.of(Roster.Change.removed("Alice"))), lastDelta());
+        assertEquals(Roster.snapshot(4, List.of("Robert")), snapshot());
+    }
+
+    @Test
+    void names_shouldStayWhileAnySessionUsesThem() {
+        tracker = new RosterTracker(Duration.ZERO, published::add);
+
+        tracker.added("Alice");
+        tracker.added("Alice");
+        tracker.removed("Alice");
+        assertEquals(1, published.size());
+
+        tracker.removed("Alice");
+        assertEquals(Roster.delta(2, List.of(Roster.Change.removed("Alice"))), lastDelta());
+        assertEquals(List.of(), snapshot().members());
+    }
+
+    @Test
+    void window_shouldFoldChangesIntoOneDelta() throws Exception {
+        tracker = new RosterTracker(Duration.ofMillis(200), published::add);
+        for (int i = 0; i < 50; i++) {
+            tracker.added("User" + i);
+        }
+        awaitPublished(1);
+        published.clear();
+
+        // Churn within one window: a rename, a departure and a visit that cancels out
+        tracker.renamed("User0", "Alice");
+        tracker.removed("User1");
+        tracker.added("Visitor");
+        tracker.removed("Visitor");
+        assertTrue(published.isEmpty(), "Nothing should be published before the window ends");
+        awaitPublished(1);
+        Thread.sleep(100);
+
+        assertEquals(1, published.size());
+        assertEquals(Roster.delta(2, List.of(Roster.Change.renamed("User0", "Alice"), Roster.Change.removed("User1"))),
+                lastDelta());
+        Roster roster = snapshot();
+        assertEquals(2, roster.version());
+        assertEquals(49, roster.members().size());
+        assertTrue(roster.members().contains("Alice"));
+    }
+
+    @Test
+    void changes_shouldAddUpWhenReportedOutOfOrder() {
+        tracker = new RosterTracker(Duration.ZERO, published::add);
+        tracker.added("Alice");
+
+        // The disconnect of a session reported before its rename
+        tracker.removed("Bob");
+        tracker.renamed("Alice", "Bob");
+
+        assertEquals(List.of(), snapshot().members());
+    }
+
+    private void awaitPublished(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (published.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.WebsocketSpringBack.ratelimit;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.metrics.ChatMetrics;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboundRateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private static InboundRateLimiter.Outcome check(InboundRateLimiter.Limits limits, ChatMessage.MessageType type) {
+        InboundRateLimiter.Outcome frame = limits.checkFrame();
+        return frame == InboundRateLimiter.Outcome.ALLOWED ? limits.checkMessage(type) : frame;
+    }
+
+    @Test
+    void tokenBucket_shouldAllowBurstThenSustainedRate() {
+        TokenBucket bucket = new TokenBucket(new ChatProperties.RateLimit.Limit(10, 3));
+        long now = System.nanoTime();
+
+        // The burst is available at once
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+
+        // Then one frame per 100ms
+        assertFalse(bucket.tryAcquire(now + SECOND / 20));
+        assertTrue(bucket.tryAcquire(now + SECOND / 10));
+        assertFalse(bucket.tryAcquire(now + SECOND / 10));
+
+        // An idle bucket refills up to the burst only
+        long later = now + 10 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    void limits_shouldReportFirstRejectionOfEachRun() {
+        ChatProperties.RateLimit settings = new ChatProperties.RateLimit();
+        settings.getTypes().put(ChatMessage.MessageType.CHAT, new ChatProperties.RateLimit.Limit(1.0 / 60, 1));
+        InboundRateLimiter.Limits limits = new InboundRateLimiter(settings, ChatMetrics.NOOP).register(null);
+
+        assertEquals(InboundRateLimiter.Outcome.ALLOWED, check(limits, ChatMessage.MessageType.CHAT));
+        assertEquals(InboundRateLimiter.Outcome.EXCEEDED, check(limits, ChatMessage.MessageType.CHAT));
+        assertEquals(InboundRateLimiter.Outcome.THROTTLED, check(limits, ChatMessage.MessageType.CHAT));
+
+        // An accepted message ends the run
+        assertEquals(InboundRateLimiter.Outcome.ALLOWED, check(limits, ChatMessage.MessageType.PING));
+        assertEquals(InboundRateLimiter.Outcome.EXCEEDED, check(limits, ChatMessage.MessageType.CHAT));
+    }
+
+    @Test
+    void address_shouldBeSharedBySessionsAndReleasedWithTheLast() {
+        ChatProperties.RateLimit settings = new ChatProperties.RateLimit();
+        settings.setAddress(new ChatProperties.RateLimit.Limit(1.0 / 60, 2));
+        InboundRateLimiter limiter = new InboundRateLimiter(settings, ChatMetrics.NOOP);
+
+        InboundRateLimiter.Limits first = limiter.register("10.0.0.1");
+        InboundRateLimiter.Limits second = limiter.register("10.0.0.1");
+        InboundRateLimiter.Limits other = limiter.register("10.0.0.2");
+
+        assertEquals(InboundRateLimiter.Outcome.ALLOWED, first.checkFrame());
+        assertEquals(InboundRateLimiter.Outcome.ALLOWED, second.checkFrame());
+        assertNotEquals(InboundRateLimiter.Outcome.ALLOWED, first.checkFrame());
+        assertEquals(InboundRateLimiter.Outcome.ALLOWED, other.checkFrame());
+
+        assertEquals(2, limiter.addressCount());
+        limiter.release(first);
+        assertEquals(2, limiter.addressCount());
+        limiter.release(second);
+        limiter.release(other);
+        assertEquals(0, limiter.addressCount());
+    }
+
+    @Test
+    void address_shouldBeOffByDefault() {
+        InboundRateLimiter limiter = new InboundRateLimiter(new ChatProperties.RateLimit(), ChatMetrics.NOOP);
+
+        // Behind a proxy every client shares one socket address, so no bucket unless configured
+        limiter.register("10.0.0.1");
+        assertEquals(0, limiter.addressCount());
+    }
+
+    @Test
+    void disabled_shouldAllowEverything() {
+        ChatProperties.RateLimit settings = new ChatProperties.RateLimit();
+        settings.setEnabled(false);
+        settings.setSession(new ChatProperties.RateLimit.Limit(1.0 / 60, 1));
+        InboundRateLimiter.Limits limits = new InboundRateLimiter(settings, ChatMetrics.NOOP).register("10.0.0.1");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(InboundRateLimiter.Outcome.ALLOWED, check(limits, ChatMessage.MessageType.CHAT));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.WebsocketSpringBack.room;
+
+import com.example.WebsocketSpringBack.session.SessionOutbound;
+import com.example.WebsocketSpringBack.session.SessionRegistry;
+import com.example.WebsocketSpringBack.session.SessionState;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RoomRegistryTest {
+
+    private final RoomRegistry registry = new RoomRegistry();
+    private final SessionState alice = state("a");
+    private final SessionState bob = state("b");
+
+    private static SessionState state(String sessionId) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        return new SessionState(session, sessionId, mock(SessionOutbound.class), null, null);
+    }
+
+    @Test
+    void join_shouldIndexMembersPerRoom() {
+        assertTrue(registry.join("general", alice));
+        assertTrue(registry.join("general", bob));
+        assertTrue(registry.join("random", bob));
+
+        // Joining twice is a no-op
+        assertFalse(registry.join("general", alice));
+
+        assertEquals(2, registry.members("general").size());
+        assertTrue(registry.members("general").contains(alice.getOutbound()));
+        assertEquals(1, registry.members("random").size());
+        assertTrue(registry.isMember("random", "b"));
+        assertFalse(registry.isMember("random", "a"));
+        assertTrue(registry.members("unknown").isEmpty());
+    }
+
+    @Test
+    void leave_shouldDropEmptyRooms() {
+        registry.join("general", alice);
+
+        assertTrue(registry.leave("general", alice));
+        assertFalse(registry.leave("general", alice));
+
+        assertFalse(registry.isMember("general", "a"));
+        assertEquals(0, registry.roomCount());
+    }
+
+    @Test
+    void leaveAll_shouldRemoveSessionFromEveryRoom() {
+        registry.join("general", alice);
+        registry.join("random", alice);
+        registry.join("random", bob);
+
+        Set<String> left = registry.leaveAll(alice);
+
+        assertEquals(Set.of("general", "random"), left);
+        assertEquals(1, registry.roomCount());
+        assertEquals(1, registry.members("random").size());
+        assertTrue(alice.getRooms().isEmpty());
+        assertEquals(Set.of("random"), bob.getRooms());
+        assertTrue(registry.leaveAll(alice).isEmpty());
+    }
+
+    @Test
+    void join_shouldBeRefusedOnceTheSessionIsUnregistered() {
+        SessionRegistry sessions = new SessionRegistry();
+        sessions.register(alice);
+        sessions.unregister("a");
+
+        assertFalse(registry.join("general", alice));
+        assertEquals(0, registry.roomCount());
+        assertTrue(alice.getRooms().isEmpty());
+    }
+
+    @Test
+    void join_shouldNotOutliveAConcurrentEviction() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            SessionRegistry sessions = new SessionRegistry();
+            SessionState state = state("s" + i);
+            sessions.register(state);
+            CountDownLatch start = new CountDownLatch(1);
+
+            // A JOIN_ROOM handled while the heartbeat thread evicts the session
+            Thread joining = new Thread(() -> {
+                awaitQuietly(start);
+                registry.join("general", state);
+            });
+            joining.start();
+            start.countDown();
+            registry.leaveAll(sessions.unregister(state.getId()));
+            joining.join();
+
+            assertFalse(registry.isMember("general", state.getId()), "Evicted session left in the room");
+        }
+        assertEquals(0, registry.roomCount());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.WebsocketSpringBack.session;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeartbeatWheelTest {
+
+    // Four ticks per revolution, ticked by hand
+    private static final int SLOTS = 4;
+
+    private final List<String> pinged = new ArrayList<>();
+    private final List<String> expired = new ArrayList<>();
+    private HeartbeatWheel wheel;
+
+    @BeforeEach
+    void setUp() {
+        ChatProperties.Heartbeat settings = new ChatProperties.Heartbeat();
+        settings.setInterval(Duration.ofSeconds(4));
+        settings.setTick(Duration.ofSeconds(1));
+        settings.setMissedLimit(2);
+        wheel = new HeartbeatWheel(settings, new HeartbeatWheel.Listener() {
+            @Override
+            public void ping(String sessionId) {
+                pinged.add(sessionId);
+            }
+
+            @Override
+            public void expired(String sessionId) {
+                expired.add(sessionId);
+            }
+        });
+    }
+
+    private void revolution() {
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.tick();
+        }
+    }
+
+    @Test
+    void tick_shouldLeaveActiveSessionsAlone() {
+        HeartbeatWheel.Entry entry = wheel.register("session-1");
+
+        for (int i = 0; i < 5; i++) {
+            entry.touch();
+            revolution();
+        }
+
+        assertTrue(pinged.isEmpty());
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    void tick_shouldPingIdleSessionsOncePerInterval() {
+        wheel.register("session-1");
+
+        // Not checked before a whole interval went by
+        for (int i = 0; i < SLOTS - 1; i++) {
+            wheel.tick();
+        }
+        assertTrue(pinged.isEmpty());
+
+        wheel.tick();
+        assertEquals(List.of("session-1"), pinged);
+        revolution();
+        assertEquals(List.of("session-1", "session-1"), pinged);
+    }
+
+    @Test
+    void tick_shouldExpireSessionsThatMissTooManyPings() {
+        wheel.register("session-1");
+
+        revolution();
+        revolution();
+        assertTrue(expired.isEmpty());
+
+        revolution();
+        assertEquals(List.of("session-1"), expired);
+
+        // Gone from the wheel
+        revolution();
+        assertEquals(2, pinged.size());
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    void touch_shouldResetMissedPings() {
+        HeartbeatWheel.Entry entry = wheel.register("session-1");
+
+        revolution();
+        revolution();
+        // The pong to the second ping
+        entry.touch();
+        revolution();
+        revolution();
+        revolution();
+
+        assertEquals(4, pinged.size());
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    void cancel_shouldRemoveSessionFromTheWheel() {
+        HeartbeatWheel.Entry entry = wheel.register("session-1");
+        wheel.register("session-2");
+
+        entry.cancel();
+        revolution();
+
+        assertEquals(List.of("session-2"), pinged);
+    }
+}
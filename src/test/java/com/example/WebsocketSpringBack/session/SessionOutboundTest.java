@@ -0,0 +1,381 @@
+package com.example.WebsocketSpringBack.session;
+
+import com.example.WebsocketSpringBack.codec.BinaryChatCodec;
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.codec.WireFormat;
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import com.example.WebsocketSpringBack.metrics.ChatMetrics;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SessionOutboundTest {
+
+    private WebSocketSession session;
+    private ChatProperties.Outbound settings;
+
+    // Tasks submitted by the outbound queue, run manually to simulate a busy client
+    private final List<Runnable> pendingTasks = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("session-1");
+        when(session.isOpen()).thenReturn(true);
+
+        settings = new ChatProperties.Outbound();
+        settings.setBufferSizeLimit(DataSize.ofBytes(10));
+    }
+
+    private void runPendingTasks() {
+        while (!pendingTasks.isEmpty()) {
+            pendingTasks.remove(0).run();
+        }
+    }
+
+    private List<String> sentPayloads() throws Exception {
+        List<String> payloads = new ArrayList<>();
+        var captor = org.mockito.ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(session, atLeast(0)).sendMessage(captor.capture());
+        for (WebSocketMessage<?> message : captor.getAllValues()) {
+            payloads.add((String) message.getPayload());
+        }
+        return payloads;
+    }
+
+    @Test
+    void enqueue_shouldSendMessagesInOrder() throws Exception {
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings);
+
+        assertTrue(outbound.enqueue(new TextMessage("one")));
+        assertTrue(outbound.enqueue(new TextMessage("two")));
+        assertEquals(6, outbound.getBufferSize());
+
+        // Only one drain task is scheduled for the whole backlog
+        assertEquals(1, pendingTasks.size());
+        runPendingTasks();
+
+        assertEquals(List.of("one", "two"), sentPayloads());
+        assertEquals(0, outbound.getBufferSize());
+    }
+
+    @Test
+    void enqueue_withDropOldest_shouldEvictHeadOfQueue() throws Exception {
+        settings.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings);
+
+        outbound.enqueue(new TextMessage("aaaa"));
+        outbound.enqueue(new TextMessage("bbbb"));
+        assertTrue(outbound.enqueue(new TextMessage("cccc")));
+        runPendingTasks();
+
+        assertEquals(List.of("bbbb", "cccc"), sentPayloads());
+    }
+
+    @Test
+    void enqueue_withDropNewest_shouldRejectMessage() throws Exception {
+        settings.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings);
+
+        outbound.enqueue(new TextMessage("aaaa"));
+        outbound.enqueue(new TextMessage("bbbb"));
+        assertFalse(outbound.enqueue(new TextMessage("cccc")));
+        runPendingTasks();
+
+        assertEquals(List.of("aaaa", "bbbb"), sentPayloads());
+    }
+
+    @Test
+    void enqueue_withClose_shouldCloseSession() throws Exception {
+        settings.setOverflowPolicy(OverflowPolicy.CLOSE);
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings);
+
+        outbound.enqueue(new TextMessage("aaaa"));
+        outbound.enqueue(new TextMessage("bbbb"));
+        assertFalse(outbound.enqueue(new TextMessage("cccc")));
+        runPendingTasks();
+
+        verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+        verify(session, never()).sendMessage(any());
+
+        // Once closing, the queue refuses further messages
+        assertFalse(outbound.enqueue(new TextMessage("d")));
+    }
+
+    @Test
+    void enqueue_shouldApplyPolicyWhenSendIsStalled() throws Exception {
+        settings.setBufferSizeLimit(DataSize.ofKilobytes(1));
+        settings.setSendTimeLimit(Duration.ofMillis(50));
+        settings.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+
+        CountDownLatch sendStarted = new CountDownLatch(1);
+        CountDownLatch releaseSend = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sendStarted.countDown();
+            releaseSend.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SessionOutbound outbound = new SessionOutbound(session, executor, settings);
+            outbound.enqueue(new TextMessage("blocked"));
+            assertTrue(sendStarted.await(5, TimeUnit.SECONDS));
+
+            // Below the time limit the message is still accepted
+            assertTrue(outbound.enqueue(new TextMessage("queued")));
+
+            Thread.sleep(100);
+            assertFalse(outbound.enqueue(new TextMessage("rejected")));
+        } finally {
+            releaseSend.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void enqueue_shouldSendControlFramesBeforeChatBacklog() throws Exception {
+        settings.setBufferSizeLimit(DataSize.ofKilobytes(1));
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings);
+
+        outbound.enqueue(new TextMessage("one"));
+        outbound.enqueue(new TextMessage("two"));
+        outbound.enqueue(new TextMessage("pong"), PriorityClass.CONTROL);
+        runPendingTasks();
+
+        assertEquals(List.of("pong", "one", "two"), sentPayloads());
+    }
+
+    @Test
+    void enqueue_shouldBoundControlFramesOfAStalledSession() throws Exception {
+        settings.setControlLimit(4);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings,
+                new ChatMetrics(registry));
+        ChatCodecs codecs = new ChatCodecs(new ChatProperties.Compression());
+        OutboundMessage pong = OutboundMessage.of(ChatMessage.createPongMessage(), codecs);
+
+        // A client flooding PINGs without reading, its PONGs and heartbeat pings collapse into one each
+        assertTrue(outbound.enqueue(pong));
+        assertTrue(outbound.enqueue(new PingMessage()));
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(outbound.enqueue(pong));
+            assertFalse(outbound.enqueue(new PingMessage()));
+        }
+        assertEquals(2.0, registry.get("chat.outbound.backlog").tag("class", "CONTROL").gauge().value());
+        assertEquals(2000.0, registry.get("chat.outbound.dropped").tag("class", "CONTROL").counter().count());
+        verify(session, never()).close(any());
+
+        // Frames that cannot collapse, errors, close the session past the limit
+        OutboundMessage error = OutboundMessage.of(ChatMessage.createErrorMessage("Too fast"), codecs);
+        assertTrue(outbound.enqueue(error));
+        assertTrue(outbound.enqueue(error));
+        assertFalse(outbound.enqueue(error));
+        runPendingTasks();
+
+        verify(session).close(CloseStatus.POLICY_VIOLATION);
+        verify(session, never()).sendMessage(any());
+        assertEquals(0, outbound.getBufferSize());
+    }
+
+    @Test
+    void enqueue_shouldQueueTheNextPongOnceOneIsSent() throws Exception {
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings);
+        OutboundMessage pong = OutboundMessage.of(ChatMessage.createPongMessage(),
+                new ChatCodecs(new ChatProperties.Compression()));
+
+        assertTrue(outbound.enqueue(pong));
+        runPendingTasks();
+        assertTrue(outbound.enqueue(pong));
+        runPendingTasks();
+
+        verify(session, times(2)).sendMessage(any());
+    }
+
+    @Test
+    void enqueue_shouldKeepOnlyNewestPresenceFrame() throws Exception {
+        settings.setBufferSizeLimit(DataSize.ofKilobytes(1));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings,
+                new ChatMetrics(registry));
+
+        outbound.enqueue(new TextMessage("chat"));
+        outbound.enqueue(new TextMessage("count-1"), PriorityClass.PRESENCE);
+        outbound.enqueue(new TextMessage("count-2"), PriorityClass.PRESENCE);
+        assertEquals(11, outbound.getBufferSize());
+        assertEquals(1.0, registry.get("chat.outbound.backlog").tag("class", "PRESENCE").gauge().value());
+        runPendingTasks();
+
+        assertEquals(List.of("count-2", "chat"), sentPayloads());
+        assertEquals(1.0, registry.get("chat.outbound.dropped").tag("class", "PRESENCE").counter().count());
+        assertEquals(0.0, registry.get("chat.outbound.backlog").tag("class", "PRESENCE").gauge().value());
+    }
+
+    @Test
+    void enqueue_shouldDropOnlyChatUnderPressure() throws Exception {
+        settings.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings,
+                new ChatMetrics(registry));
+
+        // The backlog fills the buffer limit, control frames are still accepted past it
+        assertTrue(outbound.enqueue(new TextMessage("0123456789")));
+        assertFalse(outbound.enqueue(new TextMessage("chat")));
+        assertTrue(outbound.enqueue(new TextMessage("error"), PriorityClass.CONTROL));
+        assertTrue(outbound.enqueue(new PingMessage()));
+        assertEquals(1.0, registry.get("chat.outbound.backlog").tag("class", "CHAT").gauge().value());
+        assertEquals(2.0, registry.get("chat.outbound.backlog").tag("class", "CONTROL").gauge().value());
+        assertEquals(1.0, registry.get("chat.outbound.dropped").tag("class", "CHAT").counter().count());
+
+        // A session that is gone leaves nothing behind in the backlog
+        outbound.discard();
+        assertEquals(0, outbound.getBufferSize());
+        assertEquals(0.0, registry.get("chat.outbound.backlog").tag("class", "CHAT").gauge().value());
+        assertEquals(0.0, registry.get("chat.outbound.backlog").tag("class", "CONTROL").gauge().value());
+        assertFalse(outbound.enqueue(new TextMessage("late"), PriorityClass.CONTROL));
+    }
+
+    @Test
+    void slowSession_shouldNotDelayOtherSessions() throws Exception {
+        WebSocketSession slowSession = mock(WebSocketSession.class);
+        when(slowSession.getId()).thenReturn("slow");
+        when(slowSession.isOpen()).thenReturn(true);
+
+        CountDownLatch releaseSlow = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            releaseSlow.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(slowSession).sendMessage(any());
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            settings.setBufferSizeLimit(DataSize.ofKilobytes(1));
+            SessionOutbound slow = new SessionOutbound(slowSession, executor, settings);
+            SessionOutbound fast = new SessionOutbound(session, executor, settings);
+
+            slow.enqueue(new TextMessage("hello"));
+            fast.enqueue(new TextMessage("hello"));
+
+            verify(session, timeout(1000)).sendMessage(any());
+        } finally {
+            releaseSlow.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void batching_shouldSendQueuedTextFramesAsOneJsonArray() throws Exception {
+        settings.setBufferSizeLimit(DataSize.ofKilobytes(1));
+        settings.setBatchWindow(Duration.ZERO);
+        settings.setBatchMaxSize(DataSize.ofBytes(50));
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings, ChatMetrics.NOOP, true);
+
+        for (int i = 1; i <= 5; i++) {
+            outbound.enqueue(new TextMessage("{\"n\":" + i + "}"));
+        }
+        runPendingTasks();
+
+        // A batch stops before the frame that would make it exceed the batch size
+        assertEquals(List.of("[{\"n\":1},{\"n\":2},{\"n\":3}]", "[{\"n\":4},{\"n\":5}]"), sentPayloads());
+        assertEquals(0, outbound.getBufferSize());
+
+        outbound.enqueue(new TextMessage("{\"n\":6}"));
+        runPendingTasks();
+        assertEquals("{\"n\":6}", sentPayloads().get(2));
+    }
+
+    @Test
+    void batching_shouldWrapBinaryFramesInBatchFrame() throws Exception {
+        when(session.getAcceptedProtocol()).thenReturn(WireFormat.BINARY.getSubProtocol());
+        settings.setBatchWindow(Duration.ZERO);
+        SessionOutbound outbound = new SessionOutbound(session, pendingTasks::add, settings, ChatMetrics.NOOP, true);
+
+        outbound.enqueue(new BinaryMessage(new byte[] { 1, 2 }));
+        outbound.enqueue(new BinaryMessage(new byte[] { 3 }));
+        runPendingTasks();
+
+        ArgumentCaptor<BinaryMessage> captor = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(session).sendMessage(captor.capture());
+        List<ByteBuffer> frames = BinaryChatCodec.split(captor.getValue().getPayload());
+        assertEquals(List.of(ByteBuffer.wrap(new byte[] { 1, 2 }), ByteBuffer.wrap(new byte[] { 3 })), frames);
+    }
+
+    @Test
+    void batching_shouldWaitForWindowUnlessBatchIsFull() throws Exception {
+        settings.setBufferSizeLimit(DataSize.ofKilobytes(1));
+        settings.setBatchWindow(Duration.ofSeconds(30));
+        settings.setBatchMaxSize(DataSize.ofBytes(40));
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            SessionOutbound outbound = new SessionOutbound(session, executor, settings, ChatMetrics.NOOP, true);
+            outbound.enqueue(new TextMessage("\"one\""));
+            outbound.enqueue(new TextMessage("\"two\""));
+            Thread.sleep(100);
+            verify(session, never()).sendMessage(any());
+
+            // A full batch worth of queued bytes ends the wait, and a lone frame is sent as is
+            String large = "\"" + "x".repeat(38) + "\"";
+            outbound.enqueue(new TextMessage(large));
+            verify(session, timeout(1000).times(2)).sendMessage(any());
+            assertEquals(List.of("[\"one\",\"two\"]", large), sentPayloads());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void batching_shouldNotHoldControlFrames() throws Exception {
+        settings.setBufferSizeLimit(DataSize.ofKilobytes(1));
+        settings.setBatchWindow(Duration.ofSeconds(30));
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            SessionOutbound outbound = new SessionOutbound(session, executor, settings, ChatMetrics.NOOP, true);
+            outbound.enqueue(new TextMessage("\"one\""));
+            Thread.sleep(100);
+            verify(session, never()).sendMessage(any());
+
+            // The reply ends the wait and goes first, with the chat queued so far
+            outbound.enqueue(new TextMessage("\"pong\""), PriorityClass.CONTROL);
+            verify(session, timeout(1000)).sendMessage(any());
+            assertEquals(List.of("[\"pong\",\"one\"]"), sentPayloads());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void batching_shouldBeOptIn() throws Exception {
+        settings.setBatchWindow(Duration.ZERO);
+        SessionOutbound plain = new SessionOutbound(session, pendingTasks::add, settings, ChatMetrics.NOOP, false);
+        settings.setBatchEnabled(false);
+        SessionOutbound disabled = new SessionOutbound(session, pendingTasks::add, settings, ChatMetrics.NOOP, true);
+
+        assertFalse(plain.isBatching());
+        assertFalse(disabled.isBatching());
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.WebsocketSpringBack.session;
+
+import com.example.WebsocketSpringBack.config.ChatProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SessionRegistryTest {
+
+    private final SessionRegistry registry = new SessionRegistry();
+
+    private static SessionState state(String sessionId, HeartbeatWheel.Entry heartbeat) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        return new SessionState(session, "User-" + sessionId, mock(SessionOutbound.class), null, heartbeat);
+    }
+
+    @Test
+    void register_shouldKeepOneStatePerSession() {
+        SessionState alice = state("a", null);
+
+        assertTrue(registry.register(alice));
+        assertFalse(registry.register(state("a", null)));
+
+        assertSame(alice, registry.get("a"));
+        assertEquals(1, registry.size());
+        assertNull(registry.get("b"));
+    }
+
+    @Test
+    void outbounds_shouldReuseSnapshotUntilMembershipChanges() {
+        SessionState alice = state("a", null);
+        SessionState bob = state("b", null);
+        registry.register(alice);
+
+        List<SessionOutbound> first = registry.outbounds();
+        assertEquals(List.of(alice.getOutbound()), first);
+        assertSame(first, registry.outbounds());
+        assertThrows(UnsupportedOperationException.class, () -> first.add(bob.getOutbound()));
+
+        registry.register(bob);
+        List<SessionOutbound> second = registry.outbounds();
+        assertNotSame(first, second);
+        assertEquals(2, second.size());
+        assertTrue(second.contains(bob.getOutbound()));
+
+        registry.unregister("a");
+        assertEquals(List.of(bob.getOutbound()), registry.outbounds());
+    }
+
+    @Test
+    void unregister_shouldHappenOnceAndLeaveTheHeartbeatWheel() {
+        List<String> pinged = new ArrayList<>();
+        ChatProperties.Heartbeat settings = new ChatProperties.Heartbeat();
+        settings.setInterval(Duration.ofSeconds(1));
+        settings.setTick(Duration.ofSeconds(1));
+        HeartbeatWheel wheel = new HeartbeatWheel(settings, new HeartbeatWheel.Listener() {
+            @Override
+            public void ping(String sessionId) {
+                pinged.add(sessionId);
+            }
+
+            @Override
+            public void expired(String sessionId) {
+            }
+        });
+        SessionState alice = state("a", wheel.register("a"));
+        registry.register(alice);
+
+        assertSame(alice, registry.unregister("a"));
+        assertNull(registry.unregister("a"));
+
+        wheel.tick();
+        assertTrue(pinged.isEmpty());
+        assertEquals(0, registry.size());
+        assertTrue(registry.outbounds().isEmpty());
+    }
+
+    @Test
+    void withUsername_shouldFollowRenamesAndDisconnections() {
+        SessionState alice = state("a", null);
+        SessionState aliceElsewhere = state("b", null);
+        registry.register(alice);
+        registry.register(aliceElsewhere);
+        registry.rename(alice, "Alice");
+        registry.rename(aliceElsewhere, "Alice");
+
+        assertEquals(Set.of(alice, aliceElsewhere), registry.withUsername("Alice"));
+        assertTrue(registry.withUsername("User-a").isEmpty());
+
+        registry.rename(aliceElsewhere, "Bob");
+        assertEquals(Set.of(alice), registry.withUsername("Alice"));
+        assertEquals(Set.of(aliceElsewhere), registry.withUsername("Bob"));
+
+        registry.unregister("a");
+        assertTrue(registry.withUsername("Alice").isEmpty());
+
+        // A rename racing the disconnection must not put the session back
+        assertFalse(registry.rename(alice, "Carol"));
+        assertTrue(registry.withUsername("Carol").isEmpty());
+        assertEquals("Alice", alice.getUsername());
+    }
+}
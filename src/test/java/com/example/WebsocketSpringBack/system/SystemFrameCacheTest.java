@@ -0,0 +1,64 @@
+package com.example.WebsocketSpringBack.system;
+
+import com.example.WebsocketSpringBack.codec.ChatCodecs;
+import com.example.WebsocketSpringBack.codec.OutboundMessage;
+import com.example.WebsocketSpringBack.codec.WireFormat;
+import com.example.WebsocketSpringBack.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SystemFrameCacheTest {
+
+    private final ChatCodecs codecs = ChatCodecs.defaults();
+
+    @Test
+    void frames_shouldBeReusedWithinTickAndRebuiltWhenInputChanges() {
+        SystemFrameCache cache = new SystemFrameCache(new CoarseClock(Duration.ofHours(1)), codecs);
+
+        OutboundMessage pong = cache.pong();
+        OutboundMessage twoUsers = cache.userCount(2);
+
+        assertSame(pong, cache.pong());
+        assertSame(pong.get(WireFormat.JSON), cache.pong().get(WireFormat.JSON));
+        assertSame(twoUsers, cache.userCount(2));
+        OutboundMessage threeUsers = cache.userCount(3);
+        assertNotSame(twoUsers, threeUsers);
+        assertEquals("3 users online", threeUsers.getMessage());
+        assertEquals("Welcome to Chat", cache.welcome("Chat").getMessage());
+        assertEquals("Welcome to Other", cache.welcome("Other").getMessage());
+    }
+
+    @Test
+    void frames_shouldBeRebuiltOnNextTick() throws Exception {
+        SystemFrameCache cache = new SystemFrameCache(new CoarseClock(Duration.ofMillis(20)), codecs);
+
+        OutboundMessage first = cache.pong();
+        Thread.sleep(50);
+        OutboundMessage second = cache.pong();
+
+        assertNotSame(first, second);
+        assertEquals(ChatMessage.MessageType.PONG, second.getType());
+    }
+
+    @Test
+    void clock_shouldTruncateToResolution() {
+        CoarseClock clock = new CoarseClock(Duration.ofSeconds(1));
+
+        CoarseClock.Tick tick = clock.now();
+
+        assertEquals(0, tick.timestamp() % 1000);
+        assertEquals(tick.tick(), tick.timestamp() / 1000);
+        assertTrue(System.currentTimeMillis() - tick.timestamp() < 2000);
+    }
+
+    @Test
+    void frames_shouldBeStampedWithTickStart() {
+        CoarseClock clock = new CoarseClock(Duration.ofHours(1));
+        SystemFrameCache cache = new SystemFrameCache(clock, codecs);
+
+        assertEquals(clock.now().timestamp(), cache.pong().getTimestamp());
+    }
+}